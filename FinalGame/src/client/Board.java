@@ -20,6 +20,9 @@ implements KeyPressedReleasedListener {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
+    /* how many windows wide and high the radar shows at most. */
+    private static final int  RADAR_RANGE = 16;
+
     private MainFuncProvider  mainFunc;
     private World             world;
     private BoardUpdater      updater;
@@ -28,6 +31,8 @@ implements KeyPressedReleasedListener {
     private int               width, height;
     private int               radarWidth, radarHeight;
     private int               radarX, radarY;
+    private int               spanX, spanY;  /* the part of the world */
+    private int               spanW, spanH;  /* shown on the radar */
     private int               pctWidth;
     private int               offsx = 0, offsy = 0;
     private Image             img;
@@ -104,6 +109,32 @@ implements KeyPressedReleasedListener {
         drawText(x, y, txt, col);
     }
 
+    /* decides what part of the world the radar shows: all of it if it
+     * is small enough, otherwise as much as RADAR_RANGE windows around
+     * what is seen, kept within the world. the world size may change
+     * after the board is made, so the radar is sized here. */
+    private final void setRadarSpan(int offsx, int offsy) {
+        int worldWidth, worldHeight;
+
+        worldWidth = world.getWidth();
+        worldHeight = world.getHeight();
+        spanW = Math.min(worldWidth, RADAR_RANGE * width);
+        spanH = Math.min(worldHeight, RADAR_RANGE * height);
+        spanX = offsx + width / 2 - spanW / 2;
+        spanY = offsy + height / 2 - spanH / 2;
+        spanX = Math.max(0, Math.min(spanX, worldWidth - spanW));
+        spanY = Math.max(0, Math.min(spanY, worldHeight - spanH));
+        radarHeight = (int) (((long) radarWidth * spanH) / spanW);
+        radarY = height - radarHeight - 1;
+    }
+
+    /* radar coordinates of a distance, or of a world coordinate once
+     * the start of the span is subtracted. longs, since large worlds
+     * times the radar size may not fit in an int. */
+    private final int toRadar(int v, int radarSize, int span) {
+        return (int) (((long) v * radarSize) / span);
+    }
+
     private final void drawRadar(int offsx, int offsy) {
         int        q, n;
         Player[]   players;
@@ -113,10 +144,8 @@ implements KeyPressedReleasedListener {
         Ship       ship;
         Point      loc;
         int        x, y;
-        int        worldWidth, worldHeight;
 
-        worldWidth = world.getWidth();
-        worldHeight = world.getHeight();
+        setRadarSpan(offsx, offsy);
 
         /* clear and border the radar window */
         gimg.clearRect(radarX, radarY, radarWidth, radarHeight);
@@ -127,10 +156,10 @@ implements KeyPressedReleasedListener {
 
         /* show a frame indicating the area seen in the window */
         gimg.setColor(Color.gray);
-        gimg.drawRect((offsx * radarWidth) / worldWidth,
-                      (offsy * radarHeight) / worldHeight,
-                      (width * radarWidth) / worldWidth,
-                      (height * radarHeight) / worldHeight);
+        gimg.drawRect(toRadar(offsx - spanX, radarWidth, spanW),
+                      toRadar(offsy - spanY, radarHeight, spanH),
+                      toRadar(width, radarWidth, spanW),
+                      toRadar(height, radarHeight, spanH));
 
         /* place dots for each player */
         gimg.setColor(Color.green);
@@ -142,8 +171,8 @@ implements KeyPressedReleasedListener {
                 continue;
             ship = player.getShip();
             loc = ship.getLocation();
-            x = 1 + (loc.x * (radarWidth - 1)) / worldWidth;
-            y = 1 + (loc.y * (radarHeight - 1)) / worldHeight;
+            x = 1 + toRadar(loc.x - spanX, radarWidth - 1, spanW);
+            y = 1 + toRadar(loc.y - spanY, radarHeight - 1, spanH);
             gimg.drawLine(x, y, x, y);
         }
 
@@ -154,8 +183,8 @@ implements KeyPressedReleasedListener {
         for (q = 0; q < n; q++) {
             bombPack = (BombPack) bombPacks[q];
             loc = bombPack.getLocation();
-            x = 1 + (loc.x * (radarWidth - 1)) / worldWidth;
-            y = 1 + (loc.y * (radarHeight - 1)) / worldHeight;
+            x = 1 + toRadar(loc.x - spanX, radarWidth - 1, spanW);
+            y = 1 + toRadar(loc.y - spanY, radarHeight - 1, spanH);
             gimg.drawLine(x, y, x, y);
         }
 
@@ -453,9 +482,8 @@ implements KeyPressedReleasedListener {
         bounds = new Rectangle();
         addKeyListener(new KeyRepeatNormalizer(this));
         radarWidth = width / 7;
-        radarHeight = (radarWidth * world.getHeight()) / world.getWidth();
         radarX = width - radarWidth - 1;
-        radarY = height - radarHeight - 1;
+        setRadarSpan(0, 0);
         pctWidth = width / 5;
         messages = new TimeoutMessages();
         chatMessages = new TimeoutMessages();
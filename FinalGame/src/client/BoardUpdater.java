@@ -131,10 +131,15 @@ implements Runnable {
 
         while (!done) {
             before = System.currentTimeMillis();
-            if ((me = client.getMyPlayer()) != null) {
+            if ((me = client.getMyPlayer()) != null
+                && client.isWorldReady()) {
                 if (me.isAlive()) {
-                    if (userClient != null)
+                    if (userClient != null) {
+                        /* let the closest-object lookups of the
+                         * user client see this frame's locations. */
+                        client.getWorld().rebuildIndex();
                         userClient.update();
+                    }
                     if (turn != lastTurn) {
                         client.sendSetTurn(turn);
                         lastTurn = turn;
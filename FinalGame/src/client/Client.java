@@ -3,6 +3,7 @@ package client;
 import java.io.*;
 import java.net.*;
 import java.awt.*;
+import java.util.Arrays;
 
 import no.shhsoft.net.*;
 
@@ -16,7 +17,7 @@ extends TCPGameClient {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
-    private static final byte protocolVersion = 11;  /* also update in
+    private static final byte protocolVersion = 21;  /* also update in
                                                       * server/Client-
                                                       * Handler.java */
     private short             myPlayerId;
@@ -27,12 +28,82 @@ extends TCPGameClient {
     private String            userClientClassName;
     private UserDefinedClient userClient;
     private Player            me;
+    private volatile boolean  worldReady;  /* surroundings received */
+    private boolean           wideCoordinates;
+    private String            myName;      /* as we logged in */
+    private volatile String   resumeToken; /* to get our player back */
+    private int[]             lastTicks;   /* last marker in each lane */
+
+    /* how long we try to get back to a server we lost. */
+    private static final long rejoinMillis = 15000L;
 
     private void handleException(IOException e) {
+        if (resumeToken != null)
+            return;  /* the reader will notice, and try to get back */
         System.err.println("client: network write failed: " + e.getMessage());
         System.exit(1);
     }
 
+    /* drops what we know of the world, to be sent it all again. */
+    private final synchronized void forgetWorld() {
+        myPlayerId = -1;
+        me = null;
+        worldReady = false;
+        world.clear();
+        Arrays.fill(lastTicks, -1);
+    }
+
+    /* drops what we know of the world, and connects to the server at
+     * `host' and `port'. with a `token' we get our player back there,
+     * otherwise we log in again, in `arena' if there is one. */
+    private final void rejoin(String host, int port, String token,
+                              String arena)
+    throws IOException {
+        synchronized (this) {
+            reconnect(host, port);
+            forgetWorld();
+            if (token.length() > 0)
+                sendResume(token);
+            else {
+                if (arena.length() > 0)
+                    sendJoinArena(arena);
+                sendLogin(myName);
+            }
+            flush();
+        }
+        board.updateScoreText();
+    }
+
+    /* the connection broke. the server may be back soon, or a standby
+     * may take its place, and know us by our token. we keep what we
+     * know of the world, since the server may only need to send what
+     * we missed, see receiveResumed. returns false if we don't get
+     * back in time. */
+    private final boolean rejoinAfterLoss() {
+        long deadline;
+
+        System.err.println("client: lost the server, trying to get back");
+        deadline = System.currentTimeMillis() + rejoinMillis;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            try {
+                synchronized (this) {
+                    reconnect(host, port);
+                    sendResume(resumeToken);
+                    flush();
+                }
+                return true;
+            } catch (IOException e) {
+                /* not yet. */
+            }
+        }
+        return false;
+    }
+
     private final void receiveGetLost(Message m)
     throws IOException {
         String msg;
@@ -42,6 +113,55 @@ extends TCPGameClient {
         mainFunc.doQuit();
     }
 
+    /* the server has handed us over to another one, which knows us
+     * by `token'. without a token, as from a front door, we log in
+     * over there, in `arena' if there is one. everything we know of
+     * the world is from the old one, so it goes. */
+    private final void receiveRedirect(Message m)
+    throws IOException {
+        String host, token, arena;
+        int    port;
+
+        host  = m.getString();
+        port  = m.getInt();
+        token = m.getString();
+        arena = m.getString();
+
+        resumeToken = null;
+        rejoin(host, port, token, arena);
+    }
+
+    private final void receiveSetResumeToken(Message m)
+    throws IOException {
+        resumeToken = m.getString();
+    }
+
+    /* the server got us back after we lost it. unless it says we may
+     * keep what we have, the world is sent over again. */
+    private final void receiveResumed(Message m)
+    throws IOException {
+        boolean delta;
+
+        delta = m.getBoolean();
+
+        if (!delta) {
+            forgetWorld();
+            board.updateScoreText();
+        }
+    }
+
+    /* the server marks the end of each update in each lane. */
+    private final void receiveTick(Message m)
+    throws IOException {
+        byte lane;
+        int  tick;
+
+        lane = m.getByte();
+        tick = m.getInt();
+
+        lastTicks[lane] = tick;
+    }
+
     private final void receiveMyId(Message m)
     throws IOException {
         short id;
@@ -63,8 +183,8 @@ extends TCPGameClient {
 
         id    = m.getShort();
         name  = m.getString();
-        x     = m.getShort();
-        y     = m.getShort();
+        x     = Coordinates.get(m, wideCoordinates);
+        y     = Coordinates.get(m, wideCoordinates);
         dir   = m.getShort();
         col   = m.getInt();
         alive = m.getBoolean();
@@ -79,15 +199,9 @@ extends TCPGameClient {
         if (me != null)
             board.addMessage(name + " enters the game.");
         if (id == myPlayerId) {
-            /* that's me! i'm accepted! */
+            /* that's me! i'm accepted! the world around us follows,
+             * see receiveWorldReady. */
             me = player;
-            if (userClient != null) {
-                /* the server sends the entire world description
-                 * before sending the new player info, so everything
-                 * should be available for the user defined client at
-                 * this point. */
-                userClient.infoLoggedIntoServer();
-            }
         }
         board.updateScoreText();
 
@@ -138,8 +252,8 @@ extends TCPGameClient {
         Player p;
 
         id  = m.getShort();
-        x   = m.getShort();
-        y   = m.getShort();
+        x   = Coordinates.get(m, wideCoordinates);
+        y   = Coordinates.get(m, wideCoordinates);
         dir = m.getShort();
 
         if ((p = (Player) world.findPlayer(id)) != null) {
@@ -241,8 +355,8 @@ extends TCPGameClient {
         Player p;
 
         id  = m.getShort();
-        x   = m.getShort();
-        y   = m.getShort();
+        x   = Coordinates.get(m, wideCoordinates);
+        y   = Coordinates.get(m, wideCoordinates);
         dir = m.getShort();
 
         if ((p = (Player) world.findPlayer(id)) != null) {
@@ -261,15 +375,26 @@ extends TCPGameClient {
         }
     }
 
-    private final void receiveNewStar(Message m)
+    private final void receiveSetWorldSize(Message m)
     throws IOException {
-        int x, y, col;
+        int width, height;
 
-        x   = m.getShort();
-        y   = m.getShort();
-        col = m.getInt();
+        width  = m.getInt();
+        height = m.getInt();
+
+        world.setSize(width, height);
+        wideCoordinates = Coordinates.isWide(width, height);
+    }
 
-        world.addStar(new Star(x, y, new Color(col)));
+    private final void receiveSetStarField(Message m)
+    throws IOException {
+        int seed;
+
+        seed = m.getInt();
+
+        /* the same seed gives the same stars as on the server. */
+        world.setStarField(new StarField(seed, world.getWidth(),
+                                         world.getHeight()));
     }
 
     private final void receiveNewPhaser(Message m)
@@ -282,8 +407,8 @@ extends TCPGameClient {
 
         id      = m.getShort();
         ownerId = m.getShort();
-        x       = m.getShort();
-        y       = m.getShort();
+        x       = Coordinates.get(m, wideCoordinates);
+        y       = Coordinates.get(m, wideCoordinates);
         dir     = m.getShort();
         col     = m.getInt();
 
@@ -317,8 +442,8 @@ extends TCPGameClient {
         Phaser p;
 
         id = m.getShort();
-        x  = m.getShort();
-        y  = m.getShort();
+        x  = Coordinates.get(m, wideCoordinates);
+        y  = Coordinates.get(m, wideCoordinates);
 
         if ((p = (Phaser) world.findPhaser(id)) != null) {
             p.setLocation(x, y);
@@ -338,8 +463,8 @@ extends TCPGameClient {
 
         id      = m.getShort();
         ownerId = m.getShort();
-        x       = m.getShort();
-        y       = m.getShort();
+        x       = Coordinates.get(m, wideCoordinates);
+        y       = Coordinates.get(m, wideCoordinates);
         dir     = m.getShort();
         col     = m.getInt();
 
@@ -373,8 +498,8 @@ extends TCPGameClient {
         Bomb  b;
 
         id = m.getShort();
-        x  = m.getShort();
-        y  = m.getShort();
+        x  = Coordinates.get(m, wideCoordinates);
+        y  = Coordinates.get(m, wideCoordinates);
 
         if ((b = (Bomb) world.findBomb(id)) != null) {
             b.setLocation(x, y);
@@ -392,8 +517,8 @@ extends TCPGameClient {
         BombPack bp;
 
         id  = m.getShort();
-        x   = m.getShort();
-        y   = m.getShort();
+        x   = Coordinates.get(m, wideCoordinates);
+        y   = Coordinates.get(m, wideCoordinates);
         dir = m.getShort();
         col = m.getInt();
 
@@ -426,8 +551,8 @@ extends TCPGameClient {
         BombPack bp;
 
         id = m.getShort();
-        x  = m.getShort();
-        y  = m.getShort();
+        x  = Coordinates.get(m, wideCoordinates);
+        y  = Coordinates.get(m, wideCoordinates);
 
         if ((bp = (BombPack) world.findBombPack(id)) != null) {
             bp.setLocation(x, y);
@@ -445,8 +570,8 @@ extends TCPGameClient {
         int   distance;
 
         id       = m.getShort();
-        x        = m.getShort();
-        y        = m.getShort();
+        x        = Coordinates.get(m, wideCoordinates);
+        y        = Coordinates.get(m, wideCoordinates);
         level    = m.getByte();
         maxLevel = m.getByte();
 
@@ -483,6 +608,28 @@ extends TCPGameClient {
             e.setLevel(level);
     }
 
+    private final void receiveWorldReady(Message m)
+    throws IOException {
+        worldReady = true;
+        if (userClient != null && me != null) {
+            /* the server streams the world nearest first, and says
+             * so when everything on screen has been sent. the rest
+             * follows while we play. */
+            userClient.infoLoggedIntoServer();
+        }
+    }
+
+    private final void receivePing(Message m)
+    throws IOException {
+        int stamp;
+
+        stamp = m.getInt();
+
+        /* answer right away, so the server sees the real round trip. */
+        sendPong(stamp);
+        flush();
+    }
+
     private final void receivePlayerSays(Message m)
     throws IOException {
         short  id;
@@ -510,6 +657,10 @@ extends TCPGameClient {
         return myPlayerId;
     }
 
+    final World getWorld() {
+        return world;
+    }
+
 /*-----------------------------------------------------------------------+
  |  INHERITANTS' INTERFACE                                               |
  +----------------------------------------------------------------------*/
@@ -523,6 +674,18 @@ extends TCPGameClient {
               case ClientCommands.GET_LOST:
                 receiveGetLost(m);
                 break;
+              case ClientCommands.REDIRECT:
+                receiveRedirect(m);
+                break;
+              case ClientCommands.SET_RESUME_TOKEN:
+                receiveSetResumeToken(m);
+                break;
+              case ClientCommands.RESUMED:
+                receiveResumed(m);
+                break;
+              case ClientCommands.TICK:
+                receiveTick(m);
+                break;
               case ClientCommands.SET_YOUR_ID:
                 receiveMyId(m);
                 break;
@@ -553,8 +716,11 @@ extends TCPGameClient {
               case ClientCommands.PLAYER_RESURRECTS:
                 receivePlayerResurrects(m);
                 break;
-              case ClientCommands.NEW_STAR:
-                receiveNewStar(m);
+              case ClientCommands.SET_WORLD_SIZE:
+                receiveSetWorldSize(m);
+                break;
+              case ClientCommands.SET_STAR_FIELD:
+                receiveSetStarField(m);
                 break;
               case ClientCommands.NEW_PHASER:
                 receiveNewPhaser(m);
@@ -595,11 +761,19 @@ extends TCPGameClient {
               case ClientCommands.PLAYER_SAYS:
                 receivePlayerSays(m);
                 break;
+              case ClientCommands.PING:
+                receivePing(m);
+                break;
+              case ClientCommands.WORLD_READY:
+                receiveWorldReady(m);
+                break;
               default:
                 System.err.println("client: got unknown command "
                                    + m.getType());
             }
         } catch (IOException e) {
+            if (resumeToken != null && rejoinAfterLoss())
+                return true;
             System.err.println("client: network read failed: "
                                + e.getMessage());
             System.exit(1);
@@ -620,12 +794,21 @@ extends TCPGameClient {
         this.board = board;
         this.userClientClassName = userClientClassName;
         me = null;
+        worldReady = false;
+        wideCoordinates = false;
+        lastTicks = new int[Lane.COUNT];
+        Arrays.fill(lastTicks, -1);
     }
 
     public final Player getMyPlayer() {
         return me;
     }
 
+    /* true once the server has sent what is around us. */
+    public final boolean isWorldReady() {
+        return worldReady;
+    }
+
     public final void startUpdater() {
         Class userClientClass;
 
@@ -649,11 +832,55 @@ extends TCPGameClient {
         board.stopUpdater();
     }
 
+    /* on a server with several arenas, asks to play in the one
+     * called `name'. must come before the login. */
+    public final synchronized void sendJoinArena(String name) {
+        try {
+            Message m = new Message(ServerCommands.JOIN_ARENA);
+            m.putString(name);
+            sendMessageNoFlush(m);
+        } catch (IOException e) {
+            handleException(e);
+        }
+    }
+
     public final synchronized void sendLogin(String name) {
         try {
             Message m = new Message(ServerCommands.LOGIN);
             m.putByte(protocolVersion);
             m.putString(name);
+            myName = name;
+            sendMessageNoFlush(m);
+        } catch (IOException e) {
+            handleException(e);
+        }
+    }
+
+    /* takes up a player that was handed to this server, see
+     * receiveRedirect, or that we had before the connection broke.
+     * the server is told how far we got, so it may send only what we
+     * missed. */
+    public final synchronized void sendResume(String token) {
+        int q;
+
+        try {
+            Message m = new Message(ServerCommands.RESUME);
+            m.putByte(protocolVersion);
+            m.putString(token);
+            for (q = 0; q < lastTicks.length; q++)
+                m.putInt(lastTicks[q]);
+            sendMessageNoFlush(m);
+        } catch (IOException e) {
+            handleException(e);
+        }
+    }
+
+    /* we are leaving for good. the server removes our player right
+     * away, instead of waiting for us to come back. */
+    public final synchronized void sendLogout() {
+        resumeToken = null;
+        try {
+            Message m = new Message(ServerCommands.LOGOUT);
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
@@ -664,6 +891,7 @@ extends TCPGameClient {
         try {
             Message m = new Message(ServerCommands.SET_NAME);
             m.putString(name);
+            myName = name;
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
@@ -727,6 +955,16 @@ extends TCPGameClient {
         }
     }
 
+    public final synchronized void sendPong(int stamp) {
+        try {
+            Message m = new Message(ServerCommands.PONG);
+            m.putInt(stamp);
+            sendMessageNoFlush(m);
+        } catch (IOException e) {
+            handleException(e);
+        }
+    }
+
     public final synchronized void flush() {
         try {
             flushOut();
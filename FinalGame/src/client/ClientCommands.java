@@ -16,7 +16,7 @@ public final class ClientCommands {
     public static final byte PLAYER_HIT             =  7;
     public static final byte PLAYER_DIES            =  8;
     public static final byte PLAYER_RESURRECTS      =  9;
-    public static final byte NEW_STAR               = 10;
+    public static final byte SET_STAR_FIELD         = 10;
     public static final byte NEW_PHASER             = 11;
     public static final byte REMOVE_PHASER          = 12;
     public static final byte SET_PHASER_POSITION    = 13;
@@ -30,4 +30,11 @@ public final class ClientCommands {
     public static final byte REMOVE_EXPLOSION       = 21;
     public static final byte SET_EXPLOSION_LEVEL    = 22;
     public static final byte PLAYER_SAYS            = 23;
+    public static final byte PING                   = 24;
+    public static final byte WORLD_READY            = 25;
+    public static final byte SET_WORLD_SIZE         = 26;
+    public static final byte REDIRECT               = 27;
+    public static final byte SET_RESUME_TOKEN       = 28;
+    public static final byte TICK                   = 29;
+    public static final byte RESUMED                = 30;
 }
@@ -0,0 +1,51 @@
+package client;
+
+import no.shhsoft.net.*;
+
+/**
+ * How coordinates travel between the server and the clients. In worlds
+ * where every coordinate fits in a short, which is most of them, a
+ * coordinate takes two bytes as it always did. Larger worlds use four.
+ * The client learns which from the size of the world, that the server
+ * sends when it logs in.
+ */
+public final class Coordinates {
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /**
+     * Tells if a world of the given size needs four byte coordinates.
+     *
+     * @param      width   the width of the world.
+     * @param      height  the height of the world.
+     * @return     <CODE>true</CODE> if it does.
+     */
+    public static final boolean isWide(int width, int height) {
+        return width > Short.MAX_VALUE || height > Short.MAX_VALUE;
+    }
+
+    /**
+     * Adds a coordinate to a message.
+     *
+     * @param      m       the message.
+     * @param      v       the coordinate.
+     * @param      wide    whether four byte coordinates are used.
+     */
+    public static final void put(Message m, int v, boolean wide) {
+        if (wide)
+            m.putInt(v);
+        else
+            m.putShort((short) v);
+    }
+
+    /**
+     * Reads a coordinate from a message.
+     *
+     * @param      m       the message.
+     * @param      wide    whether four byte coordinates are used.
+     * @return     the coordinate.
+     */
+    public static final int get(Message m, boolean wide) {
+        return wide ? m.getInt() : m.getShort();
+    }
+}
@@ -804,6 +804,23 @@ public class UserDefinedClient {
         return world.getClosestEnemy(getMyPlayer());
     }
 
+    /**
+     * Finds the closest enemy players that are alive, sorted with
+     * the closest first. This method compares according to the
+     * location of your client's player.
+     *
+     * @param      k       the maximum number of players to return.
+     * @return     up to <CODE>k</CODE> players. The array is empty
+     *             if no other players are present.
+     * @see        objects.Player
+     */
+    public final Player[] getClosestEnemies(int k) {
+        Point myLoc;
+
+        myLoc = getMyPlayer().getLocation();
+        return world.getClosestEnemies(getMyPlayer(), myLoc.x, myLoc.y, k);
+    }
+
     /**
      * Finds the closest enemy bomb. This method
      * compares locations against a given point, that possibly lays
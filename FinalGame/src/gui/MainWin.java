@@ -50,6 +50,8 @@ implements MainFuncProvider,
 
         client.start();
         client.startUpdater();
+        if (main.getArenaName() != null)
+            client.sendJoinArena(main.getArenaName());
         client.sendLogin(main.getMyName());
         client.flush();
     }
@@ -57,6 +59,8 @@ implements MainFuncProvider,
     private void disconnectFromServer() {
         if (client != null) {
             client.stopUpdater();
+            client.sendLogout();
+            client.flush();
             client.stop();
             client = null;
         }
@@ -14,6 +14,29 @@ public final class MainServer {
     private String       remoteServerName = "localhost";
     private int          remoteServerPort = 9998;
     private int          localServerPort = 9998;
+    private int          serverThreads = 1;
+    private int          urgentFlushMicros = 0;
+    private int          sendBudget = 0;
+    private int          linkReportSeconds = 0;
+    private int          worldWidth = 0;
+    private int          worldHeight = 0;
+    private int          numArenas = 0;
+    private int          arenaPlayers = 0;
+    private int          arenaReportSeconds = 0;
+    private String       regionList;
+    private int          regionIndex = 0;
+    private boolean      frontDoor = false;
+    private String       reportToHost;
+    private int          reportToPort;
+    private String       publicHost;
+    private String       drainToHost;
+    private int          drainToPort;
+    private int          standbyFeedPort = 0;
+    private int          standbyOfPort = 0;
+    private String       serverSecret;
+
+    /* how long to wait for the players to move when draining. */
+    private static final long drainMillis = 10000L;
     private String       userClientClassName;
     private boolean      connectImmediately = true;
 
@@ -111,11 +134,185 @@ public final class MainServer {
                                    + "be >= 30 and <= 100");
                 System.exit(1);
             }
+        } else if (args[n].equals("-threads")
+                   || args[n].equals("--threads")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -threads");
+                System.exit(1);
+            }
+            serverThreads = Integer.valueOf(args[++n]).intValue();
+            if (serverThreads < 1) {
+                System.err.println("argument to -threads must be >= 1");
+                System.exit(1);
+            }
+        } else if (args[n].equals("-urgent-flush")
+                   || args[n].equals("--urgent-flush")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -urgent-flush");
+                System.exit(1);
+            }
+            urgentFlushMicros = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-send-budget")
+                   || args[n].equals("--send-budget")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -send-budget");
+                System.exit(1);
+            }
+            sendBudget = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-link-report")
+                   || args[n].equals("--link-report")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -link-report");
+                System.exit(1);
+            }
+            linkReportSeconds = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-world-size")
+                   || args[n].equals("--world-size")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -world-size");
+                System.exit(1);
+            }
+            String size;
+            int    x;
+
+            size = args[++n];
+            x = size.indexOf('x');
+            if (x < 0) {
+                System.err.println("argument to -world-size must "
+                                   + "be like 8000x6000");
+                System.exit(1);
+            }
+            worldWidth = Integer.valueOf(size.substring(0, x)).intValue();
+            worldHeight = Integer.valueOf(size.substring(x + 1)).intValue();
+            if (worldWidth < 1000 || worldHeight < 1000) {
+                System.err.println("argument to -world-size must "
+                                   + "be at least 1000x1000");
+                System.exit(1);
+            }
+        } else if (args[n].equals("-arenas")
+                   || args[n].equals("--arenas")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -arenas");
+                System.exit(1);
+            }
+            numArenas = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-arena-players")
+                   || args[n].equals("--arena-players")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -arena-players");
+                System.exit(1);
+            }
+            arenaPlayers = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-arena-report")
+                   || args[n].equals("--arena-report")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -arena-report");
+                System.exit(1);
+            }
+            arenaReportSeconds = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-regions")
+                   || args[n].equals("--regions")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -regions");
+                System.exit(1);
+            }
+            regionList = args[++n];
+        } else if (args[n].equals("-region")
+                   || args[n].equals("--region")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -region");
+                System.exit(1);
+            }
+            regionIndex = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-front-door")
+                   || args[n].equals("--front-door")) {
+            dedicatedServer = true;
+            frontDoor = true;
+        } else if (args[n].equals("-report-to")
+                   || args[n].equals("--report-to")) {
+            int colon;
+
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -report-to");
+                System.exit(1);
+            }
+            ++n;
+            colon = args[n].lastIndexOf(':');
+            if (colon < 0) {
+                System.err.println("-report-to wants host:port");
+                System.exit(1);
+            }
+            reportToHost = args[n].substring(0, colon);
+            reportToPort = Integer.valueOf(args[n].substring(colon + 1))
+                           .intValue();
+        } else if (args[n].equals("-drain-to")
+                   || args[n].equals("--drain-to")) {
+            int colon;
+
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -drain-to");
+                System.exit(1);
+            }
+            ++n;
+            colon = args[n].lastIndexOf(':');
+            if (colon < 0) {
+                System.err.println("-drain-to wants host:port");
+                System.exit(1);
+            }
+            drainToHost = args[n].substring(0, colon);
+            drainToPort = Integer.valueOf(args[n].substring(colon + 1))
+                          .intValue();
+        } else if (args[n].equals("-standby-feed")
+                   || args[n].equals("--standby-feed")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -standby-feed");
+                System.exit(1);
+            }
+            standbyFeedPort = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-standby-of")
+                   || args[n].equals("--standby-of")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -standby-of");
+                System.exit(1);
+            }
+            dedicatedServer = true;
+            standbyOfPort = Integer.valueOf(args[++n]).intValue();
+        } else if (args[n].equals("-server-secret")
+                   || args[n].equals("--server-secret")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -server-secret");
+                System.exit(1);
+            }
+            serverSecret = args[++n];
+        } else if (args[n].equals("-public-host")
+                   || args[n].equals("--public-host")) {
+            if (n == args.length - 1) {
+                System.err.println("missing parameter of -public-host");
+                System.exit(1);
+            }
+            publicHost = args[++n];
         } else if (args[n].equals("-help") || args[n].equals("--help")) {
             System.out.println(  "usage: java SpaceGame "
                                  + "[-host hostname] "
                                  + "[-port port] "
                                  + "[-server] "
+                                 + "[-threads update-threads] "
+                                 + "[-urgent-flush microseconds] "
+                                 + "[-send-budget bytes-per-update] "
+                                 + "[-link-report seconds] "
+                                 + "[-world-size widthxheight] "
+                                 + "[-arenas count] "
+                                 + "[-arena-players max-per-arena] "
+                                 + "[-arena-report seconds] "
+                                 + "[-regions host:port,host:port...] "
+                                 + "[-region index] "
+                                 + "[-front-door] "
+                                 + "[-report-to host:port] "
+                                 + "[-public-host hostname] "
+                                 + "[-drain-to host:port] "
+                                 + "[-server-secret secret] "
+                                 + "[-standby-feed port] "
+                                 + "[-standby-of feed-port] "
                                  + "[-scale resize-percent] "
                                  + "[-hack class-name]");
             System.exit(0);
@@ -139,11 +336,80 @@ public final class MainServer {
         for (q = 0; q < args.length; )
             q = parseCommandLineArgument(args, q);
 
-        if (dedicatedServer) {
+        if (frontDoor) {
+            FrontDoor door;
+
+            try {
+                door = new FrontDoor(localServerPort);
+                door.setServerSecret(serverSecret);
+                door.setReportSeconds(arenaReportSeconds);
+                door.start();
+                System.out.println("SpaceGame: front door running on "
+                                   + "port " + localServerPort);
+            } catch (IOException e) {
+                System.err.println("SpaceGame: failed to set up front door "
+                                   + "on port " + localServerPort + ": "
+                                   + e.getMessage());
+                System.exit(1);
+            }
+        } else if (standbyOfPort > 0) {
+            Standby standby;
+
+            standby = new Standby(localServerPort, serverThreads,
+                                  standbyOfPort);
+            standby.setUrgentFlushMicros(urgentFlushMicros);
+            standby.setSendBudget(sendBudget);
+            standby.setLinkReportSeconds(linkReportSeconds);
+            standby.setServerSecret(serverSecret);
+            standby.setReportSeconds(arenaReportSeconds);
+            standby.start();
+            System.out.println("SpaceGame: standing by for port "
+                               + localServerPort);
+        } else if (dedicatedServer && numArenas > 0) {
+            ArenaServer server;
+
+            try {
+                server = new ArenaServer(localServerPort, numArenas,
+                                         arenaPlayers,
+                                         worldWidth, worldHeight);
+                server.setUrgentFlushMicros(urgentFlushMicros);
+                server.setSendBudget(sendBudget);
+                server.setLinkReportSeconds(linkReportSeconds);
+                server.setReportSeconds(arenaReportSeconds);
+                server.setServerSecret(serverSecret);
+                if (reportToHost != null)
+                    server.setFrontDoor(reportToHost, reportToPort,
+                                        publicHost);
+                server.start();
+                System.out.println("SpaceGame: dedicated server running "
+                                   + numArenas + " arenas on "
+                                   + "port " + localServerPort);
+            } catch (IOException e) {
+                System.err.println("SpaceGame: failed to set up server on "
+                                   + "port " + localServerPort + ": "
+                                   + e.getMessage());
+                System.exit(1);;
+            }
+        } else if (dedicatedServer) {
             Server server;
 
             try {
-                server = new Server(localServerPort);
+                server = new Server(localServerPort, serverThreads,
+                                    worldWidth, worldHeight);
+                server.setUrgentFlushMicros(urgentFlushMicros);
+                server.setSendBudget(sendBudget);
+                server.setLinkReportSeconds(linkReportSeconds);
+                server.setServerSecret(serverSecret);
+                if (regionList != null)
+                    server.setRegions(regionList, regionIndex);
+                if (reportToHost != null)
+                    server.setFrontDoor(reportToHost, reportToPort,
+                                        publicHost);
+                if (drainToHost != null)
+                    server.setDrainOnExit(drainToHost, drainToPort,
+                                          drainMillis);
+                if (standbyFeedPort > 0)
+                    server.setStandbyFeed(standbyFeedPort);
                 server.start();
                 System.out.println("SpaceGame: dedicated server running on "
                                    + "port " + localServerPort);
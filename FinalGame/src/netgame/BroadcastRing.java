@@ -0,0 +1,113 @@
+package netgame;
+
+import java.util.concurrent.atomic.*;
+
+import no.shhsoft.net.*;
+
+/*
+ * A fixed size ring of messages meant for every connected client.
+ * Producers put each message in the ring once, and every client's
+ * writer thread reads it from there at its own pace, so sending to
+ * everyone costs the same no matter how many are listening, and no
+ * producer ever waits for a slow client.
+ *
+ * Each message is numbered. A reader keeps the number of the next
+ * message it wants. The ring is never blocked by readers: a reader
+ * that falls so far behind that its next message has been overwritten
+ * is told so, and is expected to give up on its client.
+ *
+ * Each message may carry a tag, that readers may use to decide
+ * whether their client wants it or not.
+ */
+public final class BroadcastRing {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private int                  mask;
+    private AtomicReferenceArray entries;
+    private AtomicLong           next;     /* next number to hand out */
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    static final class Entry {
+        final long    seq;
+        final Message message;
+        final Object  tag;
+        final int     lane;
+
+        Entry(long seq, Message message, Object tag, int lane) {
+            this.seq = seq;
+            this.message = message;
+            this.tag = tag;
+            this.lane = lane;
+        }
+    }
+
+    /* the entry with the given number, or null if it is not published
+     * yet. throws if it has been overwritten. entries never change, so
+     * the message and tag of an entry always belong together. */
+    final Entry entry(long seq)
+    throws RingOverrunException {
+        Entry e;
+
+        e = (Entry) entries.get((int) seq & mask);
+        if (e == null || e.seq < seq)
+            return null;
+        if (e.seq > seq)
+            throw new RingOverrunException(seq, e.seq);
+        return e;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /* `capacity' is rounded up to a power of two. */
+    public BroadcastRing(int capacity) {
+        int size;
+
+        size = 1;
+        while (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        entries = new AtomicReferenceArray(size);
+        next = new AtomicLong(0L);
+    }
+
+    /* may be called from any thread. the message must not be changed
+     * afterwards, as it is shared by all readers. `tag' is anything
+     * the readers need to filter on, or null. `lane' is one of the
+     * Lane constants. returns the number of the message. */
+    public long publish(Message m, Object tag, int lane) {
+        long seq;
+
+        seq = next.getAndIncrement();
+        entries.set((int) seq & mask, new Entry(seq, m, tag, lane));
+        return seq;
+    }
+
+    /* the number the next published message will get. a new reader
+     * starts here. */
+    public long getCursor() {
+        return next.get();
+    }
+
+    /* tells if the message with the given number, or the next one to
+     * be published, is still in the ring. */
+    public boolean holds(long seq) {
+        long n;
+
+        n = next.get();
+        return seq <= n && n - seq <= mask;
+    }
+
+    /* the message with the given number, or null if it is not
+     * published yet. */
+    public Message get(long seq)
+    throws RingOverrunException {
+        Entry e;
+
+        e = entry(seq);
+        return e != null ? e.message : null;
+    }
+}
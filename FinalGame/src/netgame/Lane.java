@@ -0,0 +1,21 @@
+package netgame;
+
+/**
+ * The priority classes of outgoing messages. Each connection keeps one
+ * queue per lane, and drains them in a weighted order within a byte
+ * budget, so that bulk traffic never holds up the game.
+ */
+public final class Lane {
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /** State that is soon replaced by newer state, like positions. */
+    public static final int REALTIME = 0;
+    /** Game events that must all arrive, like new or removed objects. */
+    public static final int RELIABLE = 1;
+    /** Everything that may wait, like chat, scores and decorations. */
+    public static final int BULK     = 2;
+
+    /** The number of lanes. */
+    public static final int COUNT    = 3;
+}
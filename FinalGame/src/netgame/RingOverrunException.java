@@ -0,0 +1,25 @@
+package netgame;
+
+import java.io.*;
+
+/*
+ * Thrown when a reader of a BroadcastRing has fallen so
+ * far behind that the message it wanted next has been overwritten.
+ * The client the reader sends to has missed messages, and can not be
+ * kept in sync any more.
+ */
+public class RingOverrunException
+extends IOException {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final long serialVersionUID = 1L;
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    public RingOverrunException(long wanted, long found) {
+        super("fell behind on broadcasts: wanted #" + wanted
+              + ", ring is at #" + found);
+    }
+}
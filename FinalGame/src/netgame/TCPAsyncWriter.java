@@ -10,11 +10,47 @@ implements Runnable {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
+    /* share of each lane, in the order of the Lane constants. */
+    private static final int[] weights = { 4, 2, 1 };
+    /* bytes per unit of weight handed out in each round. */
+    private static final int   quantum = 512;
+    /* how long to wait before trying again when the budget ran out. */
+    private static final long  retryMillis = 20;
+    /* seconds worth of budget we let pile up before giving up. */
+    private static final int   maxBacklogSeconds = 8;
+
+    /* a message for this client only. `at' is the broadcast that was
+     * next in the ring when it was added, so the two kinds of messages
+     * go out in the order they were made. */
+    private static final class Pending {
+        Message m;
+        int     lane;
+        long    at;
+
+        Pending(Message m, int lane, long at) {
+            this.m = m;
+            this.lane = lane;
+            this.at = at;
+        }
+    }
+
     private Thread thread;
     private boolean done;
+    private boolean flushWanted;
     private DataOutputStream out;
     private Vector messages;
     private Vector exceptions;
+    private BroadcastRing ring;    /* null until subscribed */
+    private long cursor;           /* next broadcast to look at */
+    private long[] from;           /* per lane, null to take all */
+    private TCPGameServerClientHandler filter;
+    private Vector[] lanes;        /* waiting to be written, per lane */
+    private volatile int backlog;  /* bytes waiting in the lanes */
+    private int budget;            /* bytes per second, 0 for no limit */
+    private long allowance;        /* bytes we may write right now */
+    private long lastRefill;
+    private volatile long written;     /* bytes handed to the socket */
+    private volatile long writeNanos;  /* time spent doing so */
 
     private void throwExceptionIfAny()
     throws IOException {
@@ -29,31 +65,235 @@ implements Runnable {
         }
     }
 
+    private void write(byte[] buff) {
+        try {
+            out.writeShort(buff.length);
+            out.write(buff, 0, buff.length);
+            written += buff.length + 2;
+        } catch (IOException e) {
+            exceptions.addElement(e);
+        }
+    }
+
+    /* the lanes keep the encoded messages. */
+    private void enqueue(Message m, int lane) {
+        byte[] buff;
+
+        buff = m.getBuffer();
+        lanes[lane].addElement(buff);
+        backlog += buff.length + 2;
+    }
+
+    /* moves the private messages, and the broadcasts published so
+     * far, to the lanes, in the order they were made. */
+    private void collect(Vector tosend) {
+        int                 q;
+        Pending             p;
+        BroadcastRing.Entry e;
+
+        q = 0;
+        while (!done) {
+            if (q < tosend.size()) {
+                p = (Pending) tosend.elementAt(q);
+                if (ring == null || p.at <= cursor) {
+                    enqueue(p.m, p.lane);
+                    ++q;
+                    continue;
+                }
+            }
+            if (ring == null)
+                break;
+            try {
+                e = ring.entry(cursor);
+            } catch (RingOverrunException ex) {
+                /* we can't catch up. let the owner know, and stop
+                 * reading broadcasts. addMessage reads the ring under
+                 * the same lock. */
+                exceptions.addElement(ex);
+                synchronized (messages) {
+                    ring = null;
+                }
+                continue;
+            }
+            if (e == null) {
+                /* nothing more published. the rest of the private
+                 * messages may go. */
+                for (; q < tosend.size(); q++) {
+                    p = (Pending) tosend.elementAt(q);
+                    enqueue(p.m, p.lane);
+                }
+                break;
+            }
+            ++cursor;
+            if (from != null && e.seq < from[e.lane])
+                continue;  /* the client had it already */
+            if (filter.wantsBroadcast(e.tag))
+                enqueue(e.message, e.lane);
+        }
+    }
+
+    private void refill() {
+        long now;
+
+        now = System.currentTimeMillis();
+        if (budget > 0) {
+            allowance += (budget * (now - lastRefill)) / 1000L;
+            /* don't save up for more than a quarter of a second. */
+            if (allowance > budget / 4)
+                allowance = budget / 4;
+        }
+        lastRefill = now;
+    }
+
+    /* writes from the lanes, round by round, giving each lane its
+     * weighted share, until the lanes are empty or the budget is
+     * used up. a message may overdraw the budget; the debt is paid
+     * back before anything more is written. */
+    private void drain() {
+        int     lane, size;
+        int[]   deficit;
+        boolean any;
+        byte[]  buff;
+
+        refill();
+        deficit = new int[Lane.COUNT];
+        while (!done && backlog > 0 && (budget == 0 || allowance > 0)) {
+            any = false;
+            for (lane = 0; lane < Lane.COUNT; lane++) {
+                if (lanes[lane].size() == 0) {
+                    deficit[lane] = 0;
+                    continue;
+                }
+                deficit[lane] += weights[lane] * quantum;
+                while (lanes[lane].size() > 0
+                       && (budget == 0 || allowance > 0)) {
+                    buff = (byte[]) lanes[lane].elementAt(0);
+                    size = buff.length + 2;
+                    if (size > deficit[lane])
+                        break;
+                    lanes[lane].removeElementAt(0);
+                    write(buff);
+                    deficit[lane] -= size;
+                    allowance -= size;
+                    backlog -= size;
+                    any = true;
+                }
+            }
+            if (!any && budget != 0 && allowance <= 0)
+                break;
+        }
+        if (budget > 0 && backlog > budget * maxBacklogSeconds) {
+            exceptions.addElement(new IOException("client can't keep up: "
+                                                  + backlog
+                                                  + " bytes waiting"));
+            for (lane = 0; lane < Lane.COUNT; lane++)
+                lanes[lane].removeAllElements();
+            backlog = 0;
+        }
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* start passing on the broadcasts from `ring' that `filter' wants,
+     * beginning with the next one published. */
+    void subscribe(BroadcastRing ring, TCPGameServerClientHandler filter) {
+        synchronized (messages) {
+            this.filter = filter;
+            this.cursor = ring.getCursor();
+            this.from = null;
+            this.ring = ring;
+        }
+    }
+
+    /* like the above, but beginning further back, with broadcast
+     * number `from[lane]' in each lane. for a client that lost its
+     * connection, and got each lane up to a different point. the ring
+     * must still hold the earliest of them. */
+    void subscribe(BroadcastRing ring, TCPGameServerClientHandler filter,
+                   long[] from) {
+        int  q;
+        long first;
+
+        first = from[0];
+        for (q = 1; q < from.length; q++)
+            if (from[q] < first)
+                first = from[q];
+        synchronized (messages) {
+            this.filter = filter;
+            this.cursor = first;
+            this.from = from;
+            this.ring = ring;
+        }
+    }
+
 /*-----------------------------------------------------------------------+
  |  INHERITANTS' INTERFACE                                               |
  +----------------------------------------------------------------------*/
-    protected void addMessage(Message m)
+    protected void addMessage(Message m, int lane)
     throws IOException {
         throwExceptionIfAny();
-        messages.addElement(m);
+        synchronized (messages) {
+            messages.addElement(new Pending(m, lane, ring != null
+                                                     ? ring.getCursor()
+                                                     : 0L));
+        }
+    }
+
+    protected void addMessage(Message m)
+    throws IOException {
+        addMessage(m, Lane.RELIABLE);
     }
 
     protected void sendAll()
     throws IOException {
         throwExceptionIfAny();
         synchronized (messages) {
+            flushWanted = true;
             messages.notify();
         }
     }
 
+    /* limits the bytes written per second. 0 means no limit. */
+    protected void setBudget(int bytesPerSecond) {
+        budget = bytesPerSecond;
+    }
+
+    /* the number of bytes written so far. */
+    protected long getBytesWritten() {
+        return written;
+    }
+
+    /* the time spent writing so far, in nanoseconds. writes block when
+     * the socket buffer is full, so this grows faster than the bytes
+     * written on a link that can't keep up. */
+    protected long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /* bytes waiting for their turn to be written. */
+    protected int getBacklog() {
+        return backlog;
+    }
+
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
     public TCPAsyncWriter(DataOutputStream out) {
+        int q;
+
         this.out = out;
         messages = new Vector();
         exceptions = new Vector();
+        lanes = new Vector[Lane.COUNT];
+        for (q = 0; q < Lane.COUNT; q++)
+            lanes[q] = new Vector();
+        backlog = 0;
+        budget = 0;
+        allowance = 0L;
+        lastRefill = System.currentTimeMillis();
         done = false;
+        flushWanted = false;
         thread = new Thread(this);
         thread.setDaemon(true);
     }
@@ -70,40 +310,40 @@ implements Runnable {
     /* Runnable *********************************************************/
     public void run() {
         Vector tosend;
-        int q;
-        Message m;
-        byte[] buff;
+        long   before;
 
         while (!done) {
             synchronized (messages) {
-                while (!done && messages.size() == 0)
+                while (!done && !flushWanted && backlog == 0)
                     try {
                         messages.wait();
                     } catch (InterruptedException e) {
                     }
+                if (!done && !flushWanted)
+                    /* only leftovers from last time. give the budget
+                     * a chance to grow. */
+                    try {
+                        messages.wait(retryMillis);
+                    } catch (InterruptedException e) {
+                    }
                 if (done)
                     break;
+                flushWanted = false;
                 tosend = new Vector();
                 while (messages.size() > 0) {
                     tosend.addElement(messages.elementAt(0));
                     messages.removeElementAt(0);
                 }
             }
-            for (q = 0; !done && q < tosend.size(); q++) {
-                m = (Message) tosend.elementAt(q);
-                buff = m.getBuffer();
-                try {
-                    out.writeShort(buff.length);
-                    out.write(buff, 0, buff.length);
-                } catch (IOException e) {
-                    exceptions.addElement(e);
-                }
-            }
+            collect(tosend);
+            before = System.nanoTime();
+            drain();
             try {
                 out.flush();
             } catch (IOException e) {
                 exceptions.addElement(e);
             }
+            writeNanos += System.nanoTime() - before;
         }
     }
 }
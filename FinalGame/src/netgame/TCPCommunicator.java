@@ -63,6 +63,10 @@ public class TCPCommunicator {
         return peer;
     }
 
+    protected final InetAddress getPeerAddress() {
+        return sock.getInetAddress();
+    }
+
     protected final void setupSocketToUse(Socket s) {
         sock = s;
         peer = sock.getInetAddress() + ":" + sock.getPort();
@@ -20,6 +20,16 @@ implements Runnable {
 
     protected abstract boolean readIncoming();
 
+    /* drops the connection, and connects to another server instead.
+     * only to be called from the thread reading. */
+    protected void reconnect(String host, int port)
+    throws IOException {
+        close();
+        this.host = host;
+        this.port = port;
+        setupSocketToUse(new Socket(host, port));
+    }
+
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
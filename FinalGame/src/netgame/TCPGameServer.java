@@ -4,14 +4,36 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 
+import no.shhsoft.net.*;
+
 public abstract class TCPGameServer
 implements Runnable {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
     Thread thread;
-    private boolean done;
-    private Vector  handlers;
+    private boolean       done;
+    private Vector        handlers;
+    private BroadcastRing ring;  /* null if we never broadcast */
+
+    private final void stopHandlers() {
+        synchronized (handlers) {
+            int q;
+            TCPGameServerClientHandler handler;
+
+            for (q = 0; q < handlers.size(); q++) {
+                handler = (TCPGameServerClientHandler) handlers.elementAt(q);
+                handler.stop();
+            }
+        }
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    final BroadcastRing getRing() {
+        return ring;
+    }
 
 /*-----------------------------------------------------------------------+
  |  INHERITANTS' INTERFACE                                               |
@@ -22,13 +44,64 @@ implements Runnable {
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
+    /* broadcasts kept for clients that are behind, unless told
+     * otherwise. */
+    public static final int DEFAULT_BROADCAST_CAPACITY = 65536;
+
     public TCPGameServer(int port)
     throws IOException {
-        this.port = port;
+        this(new ServerSocket(port), DEFAULT_BROADCAST_CAPACITY);
+    }
+
+    /* keeps `broadcastCapacity' broadcasts for clients that are
+     * behind, or none if 0, for a server that never broadcasts. */
+    public TCPGameServer(int port, int broadcastCapacity)
+    throws IOException {
+        this(new ServerSocket(port), broadcastCapacity);
+    }
+
+    /* a server that does not listen for clients itself, but gets them
+     * handed over from another one. */
+    public TCPGameServer() {
+        this(null, DEFAULT_BROADCAST_CAPACITY);
+    }
+
+    /* takes clients from `sock', or gets them handed over if null.
+     * see above for `broadcastCapacity'. */
+    public TCPGameServer(ServerSocket sock, int broadcastCapacity) {
+        this.sock = sock;
+        this.port = sock != null ? sock.getLocalPort() : 0;
         done = false;
         thread = new Thread(this);
         handlers = new Vector();
-        sock = new ServerSocket(port);
+        ring = broadcastCapacity > 0 ? new BroadcastRing(broadcastCapacity)
+                                     : null;
+    }
+
+    /* sends a message to every subscribed client, without waiting for
+     * any of them. see TCPGameServerClientHandler.wantsBroadcast for
+     * the use of `tag', and Lane for `lane'. returns the number the
+     * message got in the ring. */
+    public long broadcast(Message m, Object tag, int lane) {
+        if (ring == null)
+            throw new IllegalStateException("server has no broadcasts");
+        return ring.publish(m, tag, lane);
+    }
+
+    /* tells if a client may still start reading the broadcasts at
+     * the given number, see TCPGameServerClientHandler.subscribe. */
+    public boolean holdsBroadcast(long seq) {
+        return ring != null && ring.holds(seq);
+    }
+
+    /* the number the next broadcast will get. when it has changed,
+     * every subscribed client has something new to send. */
+    public long getBroadcastCursor() {
+        return ring != null ? ring.getCursor() : 0L;
+    }
+
+    public void addHandler(TCPGameServerClientHandler handler) {
+        handlers.addElement(handler);
     }
 
     public void removeHandler(TCPGameServerClientHandler handler) {
@@ -36,12 +109,16 @@ implements Runnable {
     }
 
     public void start() {
-        thread.start();
+        if (sock != null)
+            thread.start();
     }
 
     public void stop() {
         done = true;
-        thread.interrupt();
+        if (sock != null)
+            thread.interrupt();
+        else
+            stopHandlers();
     }
 
     public abstract TCPGameServerClientHandler newClient(Socket sock);
@@ -68,15 +145,6 @@ implements Runnable {
             sock.close();
         } catch (IOException e) {
         }
-
-        synchronized (handlers) {
-            int q;
-            TCPGameServerClientHandler handler;
-
-            for (q = 0; q < handlers.size(); q++) {
-                handler = (TCPGameServerClientHandler) handlers.elementAt(q);
-                handler.stop();
-            }
-        }
+        stopHandlers();
     }
 }
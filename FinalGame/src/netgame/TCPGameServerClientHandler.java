@@ -15,6 +15,7 @@ implements Runnable {
     Thread thread;
     private boolean done;
     private TCPAsyncWriter writer;
+    private volatile boolean dirty;  /* messages added since last flush */
 
 /*-----------------------------------------------------------------------+
  |  INHERITANTS' INTERFACE                                               |
@@ -25,14 +26,71 @@ implements Runnable {
 
     protected void sendMessageNoFlush(Message m)
     throws IOException {
-        writer.addMessage(m);
+        sendMessageNoFlush(m, Lane.RELIABLE);
+    }
+
+    protected void sendMessageNoFlush(Message m, int lane)
+    throws IOException {
+        dirty = true;
+        writer.addMessage(m, lane);
+    }
+
+    /* limits what is written to this client, in bytes per second.
+     * 0 means no limit. */
+    protected void setSendBudget(int bytesPerSecond) {
+        writer.setBudget(bytesPerSecond);
+    }
+
+    protected long getBytesWritten() {
+        return writer.getBytesWritten();
+    }
+
+    protected long getWriteNanos() {
+        return writer.getWriteNanos();
+    }
+
+    protected int getSendBacklog() {
+        return writer.getBacklog();
     }
 
     protected void flushOut()
     throws IOException {
+        dirty = false;
         writer.sendAll();
     }
 
+    /* hands this client over to another server, which from now on is
+     * the one it belongs to. must be done before subscribing. */
+    protected void moveTo(TCPGameServer to) {
+        server.removeHandler(this);
+        to.addHandler(this);
+        server = to;
+    }
+
+    /* start receiving what the server broadcasts. */
+    protected void subscribe() {
+        writer.subscribe(server.getRing(), this);
+    }
+
+    /* start receiving what the server broadcasts, beginning with
+     * broadcast number `from[lane]' in each lane, see Lane. returns
+     * false, and subscribes to nothing, if the ring has moved on. */
+    protected boolean subscribe(long[] from) {
+        int q;
+
+        for (q = 0; q < from.length; q++)
+            if (!server.getRing().holds(from[q]))
+                return false;
+        writer.subscribe(server.getRing(), this, from);
+        return true;
+    }
+
+    /* called by the writer thread for each broadcast, with the tag it
+     * was published with. */
+    protected boolean wantsBroadcast(Object tag) {
+        return true;
+    }
+
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
@@ -53,6 +111,12 @@ implements Runnable {
         thread.setDaemon(true);
     }
 
+    /* tells if messages for this client only have been added since
+     * the last flush. broadcasts are not counted. */
+    public boolean hasUnflushed() {
+        return dirty;
+    }
+
     public void start() {
         writer.start();
         thread.start();
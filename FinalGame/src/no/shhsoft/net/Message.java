@@ -124,6 +124,16 @@ public final class Message {
         return ret;
     }
 
+    /**
+     * Tells how many bytes <CODE>getBuffer</CODE> would return, without
+     * making a copy.
+     *
+     * @return     the number of bytes used in the buffer.
+     */
+    public int getLength() {
+        return buffLen;
+    }
+
     /**
      * Sets the contents of the message byte buffer.  Discards whatever
      * was in the buffer.  The provided byte array is copied into the
@@ -435,6 +445,47 @@ public final class Message {
         return ret;
     }
 
+    /**
+     * Adds a 64 bit integer to the byte buffer.
+     *
+     * @param      l       the <CODE>long</CODE> to add.
+     */
+    public void putLong(long l) {
+        putInt((int) (l >> 32));
+        putInt((int) l);
+    }
+
+    /**
+     * Fetches a 64 bit integer from the byte buffer.
+     *
+     * @return     the next <CODE>long</CODE> from the buffer.
+     */
+    public long getLong() {
+        long ret;
+
+        ret = (long) getInt() << 32;
+        ret |= getInt() & 0xFFFFFFFFL;
+        return ret;
+    }
+
+    /**
+     * Adds a double to the byte buffer, exactly as it is.
+     *
+     * @param      d       the <CODE>double</CODE> to add.
+     */
+    public void putDouble(double d) {
+        putLong(Double.doubleToLongBits(d));
+    }
+
+    /**
+     * Fetches a double from the byte buffer.
+     *
+     * @return     the next <CODE>double</CODE> from the buffer.
+     */
+    public double getDouble() {
+        return Double.longBitsToDouble(getLong());
+    }
+
     /**
      * Adds a string to the byte buffer.  The string is coded using UTF.
      *
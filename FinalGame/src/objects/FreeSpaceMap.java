@@ -0,0 +1,210 @@
+package objects;
+
+import java.awt.*;
+
+/**
+ * A coarse grid over the world, telling roughly how far each cell is
+ * from the closest collidable object. Used for finding places to put
+ * new and resurrected ships, without measuring the distance to every
+ * object for every random guess.
+ * <P>
+ *
+ * The map is built from the object locations at one moment in time.
+ * The cells that are far enough from everything are kept in a list to
+ * pick from. A cell that is handed out claims the cells around it, so
+ * that several ships placed before the next rebuild are kept apart
+ * too.
+ */
+final class FreeSpaceMap {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final int defaultCellSize = 25;
+    private static final int maxCellsPerSide = 128;
+    private static final int far = Integer.MAX_VALUE / 2;
+
+    private int       cellSize;
+    private int       cols, rows;
+    private int       required;    /* wanted distance, in pixels */
+    private int[]     dist;        /* per cell, in tenths of a cell */
+    private int[]     candidates;
+    private int       numCandidates;
+    private boolean[] claimed;
+    private int[]     placed;      /* cells handed out */
+    private int       numPlaced;
+
+    private final int cellDistance(int pixels) {
+        return (pixels * 10 + cellSize - 1) / cellSize;
+    }
+
+    /* two-pass chamfer distance transform, 10 for a straight step
+     * and 14 for a diagonal one. */
+    private final void spreadDistances() {
+        int r, c, i, d;
+
+        for (r = 0; r < rows; r++)
+            for (c = 0; c < cols; c++) {
+                i = r * cols + c;
+                d = dist[i];
+                if (c > 0)
+                    d = Math.min(d, dist[i - 1] + 10);
+                if (r > 0) {
+                    d = Math.min(d, dist[i - cols] + 10);
+                    if (c > 0)
+                        d = Math.min(d, dist[i - cols - 1] + 14);
+                    if (c < cols - 1)
+                        d = Math.min(d, dist[i - cols + 1] + 14);
+                }
+                dist[i] = d;
+            }
+        for (r = rows - 1; r >= 0; r--)
+            for (c = cols - 1; c >= 0; c--) {
+                i = r * cols + c;
+                d = dist[i];
+                if (c < cols - 1)
+                    d = Math.min(d, dist[i + 1] + 10);
+                if (r < rows - 1) {
+                    d = Math.min(d, dist[i + cols] + 10);
+                    if (c < cols - 1)
+                        d = Math.min(d, dist[i + cols + 1] + 14);
+                    if (c > 0)
+                        d = Math.min(d, dist[i + cols - 1] + 14);
+                }
+                dist[i] = d;
+            }
+    }
+
+    private final void findCandidates() {
+        int q, want, best;
+
+        want = cellDistance(required);
+        candidates = new int[dist.length];
+        numCandidates = 0;
+        for (q = 0; q < dist.length; q++)
+            if (dist[q] >= want)
+                candidates[numCandidates++] = q;
+        if (numCandidates > 0)
+            return;
+        /* crowded: settle for the cells furthest away from anything. */
+        best = 0;
+        for (q = 0; q < dist.length; q++)
+            best = Math.max(best, dist[q]);
+        for (q = 0; q < dist.length; q++)
+            if (dist[q] == best)
+                candidates[numCandidates++] = q;
+    }
+
+    private final void claim(int cell) {
+        int r, c, r0, c0, reach;
+
+        reach = required / cellSize;
+        r0 = cell / cols;
+        c0 = cell % cols;
+        for (r = Math.max(0, r0 - reach);
+             r <= Math.min(rows - 1, r0 + reach); r++)
+            for (c = Math.max(0, c0 - reach);
+                 c <= Math.min(cols - 1, c0 + reach); c++)
+                claimed[r * cols + c] = true;
+    }
+
+    private final int clamp(int v, int min, int max) {
+        return v < min ? min : (v > max ? max : v);
+    }
+
+    /* how far `cell' is from the closest object, or from the closest
+     * cell handed out, in tenths of a cell. */
+    private final int spaceAround(int cell) {
+        int q, d, dr, dc;
+
+        d = dist[cell];
+        for (q = 0; q < numPlaced; q++) {
+            dr = placed[q] / cols - cell / cols;
+            dc = placed[q] % cols - cell % cols;
+            d = Math.min(d, (int) (10.0 * Math.sqrt(dr * dr + dc * dc)));
+        }
+        return d;
+    }
+
+    /* claims `cell', and returns a random point in it. */
+    private final Point place(int cell, int minx, int miny,
+                              int maxx, int maxy) {
+        int   x, y;
+        int[] a;
+
+        claim(cell);
+        if (numPlaced == placed.length) {
+            a = new int[numPlaced * 2];
+            System.arraycopy(placed, 0, a, 0, numPlaced);
+            placed = a;
+        }
+        placed[numPlaced++] = cell;
+        x = (cell % cols) * cellSize + (int) (Math.random() * cellSize);
+        y = (cell / cols) * cellSize + (int) (Math.random() * cellSize);
+        return new Point(clamp(x, minx, maxx), clamp(y, miny, maxy));
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* `required' is the distance to other objects we would like new
+     * locations to have. */
+    FreeSpaceMap(int width, int height, int required,
+                 int[] xs, int[] ys, int n) {
+        int q, c, r;
+
+        this.required = required;
+        cellSize = defaultCellSize;
+        if (Math.max(width, height) / cellSize > maxCellsPerSide)
+            cellSize = (Math.max(width, height) + maxCellsPerSide - 1)
+                       / maxCellsPerSide;
+        cols = (width + cellSize - 1) / cellSize;
+        rows = (height + cellSize - 1) / cellSize;
+        dist = new int[cols * rows];
+        claimed = new boolean[cols * rows];
+        placed = new int[16];
+        numPlaced = 0;
+        for (q = 0; q < dist.length; q++)
+            dist[q] = far;
+        for (q = 0; q < n; q++) {
+            c = clamp(xs[q] / cellSize, 0, cols - 1);
+            r = clamp(ys[q] / cellSize, 0, rows - 1);
+            dist[r * cols + c] = 0;
+        }
+        spreadDistances();
+        findCandidates();
+    }
+
+    /* a random location far from other objects, and from the
+     * locations handed out earlier from this map, within the given
+     * bounds. when no place is far enough, the cell furthest from
+     * both will do. */
+    final synchronized Point pick(int minx, int miny, int maxx, int maxy) {
+        int q, k, r, c, c0, c1, start, cell, best, d, bestD;
+
+        c0 = clamp(minx / cellSize, 0, cols - 1);
+        c1 = clamp(maxx / cellSize, 0, cols - 1);
+        /* candidates in other columns are left for other callers. */
+        start = (int) (Math.random() * numCandidates);
+        for (k = 0; k < numCandidates; k++) {
+            q = (start + k) % numCandidates;
+            cell = candidates[q];
+            c = cell % cols;
+            if (claimed[cell] || c < c0 || c > c1)
+                continue;
+            candidates[q] = candidates[--numCandidates];
+            return place(cell, minx, miny, maxx, maxy);
+        }
+        /* crowded. this is rare, so it may take a while. */
+        best = c0;
+        bestD = -1;
+        for (r = 0; r < rows; r++)
+            for (c = c0; c <= c1; c++) {
+                cell = r * cols + c;
+                if ((d = spaceAround(cell)) > bestD) {
+                    best = cell;
+                    bestD = d;
+                }
+            }
+        return place(best, minx, miny, maxx, maxy);
+    }
+}
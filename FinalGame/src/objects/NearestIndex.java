@@ -0,0 +1,218 @@
+package objects;
+
+import java.util.*;
+
+/**
+ * A 2-d tree over the locations of a set of game objects, used for
+ * nearest neighbour lookups. The tree is built from the locations at
+ * one moment in time (once per update), and is never changed after
+ * that, so any number of threads may query it without locking.
+ * <P>
+ *
+ * The tree is stored implicitly in the arrays: the median of a range
+ * is the node, and the two halves on either side of it are the
+ * subtrees, split alternately on x and y.
+ */
+final class NearestIndex {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* the k best candidates found so far, closest first. */
+    private static final class Hits {
+        int    count;
+        int[]  idx;
+        long[] dist2;
+
+        Hits(int k) {
+            count = 0;
+            idx = new int[k];
+            dist2 = new long[k];
+        }
+
+        final long worst() {
+            return count < idx.length ? Long.MAX_VALUE : dist2[count - 1];
+        }
+
+        final void offer(int i, long d2) {
+            int q;
+
+            if (d2 >= worst())
+                return;
+            if (count < idx.length)
+                ++count;
+            for (q = count - 1; q > 0 && dist2[q - 1] > d2; q--) {
+                idx[q] = idx[q - 1];
+                dist2[q] = dist2[q - 1];
+            }
+            idx[q] = i;
+            dist2[q] = d2;
+        }
+    }
+
+    private int      n;
+    private int[]    xs, ys;
+    private Object[] items;
+    private Object[] owners;  /* objects with this owner may be excluded */
+
+    private final void swap(int a, int b) {
+        int    t;
+        Object o;
+
+        t = xs[a]; xs[a] = xs[b]; xs[b] = t;
+        t = ys[a]; ys[a] = ys[b]; ys[b] = t;
+        o = items[a]; items[a] = items[b]; items[b] = o;
+        o = owners[a]; owners[a] = owners[b]; owners[b] = o;
+    }
+
+    private final int coord(int i, boolean xAxis) {
+        return xAxis ? xs[i] : ys[i];
+    }
+
+    /* partially sort [lo, hi) so that element k is where it would be
+     * in a sorted range, with no larger elements before it, and no
+     * smaller after it. */
+    private final void select(int lo, int hi, int k, boolean xAxis) {
+        int q, store, pivot;
+
+        --hi;
+        while (hi > lo) {
+            swap((lo + hi) >>> 1, hi);
+            pivot = coord(hi, xAxis);
+            store = lo;
+            for (q = lo; q < hi; q++)
+                if (coord(q, xAxis) < pivot)
+                    swap(q, store++);
+            swap(store, hi);
+            if (store == k)
+                return;
+            if (store < k)
+                lo = store + 1;
+            else
+                hi = store - 1;
+        }
+    }
+
+    private final void build(int lo, int hi, boolean xAxis) {
+        int mid;
+
+        if (hi - lo < 2)
+            return;
+        mid = (lo + hi) >>> 1;
+        select(lo, hi, mid, xAxis);
+        build(lo, mid, !xAxis);
+        build(mid + 1, hi, !xAxis);
+    }
+
+    private final boolean accept(int i, Object exclude) {
+        if (exclude != null && owners[i] == exclude)
+            return false;
+        /* players may have died since the tree was built. */
+        if (items[i] instanceof Player)
+            return ((Player) items[i]).isAlive();
+        return true;
+    }
+
+    private final void search(int lo, int hi, boolean xAxis,
+                              int x, int y, Object exclude, Hits hits) {
+        int  mid;
+        long dx, dy, delta;
+
+        if (lo >= hi)
+            return;
+        mid = (lo + hi) >>> 1;
+        if (accept(mid, exclude)) {
+            dx = x - xs[mid];
+            dy = y - ys[mid];
+            hits.offer(mid, dx * dx + dy * dy);
+        }
+        delta = xAxis ? x - xs[mid] : y - ys[mid];
+        if (delta < 0) {
+            search(lo, mid, !xAxis, x, y, exclude, hits);
+            if (delta * delta < hits.worst())
+                search(mid + 1, hi, !xAxis, x, y, exclude, hits);
+        } else {
+            search(mid + 1, hi, !xAxis, x, y, exclude, hits);
+            if (delta * delta < hits.worst())
+                search(lo, mid, !xAxis, x, y, exclude, hits);
+        }
+    }
+
+    private final void collect(int lo, int hi, boolean xAxis,
+                               int x, int y, long r2, int r,
+                               Object exclude, Vector ret) {
+        int  mid;
+        long dx, dy, delta;
+
+        if (lo >= hi)
+            return;
+        mid = (lo + hi) >>> 1;
+        dx = x - xs[mid];
+        dy = y - ys[mid];
+        if (dx * dx + dy * dy <= r2 && accept(mid, exclude))
+            ret.addElement(items[mid]);
+        delta = xAxis ? dx : dy;
+        if (delta <= r)
+            collect(lo, mid, !xAxis, x, y, r2, r, exclude, ret);
+        if (delta >= -r)
+            collect(mid + 1, hi, !xAxis, x, y, r2, r, exclude, ret);
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    NearestIndex(int capacity) {
+        n = 0;
+        xs = new int[capacity];
+        ys = new int[capacity];
+        items = new Object[capacity];
+        owners = new Object[capacity];
+    }
+
+    /* must be called for every object before build(). */
+    final void add(Object item, Object owner, int x, int y) {
+        xs[n] = x;
+        ys[n] = y;
+        items[n] = item;
+        owners[n] = owner;
+        ++n;
+    }
+
+    final void build() {
+        build(0, n, true);
+    }
+
+    final int size() {
+        return n;
+    }
+
+    /* the closest object not owned by `exclude', or null. */
+    final Object nearest(int x, int y, Object exclude) {
+        Hits hits;
+
+        hits = new Hits(1);
+        search(0, n, true, x, y, exclude, hits);
+        return hits.count > 0 ? items[hits.idx[0]] : null;
+    }
+
+    /* fills `ret' with up to ret.length objects not owned by
+     * `exclude', closest first. returns the number found. */
+    final int nearest(int x, int y, Object exclude, Object[] ret) {
+        int  q;
+        Hits hits;
+
+        if (ret.length == 0)
+            return 0;
+        hits = new Hits(ret.length);
+        search(0, n, true, x, y, exclude, hits);
+        for (q = 0; q < hits.count; q++)
+            ret[q] = items[hits.idx[q]];
+        return hits.count;
+    }
+
+    /* adds every object not owned by `exclude' that is no further
+     * than `radius' from the given point. */
+    final void within(int x, int y, int radius, Object exclude, Vector ret) {
+        collect(0, n, true, x, y, (long) radius * radius, radius,
+                exclude, ret);
+    }
+}
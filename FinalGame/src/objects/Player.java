@@ -484,18 +484,60 @@ public class Player {
     }
 
     public final boolean isInView(DrawableGameObject o) {
-        Point p, op;
+        Point op;
 
-        p = getLocation();
         op = o.getLocation();
-        if (op.x < p.x - VIEW_LIMIT_WIDTH)
+        return isInView(op.x, op.y);
+    }
+
+    public final boolean isInView(int x, int y) {
+        Point p;
+
+        p = getLocation();
+        if (x < p.x - VIEW_LIMIT_WIDTH)
             return false;
-        if (op.x > p.x + VIEW_LIMIT_WIDTH)
+        if (x > p.x + VIEW_LIMIT_WIDTH)
             return false;
-        if (op.y < p.y - VIEW_LIMIT_HEIGHT)
+        if (y < p.y - VIEW_LIMIT_HEIGHT)
             return false;
-        if (op.y > p.y + VIEW_LIMIT_HEIGHT)
+        if (y > p.y + VIEW_LIMIT_HEIGHT)
             return false;
         return true;
     }
+
+    /**
+     * Tells how far away a location is, measured in views. Anything
+     * closer than 1.0 is in view, anything between 1.0 and 2.0 is
+     * within the next screenful, and so on.
+     *
+     * @param      x       the horizontal position.
+     * @param      y       the vertical position.
+     * @return     the distance, in views.
+     */
+    public final double getViewDistance(int x, int y) {
+        Point  p;
+        double dx, dy;
+
+        p = getLocation();
+        dx = Math.abs(x - p.x) / (double) VIEW_LIMIT_WIDTH;
+        dy = Math.abs(y - p.y) / (double) VIEW_LIMIT_HEIGHT;
+        return dx > dy ? dx : dy;
+    }
+
+    /**
+     * Returns the area within the given distance, measured in views,
+     * of this player. An area of 1.0 views is what the player sees.
+     *
+     * @param      views   the distance.
+     * @return     the area.
+     */
+    public final Rectangle getViewBounds(double views) {
+        Point p;
+        int   w, h;
+
+        p = getLocation();
+        w = (int) (VIEW_LIMIT_WIDTH * views);
+        h = (int) (VIEW_LIMIT_HEIGHT * views);
+        return new Rectangle(p.x - w, p.y - h, 2 * w, 2 * h);
+    }
 }
@@ -28,26 +28,41 @@ extends DrawableGameObject {
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
     private Color   col;
-    private Polygon shape;
-    private Polygon current;  /* shape with current rotation */
+    private volatile int heading;  /* index into the ShipShape tables */
     private Player  owner;
     private int     textDelta;
     private int     phaserOffset;
     private Color   nameColor;
 
+    /* true if the segments (x0, y0)-(x1, y1) and (x2, y2)-(x3, y3)
+     * intersect or touch. */
+    private static final boolean segmentsCross(double x0, double y0,
+                                               double x1, double y1,
+                                               double x2, double y2,
+                                               double x3, double y3) {
+        double d0, d1, d2, d3;
+
+        d0 = (x3 - x2) * (y0 - y2) - (y3 - y2) * (x0 - x2);
+        d1 = (x3 - x2) * (y1 - y2) - (y3 - y2) * (x1 - x2);
+        if ((d0 > 0.0 && d1 > 0.0) || (d0 < 0.0 && d1 < 0.0))
+            return false;
+        d2 = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+        d3 = (x1 - x0) * (y3 - y0) - (y1 - y0) * (x3 - x0);
+        if ((d2 > 0.0 && d3 > 0.0) || (d2 < 0.0 && d3 < 0.0))
+            return false;
+        return true;
+    }
+
     private final void updateCurrent() {
-        int    q, newx, newy;
-        double co, si;
-
-        co = Math.cos(-dir);
-        si = Math.sin(-dir);
-        current = new Polygon();
-        for (q = 0; q < shape.npoints; q++) {
-            newx = (int) (shape.xpoints[q] * co - shape.ypoints[q] * si + 0.5);
-            newy = (int) (shape.xpoints[q] * si + shape.ypoints[q] * co + 0.5);
-            current.addPoint(loc.x + newx, loc.y + newy);
-        }
-        bounds = current.getBounds();
+        Rectangle rel;
+
+        /* the outline is one of the shared tables of rotated shapes,
+         * and only ever used relative to the location, so nothing is
+         * moved or made here. the tests for hits on the server only
+         * run between the phases of an update, when no ship moves. */
+        heading = ShipShape.headingOf(dir);
+        rel = ShipShape.getBounds(heading);
+        bounds.setBounds(loc.x + rel.x, loc.y + rel.y, rel.width, rel.height);
     }
 
 /*-----------------------------------------------------------------------+
@@ -60,6 +75,20 @@ extends DrawableGameObject {
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
+    /**
+     * The largest distance from the center of a ship to any part of
+     * it, in any direction. Used for finding ships that may be hit
+     * by something.
+     */
+    public static final int MAX_RADIUS = ShipShape.getRadius();
+
+    /**
+     * The number of different directions a ship may point in. Ships
+     * turn in steps of one such direction, and are drawn with the
+     * direction closest to their actual one.
+     */
+    public static final int HEADINGS = ShipShape.HEADINGS;
+
     /**
      * Constructs a new ship with the given owner.
      * Also updates the bounding box of the object.
@@ -70,29 +99,6 @@ extends DrawableGameObject {
         this.owner = owner;
 
         nameColor = new Color(100, 100, 255);
-        shape = new Polygon();
-
-        /* traditional asteroids shape 
-        shape.addPoint(13, 0);
-        shape.addPoint(-10, 7);
-        shape.addPoint(-10, -7);
-        textDelta = 17;
-        phaserOffset = 13;*/
-
-        /* airplane shape */
-        shape.addPoint(13, 0);
-        shape.addPoint(11, 1);
-        shape.addPoint(3, 1);
-        shape.addPoint(0, 8);
-        shape.addPoint(-5, 10);
-        shape.addPoint(-4, 3);
-        shape.addPoint(-10, 3);
-        shape.addPoint(-10, -3);
-        shape.addPoint(-4, -3);
-        shape.addPoint(-5, -10);
-        shape.addPoint(0, -8);
-        shape.addPoint(3, -1);
-        shape.addPoint(11, -2);
         textDelta = 17;
         phaserOffset = 13;
 
@@ -138,7 +144,7 @@ extends DrawableGameObject {
      *             be inside the ship, <CODE>false</CODE> otherwise.
      */
     public final boolean isHitBy(int x, int y) {
-        return (bounds.contains(x, y) && current.contains(x, y));
+        return ShipShape.isInside(heading, x - loc.x, y - loc.y);
     }
 
     /**
@@ -152,19 +158,71 @@ extends DrawableGameObject {
         return isHitBy(p.x, p.y);
     }
 
+    /**
+     * Checks if something moving along a straight line touches this
+     * ship anywhere along the way. Used by the server for the shots,
+     * that move too far for each update to only check where they
+     * end up.
+     *
+     * @param      x0      the x-coordinate of the start of the line.
+     * @param      y0      the y-coordinate of the start of the line.
+     * @param      x1      the x-coordinate of the end of the line.
+     * @param      y1      the y-coordinate of the end of the line.
+     * @return     <CODE>true</CODE> if the line is considered to
+     *             cross or end inside the ship, <CODE>false</CODE>
+     *             otherwise.
+     */
+    public final boolean isHitBy(double x0, double y0,
+                                 double x1, double y1) {
+        int   q, prev, n, h;
+        int[] xp, yp;
+
+        /* most calls end here: the line is nowhere near the ship. */
+        if ((x0 < bounds.x && x1 < bounds.x)
+            || (y0 < bounds.y && y1 < bounds.y)
+            || (x0 > bounds.x + bounds.width && x1 > bounds.x + bounds.width)
+            || (y0 > bounds.y + bounds.height
+                && y1 > bounds.y + bounds.height))
+            return false;
+        h = heading;
+        if (ShipShape.isInside(h, (int) Math.floor(x1 + 0.5) - loc.x,
+                               (int) Math.floor(y1 + 0.5) - loc.y)
+            || ShipShape.isInside(h, (int) Math.floor(x0 + 0.5) - loc.x,
+                                  (int) Math.floor(y0 + 0.5) - loc.y))
+            return true;
+        /* no end inside, so any hit must cross the outline. this is
+         * exact, so a shot can't slip between the pixels of a wing. */
+        n = ShipShape.getNumPoints();
+        xp = ShipShape.getXPoints(h);
+        yp = ShipShape.getYPoints(h);
+        x0 -= loc.x;
+        y0 -= loc.y;
+        x1 -= loc.x;
+        y1 -= loc.y;
+        for (q = 0, prev = n - 1; q < n; prev = q++)
+            if (segmentsCross(x0, y0, x1, y1,
+                              xp[prev], yp[prev], xp[q], yp[q]))
+                return true;
+        return false;
+    }
+
     /* DrawableGameObject ***********************************************/
     /**
      * @see        DrawableGameObject
      */
     public final void draw(Graphics g) {
-        int       q;
-        Polygon   p = new Polygon();
-        Rectangle rect;
         String    name;
-        int       charWidth;
+        int       charWidth, h, x, y;
 
+        /* the outline is drawn from the table, moved into place. */
+        h = heading;
+        x = loc.x;
+        y = loc.y;
         g.setColor(col);
-        g.fillPolygon(current);
+        g.translate(x, y);
+        g.fillPolygon(ShipShape.getXPoints(h), ShipShape.getYPoints(h),
+                      ShipShape.getNumPoints());
+        g.translate(-x, -y);
 
         g.setColor(nameColor);
         name = owner.getName();
@@ -0,0 +1,136 @@
+package objects;
+
+import java.awt.*;
+
+/**
+ * The outline of a ship, rotated in advance to each of the directions
+ * a ship may point in. Ships turn in steps of 1/<CODE>HEADINGS</CODE>
+ * of a full turn, so placing a ship is just a matter of adding its
+ * location to one of these tables. The tables are shared by all
+ * ships, and never change.
+ * <P>
+ *
+ * For hit tests, each rotated outline is also rasterized into a
+ * bitmask with one bit per pixel of its bounding box, so that testing
+ * a point is a subtraction and a bit lookup.
+ */
+final class ShipShape {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* ships turn in steps of one such heading. */
+    static final int HEADINGS = 32;
+
+    /* airplane shape, pointing right. the traditional asteroids shape
+     * was (13, 0), (-10, 7), (-10, -7). */
+    private static final int[] shapeX = {
+        13, 11,  3,  0, -5, -4, -10, -10, -4, -5,  0,  3, 11
+    };
+    private static final int[] shapeY = {
+         0,  1,  1,  8, 10,  3,   3,  -3, -3, -10, -8, -1, -2
+    };
+
+    private static final int[][]     xs;
+    private static final int[][]     ys;
+    private static final Rectangle[] bounds;
+    private static final long[][]    masks;  /* one row per y, bit per x */
+    private static final int         radius;
+
+    static {
+        int     h, q, newx, newy, x, y;
+        double  angle, co, si;
+        Polygon p;
+
+        xs = new int[HEADINGS][];
+        ys = new int[HEADINGS][];
+        bounds = new Rectangle[HEADINGS];
+        masks = new long[HEADINGS][];
+        for (h = 0; h < HEADINGS; h++) {
+            angle = (h * 2.0 * Math.PI) / HEADINGS;
+            co = Math.cos(-angle);
+            si = Math.sin(-angle);
+            xs[h] = new int[shapeX.length];
+            ys[h] = new int[shapeX.length];
+            p = new Polygon();
+            for (q = 0; q < shapeX.length; q++) {
+                newx = (int) (shapeX[q] * co - shapeY[q] * si + 0.5);
+                newy = (int) (shapeX[q] * si + shapeY[q] * co + 0.5);
+                xs[h][q] = newx;
+                ys[h][q] = newy;
+                p.addPoint(newx, newy);
+            }
+            bounds[h] = p.getBounds();
+
+            /* use the polygon's own inside test for every pixel, so
+             * the mask agrees with what the polygon would say. */
+            if (bounds[h].width > 64)
+                throw new Error("ship too wide for hit mask");
+            masks[h] = new long[bounds[h].height];
+            for (y = 0; y < bounds[h].height; y++)
+                for (x = 0; x < bounds[h].width; x++)
+                    if (p.contains(bounds[h].x + x, bounds[h].y + y))
+                        masks[h][y] |= 1L << x;
+        }
+
+        /* measured on the rotated vertices, which rounding may put a
+         * little further out than those of the template. one pixel
+         * more, so a search using it never misses a pixel of a mask. */
+        newx = 0;
+        for (h = 0; h < HEADINGS; h++)
+            for (q = 0; q < shapeX.length; q++)
+                newx = Math.max(newx,
+                                xs[h][q] * xs[h][q] + ys[h][q] * ys[h][q]);
+        radius = (int) Math.ceil(Math.sqrt(newx)) + 1;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* the heading closest to the given direction in radians. */
+    static final int headingOf(double dir) {
+        int h;
+
+        h = (int) Math.floor(dir * HEADINGS / (2.0 * Math.PI) + 0.5);
+        h %= HEADINGS;
+        if (h < 0)
+            h += HEADINGS;
+        return h;
+    }
+
+    static final int getNumPoints() {
+        return shapeX.length;
+    }
+
+    /* vertices relative to the center of the ship. */
+    static final int[] getXPoints(int heading) {
+        return xs[heading];
+    }
+
+    static final int[] getYPoints(int heading) {
+        return ys[heading];
+    }
+
+    /* bounding box relative to the center of the ship. */
+    static final Rectangle getBounds(int heading) {
+        return bounds[heading];
+    }
+
+    /* checks if a point relative to the center of the ship is
+     * inside the outline with the given heading. */
+    static final boolean isInside(int heading, int dx, int dy) {
+        Rectangle r;
+
+        r = bounds[heading];
+        dx -= r.x;
+        dy -= r.y;
+        if (dx < 0 || dy < 0 || dx >= r.width || dy >= r.height)
+            return false;
+        return (masks[heading][dy] & (1L << dx)) != 0;
+    }
+
+    /* the largest distance from the center to any vertex, in any
+     * heading, plus a pixel to spare. */
+    static final int getRadius() {
+        return radius;
+    }
+}
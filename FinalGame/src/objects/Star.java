@@ -1,5 +1,6 @@
 package objects;
 
+import java.util.*;
 import java.awt.*;
 
 /**
@@ -26,15 +27,20 @@ extends DrawableGameObject {
  +----------------------------------------------------------------------*/
     private Color col;
 
-    private final void setRandomColor() {
+    /* `h', `s' and `v' are random numbers between 0 and 1. */
+    private final void setRandomColor(double h, double s, double v) {
         float hue, saturation, value;
 
-        hue        = (float) (Math.random() * 0.1875); /* red to yellow */
-        saturation = (float) (0.5 + Math.random() * 0.5);
-        value      = (float) (0.5 + Math.random() * 0.5);
+        hue        = (float) (h * 0.1875); /* red to yellow */
+        saturation = (float) (0.5 + s * 0.5);
+        value      = (float) (0.5 + v * 0.5);
         col        = Color.getHSBColor(hue, saturation, value);
     }
 
+    private final void setRandomColor() {
+        setRandomColor(Math.random(), Math.random(), Math.random());
+    }
+
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
@@ -58,6 +64,22 @@ extends DrawableGameObject {
         setLocation(x, y);
     }
 
+    /**
+     * Constructs a new star with the given position, and a color
+     * picked by the given random number generator. Used for making the
+     * same stars in several places.
+     *
+     * @param      x       the x-coordinate.
+     * @param      y       the y-coordinate.
+     * @param      rnd     the random number generator.
+     */
+    public Star(int x, int y, Random rnd) {
+        bounds.width = 1;
+        bounds.height = 1;
+        setLocation(x, y);
+        setRandomColor(rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble());
+    }
+
     /**
      * Constructs a new star with the given position and color.
      *
@@ -0,0 +1,122 @@
+package objects;
+
+import java.util.*;
+import java.awt.*;
+
+/**
+ * The stars decorating the background, made up from a number rather
+ * than sent one by one. Given the same seed and world size, a star
+ * field has the same stars wherever it is made, so the server only
+ * needs to tell the clients the seed.
+ * <P>
+ *
+ * The world is split into square cells, and the stars of a cell are
+ * made from the seed and the position of the cell the first time
+ * anyone looks at it. Only the cells that are actually looked at are
+ * ever made.
+ */
+public final class StarField {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final int    CELL_SIZE = 256;
+    private static final double PIXELS_PER_STAR = 35000.0;
+    /* when to forget the cells made so far. */
+    private static final int    MAX_CELLS = 4096;
+
+    private int       seed;
+    private int       width;
+    private int       height;
+    private Hashtable cells;  /* Long cell number -> Star[] */
+
+    private final Star[] makeCell(int cx, int cy) {
+        int    q, n, x0, y0, w, h;
+        double expected;
+        Random rnd;
+        Star[] ret;
+
+        rnd = new Random(seed * 0x9E3779B97F4A7C15L
+                         + cx * 0xC2B2AE3D27D4EB4FL
+                         + cy * 0x165667B19E3779F9L);
+        x0 = cx * CELL_SIZE;
+        y0 = cy * CELL_SIZE;
+        w = Math.min(CELL_SIZE, width - 1 - x0);
+        h = Math.min(CELL_SIZE, height - 1 - y0);
+        if (w <= 0 || h <= 0)
+            return new Star[0];
+        expected = (double) w * (double) h / PIXELS_PER_STAR;
+        n = (int) expected;
+        if (rnd.nextDouble() < expected - n)
+            ++n;
+        ret = new Star[n];
+        for (q = 0; q < n; q++)
+            ret[q] = new Star(x0 + rnd.nextInt(w), y0 + rnd.nextInt(h), rnd);
+        return ret;
+    }
+
+    private final Star[] getCell(int cx, int cy) {
+        Long   key;
+        Star[] ret;
+
+        key = Long.valueOf(((long) cx << 32) | (cy & 0xffffffffL));
+        synchronized (cells) {
+            ret = (Star[]) cells.get(key);
+            if (ret == null) {
+                if (cells.size() >= MAX_CELLS)
+                    cells.clear();
+                ret = makeCell(cx, cy);
+                cells.put(key, ret);
+            }
+        }
+        return ret;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /**
+     * Constructs a star field.
+     *
+     * @param      seed    the number the stars are made from.
+     * @param      width   the width of the world.
+     * @param      height  the height of the world.
+     */
+    public StarField(int seed, int width, int height) {
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        cells = new Hashtable();
+    }
+
+    /**
+     * Returns the number the stars are made from.
+     *
+     * @return     the seed.
+     */
+    public final int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Adds the stars within the given area to a vector.
+     *
+     * @param      bounds  the area.
+     * @param      to      where to put the stars.
+     */
+    public final void addStars(Rectangle bounds, Vector to) {
+        int    q, cx, cy, cx0, cy0, cx1, cy1;
+        Star[] cell;
+
+        cx0 = Math.max(0, bounds.x / CELL_SIZE);
+        cy0 = Math.max(0, bounds.y / CELL_SIZE);
+        cx1 = Math.min(width - 1, bounds.x + bounds.width) / CELL_SIZE;
+        cy1 = Math.min(height - 1, bounds.y + bounds.height) / CELL_SIZE;
+        for (cy = cy0; cy <= cy1; cy++)
+            for (cx = cx0; cx <= cx1; cx++) {
+                cell = getCell(cx, cy);
+                for (q = 0; q < cell.length; q++)
+                    if (bounds.intersects(cell[q].getBounds()))
+                        to.addElement(cell[q]);
+            }
+    }
+}
@@ -3,6 +3,8 @@ package objects;
 import java.util.*;
 import java.awt.*;
 
+import util.*;
+
 public final class World {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
@@ -17,11 +19,24 @@ public final class World {
     private Vector players;    /* players: Player */
 
     private Vector stars;
+    private StarField starField;  /* null if none */
     private Vector phasers;
     private Vector bombs;
     private Vector bombPacks;
     private Vector explosions;
 
+    /* nearest neighbour lookups. rebuilt by rebuildIndex(), and
+     * replaced as a whole so readers never see a half built one. */
+    private volatile NearestIndex playerIndex;
+    private volatile NearestIndex bombIndex;
+    private volatile NearestIndex phaserIndex;
+    private volatile NearestIndex bombPackIndex;
+
+    /* where to put new ships. built by rebuildFreeSpaceMap() when a
+     * location is first asked for, and dropped by rebuildIndex(), so
+     * an update where nobody is placed doesn't build one. */
+    private volatile FreeSpaceMap freeSpace;
+
     private void setup() {
         width = defaultWidth;
         height = defaultHeight;
@@ -53,6 +68,30 @@ public final class World {
         }
     }
 
+    private final NearestIndex getPlayerIndex() {
+        if (playerIndex == null)
+            rebuildIndex();
+        return playerIndex;
+    }
+
+    private final NearestIndex getBombIndex() {
+        if (bombIndex == null)
+            rebuildIndex();
+        return bombIndex;
+    }
+
+    private final NearestIndex getPhaserIndex() {
+        if (phaserIndex == null)
+            rebuildIndex();
+        return phaserIndex;
+    }
+
+    private final NearestIndex getBombPackIndex() {
+        if (bombPackIndex == null)
+            rebuildIndex();
+        return bombPackIndex;
+    }
+
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
@@ -112,6 +151,8 @@ public final class World {
         DrawableGameObject[] ret;
 
         retv = new Vector(1024);
+        if (starField != null)
+            starField.addStars(bounds, retv);
         addObjectsFrom(decoration, bounds, retv);
         addObjectsFrom(collidable, bounds, retv);
         ret = new DrawableGameObject[retv.size()];
@@ -119,6 +160,61 @@ public final class World {
         return ret;
     }
 
+    /* rebuild the indexes used by the getClosest* methods from the
+     * current object locations. the indexes are not updated as
+     * objects move, so whoever drives the world should call this
+     * once per update: the server's Updater at the start of each
+     * tick, and the client's BoardUpdater for each frame. */
+    public final void rebuildIndex() {
+        int          q;
+        Player[]     pa;
+        Bomb[]       ba;
+        Phaser[]     pha;
+        BombPack[]   bpa;
+        Point        loc;
+        NearestIndex index;
+
+        /* the objects have moved since the map was built. */
+        freeSpace = null;
+
+        pa = getPlayers();
+        index = new NearestIndex(pa.length);
+        for (q = 0; q < pa.length; q++)
+            if (pa[q].isAlive()) {
+                loc = pa[q].getLocation();
+                index.add(pa[q], pa[q], loc.x, loc.y);
+            }
+        index.build();
+        playerIndex = index;
+
+        ba = getBombs();
+        index = new NearestIndex(ba.length);
+        for (q = 0; q < ba.length; q++) {
+            loc = ba[q].getLocation();
+            index.add(ba[q], ba[q].getOwner(), loc.x, loc.y);
+        }
+        index.build();
+        bombIndex = index;
+
+        pha = getPhasers();
+        index = new NearestIndex(pha.length);
+        for (q = 0; q < pha.length; q++) {
+            loc = pha[q].getLocation();
+            index.add(pha[q], pha[q].getOwner(), loc.x, loc.y);
+        }
+        index.build();
+        phaserIndex = index;
+
+        bpa = getBombPacks();
+        index = new NearestIndex(bpa.length);
+        for (q = 0; q < bpa.length; q++) {
+            loc = bpa[q].getLocation();
+            index.add(bpa[q], null, loc.x, loc.y);
+        }
+        index.build();
+        bombPackIndex = index;
+    }
+
     public final int getSquareDistanceBetween(DrawableGameObject o1,
                                               DrawableGameObject o2) {
         Point p1, p2;
@@ -167,25 +263,7 @@ public final class World {
     /* suitable when checking relative to an object that is not the player's
      * ship, such as the targeting bombs. */
     public final Player getClosestEnemy(Player me, int myX, int myY) {
-        int    q, n, closest2, dist2;
-        Player enemy;
-        Player ret = null;
-
-        closest2 = Integer.MAX_VALUE;
-        synchronized (players) {
-            n = players.size();
-            for (q = 0; q < n; q++) {
-                enemy = (Player) players.elementAt(q);
-                if (enemy == me || !enemy.isAlive())
-                    continue;
-                dist2 = getSquareDistanceBetween(enemy.getShip(), myX, myY);
-                if (dist2 < closest2) {
-                    closest2 = dist2;
-                    ret = enemy;
-                }
-            }
-        }
-        return ret;
+        return (Player) getPlayerIndex().nearest(myX, myY, me);
     }
 
     /* checks between ships. */
@@ -196,28 +274,52 @@ public final class World {
         return getClosestEnemy(me, myLoc.x, myLoc.y);
     }
 
-    public final Bomb getClosestEnemyBomb(Player me, int myX, int myY) {
-        int  q, n, closest2, dist2;
-        Bomb enemyBomb;
-        Bomb ret = null;
+    /* the up to k closest living enemies, closest first. */
+    public final Player[] getClosestEnemies(Player me, int myX, int myY,
+                                            int k) {
+        int      n;
+        Object[] found;
+        Player[] ret;
 
-        closest2 = Integer.MAX_VALUE;
-        synchronized (bombs) {
-            n = bombs.size();
-            for (q = 0; q < n; q++) {
-                enemyBomb = (Bomb) bombs.elementAt(q);
-                if (enemyBomb.getOwner() == me)
-                    continue;
-                dist2 = getSquareDistanceBetween(enemyBomb, myX, myY);
-                if (dist2 < closest2) {
-                    closest2 = dist2;
-                    ret = enemyBomb;
-                }
-            }
-        }
+        found = new Object[k];
+        n = getPlayerIndex().nearest(myX, myY, me, found);
+        ret = new Player[n];
+        System.arraycopy(found, 0, ret, 0, n);
+        return ret;
+    }
+
+    /* batched version of getClosestEnemy, for the server's homing
+     * bombs: ret[q] is set to the enemy closest to (x[q], y[q]) that
+     * is not me[q]. */
+    public final void getClosestEnemies(Player[] me, int[] x, int[] y,
+                                        Player[] ret) {
+        int          q;
+        NearestIndex index;
+
+        index = getPlayerIndex();
+        for (q = 0; q < ret.length; q++)
+            ret[q] = (Player) index.nearest(x[q], y[q], me[q]);
+    }
+
+    /* the living enemies that are no further than `radius' from the
+     * given point. used by the server to find the ships that a shot
+     * may possibly hit. */
+    public final Player[] getEnemiesNear(Player me, int x, int y,
+                                         int radius) {
+        Vector   found;
+        Player[] ret;
+
+        found = new Vector();
+        getPlayerIndex().within(x, y, radius, me, found);
+        ret = new Player[found.size()];
+        found.copyInto(ret);
         return ret;
     }
 
+    public final Bomb getClosestEnemyBomb(Player me, int myX, int myY) {
+        return (Bomb) getBombIndex().nearest(myX, myY, me);
+    }
+
     public final Bomb getClosestEnemyBomb(Player me) {
         Point myLoc;
 
@@ -226,25 +328,7 @@ public final class World {
     }
 
     public final Phaser getClosestEnemyPhaser(Player me, int myX, int myY) {
-        int    q, n, closest2, dist2;
-        Phaser enemyPhaser;
-        Phaser ret = null;
-
-        closest2 = Integer.MAX_VALUE;
-        synchronized (phasers) {
-            n = phasers.size();
-            for (q = 0; q < n; q++) {
-                enemyPhaser = (Phaser) phasers.elementAt(q);
-                if (enemyPhaser.getOwner() == me)
-                    continue;
-                dist2 = getSquareDistanceBetween(enemyPhaser, myX, myY);
-                if (dist2 < closest2) {
-                    closest2 = dist2;
-                    ret = enemyPhaser;
-                }
-            }
-        }
-        return ret;
+        return (Phaser) getPhaserIndex().nearest(myX, myY, me);
     }
 
     public final Phaser getClosestEnemyPhaser(Player me) {
@@ -255,23 +339,7 @@ public final class World {
     }
 
     public final BombPack getClosestBombPack(int myX, int myY) {
-        int      q, n, closest2, dist2;
-        BombPack bombPack;
-        BombPack ret = null;
-
-        closest2 = Integer.MAX_VALUE;
-        synchronized (bombPacks) {
-            n = bombPacks.size();
-            for (q = 0; q < n; q++) {
-                bombPack = (BombPack) bombPacks.elementAt(q);
-                dist2 = getSquareDistanceBetween(bombPack, myX, myY);
-                if (dist2 < closest2) {
-                    closest2 = dist2;
-                    ret = bombPack;
-                }
-            }
-        }
-        return ret;
+        return (BombPack) getBombPackIndex().nearest(myX, myY, null);
     }
 
     public final BombPack getClosestBombPack(Player me) {
@@ -298,53 +366,67 @@ public final class World {
         return (int) (Math.sqrt(ret2) + 0.5);
     }
 
+    /* rebuild the map used by findGoodLocation from the current
+     * locations of the collidable objects. done by findGoodLocation
+     * itself the first time it is called after rebuildIndex(). */
+    public final void rebuildFreeSpaceMap() {
+        int                  q, n;
+        int[]                xs, ys;
+        DrawableGameObject[] oa;
+        Point                loc;
+
+        synchronized (collidable) {
+            n = collidable.size();
+            oa = new DrawableGameObject[n];
+            collidable.copyInto(oa);
+        }
+        xs = new int[n];
+        ys = new int[n];
+        for (q = 0; q < n; q++) {
+            loc = oa[q].getLocation();
+            xs[q] = loc.x;
+            ys[q] = loc.y;
+        }
+        /* suitably far away is a fifth of the world width. */
+        freeSpace = new FreeSpaceMap(width, height, width / 5, xs, ys, n);
+    }
+
     public final Point findGoodLocation() {
-        int x, y, maxx, maxy, minx, miny, count;
+        return findGoodLocation(0, width - 1);
+    }
 
-        minx = width / 100;
-        maxx = width - minx;
+    /* like the above, but with x between `minx' and `maxx', such as
+     * in the part of the world one server simulates. */
+    public final Point findGoodLocation(int minx, int maxx) {
+        int          maxy, miny, margin;
+        FreeSpaceMap map;
+
+        /* not right at the edge of the world. */
+        margin = width / 100;
+        minx = Math.max(minx, margin);
+        maxx = Math.min(maxx, width - margin - 1);
         miny = height / 100;
-        maxy = height - miny;
-        count = 0;
-        /* create random locations, untill one is found that is
-         * suitably far away from other objects. give up after a
-         * number of retries. */
-        do {
-            x = minx + (int) (Math.random() * (maxx - minx));
-            y = miny + (int) (Math.random() * (maxy - miny));
-            if (++count == 100)
-                break;
-        } while (getDistanceToClosestCollidable(x, y) < minx * 20);
-        return new Point(x, y);
+        maxy = height - miny - 1;
+        while ((map = freeSpace) == null)
+            rebuildFreeSpaceMap();
+        /* the map hands out locations that are suitably far away from
+         * other objects, and from the other locations it has handed
+         * out since it was built. when there is no such place left,
+         * it hands out the one furthest from them. */
+        return map.pick(minx, miny, maxx, maxy);
     }
 
     /* this is the _visual_ angle in radians: 0 is right, PI/2 is up,
      * PI is left, and 3PI/2 is down. */
     public final double getAngle(int fromX, int fromY, int toX, int toY) {
-        int    dx, dy;
-        double ret;
+        int dx, dy;
 
         dx = toX - fromX;
         dy = fromY - toY; /* mathematical y direction: positive up. */
-        if (dx == 0) {
-            if (dy >= 0)
-                ret = Math.PI / 2.0;
-            else
-                ret = -Math.PI / 2.0;
-        } else
-            ret = Math.atan((double) dy / dx);
-        /* find correct quadrant, and "normalize". atan returns the
-         * interval -PI/2 to PI/2, we want 0 to 2PI. */
-        if (ret >= 0.0) {
-            if (dy < 0 && dx < 0)
-                ret += Math.PI;
-        } else {
-            if (dy > 0 && dx < 0)
-                ret += Math.PI;
-            else
-                ret += 2.0 * Math.PI;
-        }
-        return ret;
+        if (dx == 0 && dy == 0)
+            return Math.PI / 2.0;
+        /* atan2 returns the interval -PI to PI, we want 0 to 2PI. */
+        return FastMath.normalizeAngle(FastMath.atan2(dy, dx));
     }
 
     public final double getDeltaAngle(double fromAngle, double toAngle) {
@@ -384,6 +466,16 @@ public final class World {
         addDecoration(s);
     }
 
+    /* the stars made up from a seed. they are not among the stars
+     * returned by getStars(), but are drawn all the same. */
+    public final void setStarField(StarField f) {
+        starField = f;
+    }
+
+    public final StarField getStarField() {
+        return starField;
+    }
+
     public final Star[] getStars() {
         Star[] ret;
 
@@ -394,6 +486,35 @@ public final class World {
         return ret;
     }
 
+    /**
+     * Removes everything but the stars, for instance when the world is
+     * about to be received from another server.
+     */
+    public final void clear() {
+        int         q;
+        Player[]    p;
+        Phaser[]    ph;
+        Bomb[]      b;
+        BombPack[]  bp;
+        Explosion[] e;
+
+        p = getPlayers();
+        for (q = 0; q < p.length; q++)
+            removePlayer(p[q]);
+        ph = getPhasers();
+        for (q = 0; q < ph.length; q++)
+            removePhaser(ph[q]);
+        b = getBombs();
+        for (q = 0; q < b.length; q++)
+            removeBomb(b[q]);
+        bp = getBombPacks();
+        for (q = 0; q < bp.length; q++)
+            removeBombPack(bp[q]);
+        e = getExplosions();
+        for (q = 0; q < e.length; q++)
+            removeExplosion(e[q]);
+    }
+
     public final void addPlayer(Player p) {
         players.addElement(p);
         if (p.isAlive())
@@ -0,0 +1,211 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import no.shhsoft.net.*;
+
+import netgame.*;
+
+/*
+ * Many independent games, arenas, behind one port. Each arena is a
+ * Server of its own, with its own world, players and broadcasts, but
+ * none of them listen for clients. This one does, and keeps new
+ * clients in a lobby until they either ask for an arena by name or
+ * just log in, in which case they are put in the fullest arena that
+ * still has room, so players end up together rather than spread thin.
+ *
+ * The arenas don't have an update thread each. Their updates are run
+ * on a pool with a thread per processor, spread out over the update
+ * period so they don't all want the processors at the same time.
+ */
+public final class ArenaServer
+extends TCPGameServer
+implements LoadSource {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private Server[]                 arenas;
+    private ScheduledExecutorService ticker;
+    private ScheduledFuture          reporter;  /* null if no reports */
+    private LoadReporter             loadReporter;  /* null if none */
+    private String                   secret;  /* see setServerSecret */
+
+    private final Server findArena(String name) {
+        int q;
+
+        for (q = 0; q < arenas.length; q++)
+            if (arenas[q].getName().equals(name))
+                return arenas[q];
+        return null;
+    }
+
+    /* the fullest arena with room left, or null if all are full. */
+    private final Server pickArena() {
+        int    q;
+        Server ret;
+
+        ret = null;
+        for (q = 0; q < arenas.length; q++)
+            if (!arenas[q].isFull()
+                && (ret == null
+                    || arenas[q].getPlayerCount() > ret.getPlayerCount()))
+                ret = arenas[q];
+        return ret;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* called by the reader thread of a client in the lobby. moves it
+     * to the arena named `name', or to any arena if `name' is empty.
+     * returns the arena, or null if there is no such arena or it is
+     * full. */
+    final synchronized Server assign(ClientHandler handler, String name) {
+        Server arena;
+
+        arena = name.length() > 0 ? findArena(name) : pickArena();
+        if (arena == null || arena.isFull())
+            return null;
+        handler.enterArena(arena);
+        arena.admit(handler);
+        return arena;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /* `numArenas' arenas, named 1 and up, with room for `maxPlayers'
+     * each, 0 meaning no limit. the worlds are of the given size, or
+     * the default size if 0. */
+    public ArenaServer(int port, int numArenas, int maxPlayers,
+                       int worldWidth, int worldHeight)
+    throws IOException {
+        /* the lobby only hands clients over to the arenas, and never
+         * broadcasts anything itself. */
+        super(port, 0);
+        int  q;
+        long period;
+
+        ticker = Executors.newScheduledThreadPool(
+                     Runtime.getRuntime().availableProcessors(),
+                     new ThreadFactory() {
+                         public Thread newThread(Runnable r) {
+                             Thread t;
+
+                             t = new Thread(r);
+                             t.setDaemon(true);
+                             return t;
+                         }
+                     });
+        period = 1000 / Updater.updateFrequency;
+        arenas = new Server[numArenas];
+        for (q = 0; q < numArenas; q++)
+            arenas[q] = new Server("" + (q + 1), maxPlayers,
+                                   worldWidth, worldHeight, ticker,
+                                   q * period / numArenas);
+    }
+
+    /* see Server.setServerSecret. shown to the front door. */
+    public final void setServerSecret(String secret) {
+        this.secret = secret;
+    }
+
+    /* see Server.setFrontDoor. the front door is told about each
+     * arena. */
+    public final void setFrontDoor(String host, int port,
+                                   String publicHost) {
+        loadReporter = new LoadReporter(this, host, port, secret,
+                                        publicHost, this.port);
+        loadReporter.start();
+    }
+
+    /* starts the arenas, and taking clients. */
+    public void start() {
+        int q;
+
+        for (q = 0; q < arenas.length; q++)
+            arenas[q].start();
+        super.start();
+    }
+
+    public void stop() {
+        int q;
+
+        if (loadReporter != null)
+            loadReporter.stop();
+        setReportSeconds(0);
+        for (q = 0; q < arenas.length; q++)
+            arenas[q].stop();
+        ticker.shutdown();
+        super.stop();
+    }
+
+    /* see Server.setSendBudget. applies to all arenas. */
+    public final void setSendBudget(int bytes) {
+        int q;
+
+        for (q = 0; q < arenas.length; q++)
+            arenas[q].setSendBudget(bytes);
+    }
+
+    /* see Server.setUrgentFlushMicros. applies to all arenas. */
+    public final void setUrgentFlushMicros(int micros) {
+        int q;
+
+        for (q = 0; q < arenas.length; q++)
+            arenas[q].setUrgentFlushMicros(micros);
+    }
+
+    /* see Server.setLinkReportSeconds. applies to all arenas. */
+    public final void setLinkReportSeconds(int seconds) {
+        int q;
+
+        for (q = 0; q < arenas.length; q++)
+            arenas[q].setLinkReportSeconds(seconds);
+    }
+
+    /* one line per arena, telling how many players it has and how
+     * long its updates have taken since the last report. may be
+     * called from any thread. */
+    public final String getArenaReport() {
+        int          q;
+        StringBuffer sb;
+
+        sb = new StringBuffer();
+        for (q = 0; q < arenas.length; q++)
+            sb.append((new Date()).toString() + " "
+                      + arenas[q].describeArena() + "\n");
+        return sb.toString();
+    }
+
+    /* with `seconds' > 0, prints the arena report that often. */
+    public final synchronized void setReportSeconds(int seconds) {
+        if (reporter != null) {
+            reporter.cancel(false);
+            reporter = null;
+        }
+        if (seconds > 0)
+            reporter = ticker.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    System.out.print(getArenaReport());
+                }
+            }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /* LoadSource *******************************************************/
+    public void putLoad(Message m) {
+        int q;
+
+        m.putShort((short) arenas.length);
+        for (q = 0; q < arenas.length; q++)
+            arenas[q].putArenaLoad(m);
+    }
+
+    /* TCPGameServer ****************************************************/
+    public TCPGameServerClientHandler newClient(Socket sock) {
+        return new ClientHandler(this, sock, null);
+    }
+}
@@ -0,0 +1,82 @@
+package server;
+
+import java.util.*;
+import java.security.*;
+
+/*
+ * Players on their way to this server from another one. The other
+ * server sends us the player's state, and tells the client to connect
+ * here and show a token. The state waits under that token until the
+ * client turns up, or until it is too late.
+ *
+ * Tokens are long random numbers, so a client can't take over somebody
+ * else's player by guessing.
+ */
+final class Arrivals {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final class Arrival {
+        PlayerState state;
+        long        deadline;  /* System.currentTimeMillis() */
+    }
+
+    private Hashtable waiting;  /* token -> Arrival */
+    private long      waitMillis;
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* states are kept for `waitMillis' after they arrive. */
+    Arrivals(long waitMillis) {
+        this.waitMillis = waitMillis;
+        waiting = new Hashtable();
+    }
+
+    static final String newToken() {
+        return Long.toHexString(random.nextLong())
+               + Long.toHexString(random.nextLong());
+    }
+
+    final void expect(String token, PlayerState state) {
+        Arrival a;
+
+        a = new Arrival();
+        a.state = state;
+        a.deadline = System.currentTimeMillis() + waitMillis;
+        waiting.put(token, a);
+    }
+
+    /* the state waiting under `token', which is no longer kept. null
+     * if there is none, or it was kept too long. */
+    final PlayerState take(String token) {
+        Arrival a;
+
+        a = (Arrival) waiting.remove(token);
+        if (a == null || a.deadline < System.currentTimeMillis())
+            return null;
+        return a.state;
+    }
+
+    /* forgets those that didn't make it in time. */
+    final void expire() {
+        int         q;
+        long        now;
+        Enumeration e;
+        Object      token;
+        Vector      late;
+
+        now = System.currentTimeMillis();
+        late = new Vector();
+        e = waiting.keys();
+        while (e.hasMoreElements()) {
+            token = e.nextElement();
+            if (((Arrival) waiting.get(token)).deadline < now)
+                late.addElement(token);
+        }
+        for (q = 0; q < late.size(); q++)
+            waiting.remove(late.elementAt(q));
+    }
+}
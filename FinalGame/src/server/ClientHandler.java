@@ -3,9 +3,11 @@ package server;
 import java.io.*;
 import java.net.*;
 import java.awt.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import no.shhsoft.net.*;
 
+import util.*;
 import netgame.*;
 import client.*;
 import objects.*;
@@ -14,22 +16,145 @@ extends TCPGameServerClientHandler {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
-    private static final byte protocolVersion = 11; /* also update in
-                                                     * client/Client.java */
-    private boolean        cont; /* false indicates "stop client" */
-    private World          world;
-    private UpdatingPlayer me;
+    static final byte protocolVersion = 21; /* also update in
+                                             * client/Client.java */
+    private volatile boolean        cont; /* false indicates "stop client" */
+    private volatile boolean        lost; /* connection broken or closed */
+    private World                   world;  /* null while in the lobby */
+    private volatile UpdatingPlayer me;
+    private ConcurrentLinkedQueue   inputs; /* received, not yet applied */
+    private UpdateScheduler         scheduler;
+    private int                     positionBudget; /* bytes per update */
+    private LinkStats               link;
+    private volatile int            frameInterval;  /* updates per frame */
+    private int                     calmSeconds;    /* without congestion */
+    private volatile boolean        flushHeld;      /* until next frame */
+    private JoinStream              joining;        /* null when joined */
+    private Message                 resuming;       /* waiting for state */
+    private long                    resumeDeadline;
+    private volatile String         resumeToken;    /* null until joined */
+
+    /* bytes of the world streamed to a joining player per update,
+     * unless there is a send budget. */
+    private static final int joinBytesPerUpdate = 8192;
+
+    /* how long a resuming client may wait for its state, which the
+     * server it came from may not have got here yet. */
+    private static final long resumeWaitMillis = 2000;
+
+    /* the most updates we let pass between frames to a slow client,
+     * and how long a link must behave before we speed up again. */
+    private static final int maxFrameInterval = 4;
+    private static final int calmSecondsToSpeedUp = 3;
+
+    /* a random direction that ships can actually point in. */
+    private static double getRandomDirection() {
+        return ((int) (Math.random() * Ship.HEADINGS)) * 2.0 * Math.PI
+               / Ship.HEADINGS;
+    }
 
     private void handleException(IOException e) {
         /* will be called when there is an error, but also when the
-         * client disconnects. */
+         * client disconnects. this may happen in the reader thread,
+         * so the player is left for the updater to remove. */
+        lost = true;
+        cont = false;
+    }
+
+    private final void removeMe() {
         if (me != null) {
             world.removePlayer(me);
             ((Server) server).colorResycler
                 .resycleColor(me.getShip().getColor());
             ((Server) server).sendRemovePlayer(me);
+            me = null;
         }
-        cont = false;
+    }
+
+    private final void apply(Message m)
+    throws IOException {
+        if (me == null && m.getType() != ServerCommands.LOGIN
+            && m.getType() != ServerCommands.RESUME)
+            return;  /* not logged in yet */
+        switch (m.getType()) {
+          case ServerCommands.LOGIN:
+            receiveLogin(m);
+            break;
+          case ServerCommands.RESUME:
+            receiveResume(m);
+            break;
+          case ServerCommands.SET_NAME:
+            receiveSetName(m);
+            break;
+          case ServerCommands.SET_TURN:
+            receiveSetTurn(m);
+            break;
+          case ServerCommands.SET_THRUST:
+            receiveSetThrust(m);
+            break;
+          case ServerCommands.FIRE_PHASER:
+            receiveFirePhaser(m);
+            break;
+          case ServerCommands.FIRE_BOMB:
+            receiveFireBomb(m);
+            break;
+          case ServerCommands.RESURRECT_ME:
+            receiveResurrectMe(m);
+            break;
+          case ServerCommands.SAY:
+            receiveSay(m);
+            break;
+          case ServerCommands.LOGOUT:
+            receiveLogout(m);
+            break;
+          default:
+            System.err.println("server: got unknown command "
+                               + m.getType() + " from " + getPeerName());
+        }
+    }
+
+    /* called by the reader thread for what arrives while we are in
+     * the lobby of an arena server. a client may ask for an arena by
+     * name, or just log in and get any. */
+    private final void receiveInLobby(Message m)
+    throws IOException {
+        String name;
+
+        if (m.getType() == ServerCommands.JOIN_ARENA)
+            name = m.getString();
+        else if (m.getType() == ServerCommands.LOGIN)
+            name = "";
+        else
+            return;  /* nothing else makes sense here */
+        if (((ArenaServer) server).assign(this, name) == null) {
+            sendGetLost("Server says: "
+                        + (name.length() > 0
+                           ? "Arena " + name + " is full or unknown."
+                           : "All arenas are full."));
+            flush();
+            lost = true;
+            cont = false;
+            return;
+        }
+        /* the arena applies the login, like any other command. */
+        if (m.getType() == ServerCommands.LOGIN)
+            inputs.add(m);
+    }
+
+    /* tells the client off unless it talks our version. */
+    private final boolean checkVersion(byte version) {
+        if (version == protocolVersion)
+            return true;
+        sendGetLost("Server says: Wrong protocol version: "
+                    + "You want #" + version
+                    + ", I talk #" + protocolVersion + ".\n    "
+                    + (version < protocolVersion
+                       ? "You're outdated, son."
+                       : "I'm too old for this shit."));
+        flush();
+        stop();
+        lost = true;
+        return false;
     }
 
     private final void receiveLogin(Message m)
@@ -41,33 +166,163 @@ extends TCPGameServerClientHandler {
         version = m.getByte();
         name    = m.getString();
 
-        if (version != protocolVersion) {
-            sendGetLost("Server says: Wrong protocol version: "
-                        + "You want #" + version
-                        + ", I talk #" + protocolVersion + ".\n    "
-                        + (version < protocolVersion
-                           ? "You're outdated, son."
-                           : "I'm too old for this shit."));
+        if (!checkVersion(version))
+            return;
+
+        player = new UpdatingPlayer(this,
+                                    ((Server) server).getIds().nextPlayer(),
+                                    name);
+        player.getShip().setColor(((Server) server).colorResycler.getColor());
+        player.setLocation(((Server) server).findGoodLocation());
+        player.setDirection(getRandomDirection());
+        join(player);
+
+        me.setBombsLeft(5);
+        sendSetPlayerStatus();
+    }
+
+    /* a client that lost its connection, or a player coming from
+     * another server, with the token it was given. it carries on where
+     * it left off. `lastTicks' are the last markers the client got,
+     * see Server.markTick. */
+    private final void receiveResume(Message m)
+    throws IOException {
+        byte           version;
+        String         token;
+        int[]          lastTicks;
+        int            q;
+        ClientHandler  old;
+        PlayerState    state;
+        UpdatingPlayer player;
+
+        version = m.getByte();
+        token   = m.getString();
+
+        if (!checkVersion(version))
+            return;
+        lastTicks = new int[Lane.COUNT];
+        for (q = 0; q < Lane.COUNT; q++)
+            lastTicks[q] = m.getInt();
+        old = ((Server) server).unpark(token);
+        if (old != null && old.me != null) {
+            resumeParked(old, lastTicks);
+            return;
+        }
+        state = ((Server) server).getArrivals().take(token);
+        if (state == null && resumeDeadline == 0)
+            resumeDeadline = System.currentTimeMillis() + resumeWaitMillis;
+        if (state == null
+            && System.currentTimeMillis() < resumeDeadline) {
+            /* try again next update, before anything else. */
+            resuming = m;
+            return;
+        }
+        if (state == null) {
+            sendGetLost("Server says: Sorry, I don't know you, "
+                        + "or you took too long.");
             flush();
             stop();
+            lost = true;
             return;
         }
 
-        player = new UpdatingPlayer(this, UpdatingPlayer.getNextId(), name);
-        player.getShip().setColor(((Server) server).colorResycler.getColor());
-        me = player;
-        player.setLocation(world.findGoodLocation());
-        player.setDirection(Math.random() * 1.99999 * Math.PI);
+        /* a standby taking over keeps the ids. */
+        player = new UpdatingPlayer(this,
+                                    state.id >= 0
+                                    && world.findPlayer(state.id) == null
+                                    ? state.id
+                                    : ((Server) server).getIds().nextPlayer(),
+                                    state.name);
+        state.applyTo(player);
+        if (state.x < 0 || state.x >= world.getWidth()
+            || state.y < 0 || state.y >= world.getHeight())
+            /* came from a bigger world. */
+            player.setLocation(((Server) server).findGoodLocation());
+        sendResumed(false);
+        join(player);
+        sendSetPlayerStatus();
+    }
 
-        sendSetYourId(player.getId());
-        sendWorld();
+    /* takes over the player of a parked client. if the client had the
+     * whole world before, and the ring still has all broadcasts since
+     * the last markers it got, it only gets those. otherwise it gets
+     * the world like a new player does, and starts over. */
+    private final void resumeParked(ClientHandler old, int[] lastTicks) {
+        UpdatingPlayer player;
+        long[]         from;
+
+        player = old.me;
+        old.me = null;
+        player.setClientHandler(this);
+        from = old.joining == null
+               ? ((Server) server).getResumePoints(lastTicks)
+               : null;
+        if (from != null) {
+            me = player;
+            resumeToken = Arrivals.newToken();
+            /* these go out before anything we replay. */
+            sendResumed(true);
+            sendSetYourId(player.getId());
+            sendSetResumeToken(resumeToken);
+            if (subscribe(from)) {
+                sendSetPlayerStatus();
+                return;
+            }
+            /* the ring moved on in the meantime. */
+        }
+        sendResumed(false);
+        welcome(player);
+        sendSetPlayerStatus();
+    }
+
+    /* called by the reader thread for a player sent ahead by a server
+     * that is draining, see Server.drain. its client will follow with
+     * a RESUME. this connection is the other server, not a client, and
+     * it may be gone before the next update, so this is not queued.
+     * a client could send this too, to make up a player of its own,
+     * so it is ignored unless the other server is one we trust. */
+    private final void receiveMigrate(Message m)
+    throws IOException {
+        byte        version;
+        String      secret, token;
+        PlayerState state;
+
+        version = m.getByte();
+        secret  = m.getString();
+        token   = m.getString();
+        if (!checkVersion(version))
+            return;
+        if (!((Server) server).trusts(getPeerAddress(), secret)) {
+            System.err.println("server: ignored a migrating player from "
+                               + getPeerName());
+            return;
+        }
+        state = new PlayerState(m);
+        /* only a standby taking over keeps the ids. */
+        state.id = -1;
+        ((Server) server).getArrivals().expect(token, state);
+    }
 
+    /* puts a new player in the world, and tells the client what it
+     * needs to know. */
+    private final void join(UpdatingPlayer player) {
+        welcome(player);
         world.addPlayer(player);
         ((Server) server).sendNewPlayer(player);
+    }
 
-        me.setBombsLeft(5);
-        sendSetPlayerStatus();
-        flush();
+    /* tells the client about the world, and its player in it. */
+    private final void welcome(UpdatingPlayer player) {
+        me = player;
+        resumeToken = Arrivals.newToken();
+        sendSetYourId(player.getId());
+        sendSetResumeToken(resumeToken);
+        sendSetWorldSize(world.getWidth(), world.getHeight());
+        sendSetStarField(world.getStarField().getSeed());
+        /* from now on, everything broadcast reaches us too. what was
+         * there before is streamed over the next few updates. */
+        joining = new JoinStream(((Server) server).getCurrentSnapshot());
+        subscribe();
     }
 
     private final void receiveSetName(Message m)
@@ -115,11 +370,11 @@ extends TCPGameServerClientHandler {
         col = Color.white;
         loc = new Point(me.getLocation());
         dir = me.getDirection();
-        loc.x += (int) (offs * Math.cos(dir) + 0.5);
-        loc.y -= (int) (offs * Math.sin(dir) + 0.5);
+        loc.x += (int) (offs * FastMath.cos(dir) + 0.5);
+        loc.y -= (int) (offs * FastMath.sin(dir) + 0.5);
 
         p = new UpdatingPhaser((Server) server, world,
-                               UpdatingPhaser.getNextId(), me,
+                               ((Server) server).getIds().nextPhaser(), me,
                                loc.x, loc.y, dir, col);
 
         world.addPhaser(p);
@@ -129,10 +384,8 @@ extends TCPGameServerClientHandler {
         if (me.getPhaserHeat() > 75)
             me.setPhaserHeat(100);
         sendSetPlayerStatus();
-        flush();
 
         ((Server) server).sendNewPhaser(p);
-        ((Server) server).flush();
     }
 
     private final void receiveFireBomb(Message m)
@@ -152,35 +405,32 @@ extends TCPGameServerClientHandler {
         col = ship.getColor();
         loc = new Point(me.getLocation());
         dir = me.getDirection();
-        loc.x += (int) (offs * Math.cos(dir) + 0.5);
-        loc.y -= (int) (offs * Math.sin(dir) + 0.5);
+        loc.x += (int) (offs * FastMath.cos(dir) + 0.5);
+        loc.y -= (int) (offs * FastMath.sin(dir) + 0.5);
 
-        b = new UpdatingBomb((Server) server, world, UpdatingBomb.getNextId(),
+        b = new UpdatingBomb((Server) server, world,
+                             ((Server) server).getIds().nextBomb(),
                              me, loc.x, loc.y, dir, col);
 
         world.addBomb(b);
 
         me.decBombsLeft(1);
         sendSetPlayerStatus();
-        flush();
 
         ((Server) server).sendNewBomb(b);
-        ((Server) server).flush();
     }
 
     private final void receiveResurrectMe(Message m)
     throws IOException {
-        me.setLocation(world.findGoodLocation());
-        me.setDirection(Math.random() * 1.99999 * Math.PI);
+        me.setLocation(((Server) server).findGoodLocation());
+        me.setDirection(getRandomDirection());
         me.setAlive(true);
         me.setDamage(0);
         me.setPhaserHeat(0);
         me.setBombsLeft(5);
 
         sendSetPlayerStatus();
-        flush();
         ((Server) server).sendPlayerResurrects(me);
-        ((Server) server).flush();
     }
 
     private final void receiveSay(Message m)
@@ -190,451 +440,369 @@ extends TCPGameServerClientHandler {
         msg = m.getString();
 
         ((Server) server).sendPlayerSays(me, msg);
-        ((Server) server).flush();
+    }
+
+    /* the client is leaving for good, so there is no point in keeping
+     * its player when the connection closes. */
+    private final void receiveLogout(Message m)
+    throws IOException {
+        removeMe();
+        resumeToken = null;
     }
 
 /*-----------------------------------------------------------------------+
  |  INHERITANTS' INTERFACE                                               |
  +----------------------------------------------------------------------*/
     /* TCPGameServerClientHandler ***************************************/
+    /* nothing more is queued once the connection is gone. the player
+     * of a parked client is still in the world, and would otherwise
+     * keep getting messages that nobody reads. */
+    protected final void sendMessageNoFlush(Message m, int lane)
+    throws IOException {
+        if (!lost)
+            super.sendMessageNoFlush(m, lane);
+    }
+
     protected final boolean readIncoming() {
         Message m;
 
         try {
+            /* only queue the command. it is applied by the updater at
+             * the start of the next update, so the world is only ever
+             * changed by one thread. */
             m = receiveMessage();
-            switch (m.getType()) {
-              case ServerCommands.LOGIN:
-                receiveLogin(m);
-                break;
-              case ServerCommands.SET_NAME:
-                receiveSetName(m);
-                break;
-              case ServerCommands.SET_TURN:
-                receiveSetTurn(m);
-                break;
-              case ServerCommands.SET_THRUST:
-                receiveSetThrust(m);
-                break;
-              case ServerCommands.FIRE_PHASER:
-                receiveFirePhaser(m);
-                break;
-              case ServerCommands.FIRE_BOMB:
-                receiveFireBomb(m);
-                break;
-              case ServerCommands.RESURRECT_ME:
-                receiveResurrectMe(m);
-                break;
-              case ServerCommands.SAY:
-                receiveSay(m);
-                break;
-              default:
-                System.err.println("server: got unknown command "
-                                   + m.getType() + " from " + getPeerName());
-            }
+            /* timed here rather than in the next update. */
+            if (m.getType() == ServerCommands.PONG)
+                link.ponged(m.getInt());
+            else if (world == null)
+                receiveInLobby(m);
+            else if (m.getType() == ServerCommands.MIGRATE)
+                receiveMigrate(m);
+            else
+                inputs.add(m);
         } catch (IOException e) {
             handleException(e);
         }
         return cont;
     }
 
+    /* called by the writer thread. broadcasts tagged with a location
+     * are only of interest if we can see that location, or are close
+     * enough to it. */
+    protected final boolean wantsBroadcast(Object tag) {
+        UpdatingPlayer player;
+        Point          loc;
+        Nearby         near;
+
+        if (tag == null)
+            return true;
+        player = me;
+        if (player == null)
+            return false;
+        if (tag instanceof Nearby) {
+            near = (Nearby) tag;
+            return player.getViewDistance(near.x, near.y) <= near.views;
+        }
+        if (!(tag instanceof Point))
+            return true;
+        loc = (Point) tag;
+        return player.isInView(loc.x, loc.y);
+    }
+
 /*-----------------------------------------------------------------------+
  |  PACKAGE LOCAL PART                                                   |
  +----------------------------------------------------------------------*/
-    final synchronized void sendGetLost(String msg) {
-        try {
-            Message m = new Message(ClientCommands.GET_LOST);
-            m.putString(msg);
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
-        }
-    }
+    /* called by the updater daemon. applies the commands received
+     * since the last update, and parks the player if the connection
+     * is gone, see Server.park. returns false once the connection is
+     * done with. */
+    final boolean applyInputs() {
+        Message m;
 
-    final synchronized void sendSetYourId(short id) {
-        try {
-            Message m = new Message(ClientCommands.SET_YOUR_ID);
-            m.putShort(id);
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
+        while (!lost) {
+            if ((m = resuming) != null) {
+                resuming = null;
+                m.rewind();
+            } else if ((m = (Message) inputs.poll()) == null)
+                break;
+            try {
+                apply(m);
+                if (resuming != null)
+                    break;
+            } catch (IOException e) {
+                handleException(e);
+            } catch (RuntimeException e) {
+                /* a broken message must not take the updater down. */
+                System.err.println("server: bad command from "
+                                   + getPeerName() + ": " + e);
+                stop();
+                lost = true;
+                resumeToken = null;  /* not worth waiting for */
+            }
         }
-    }
-
-    final synchronized void sendNewPlayer(UpdatingPlayer p) {
-        Point loc;
-
-        try {
-            loc = p.getLocation();
-
-            Message m = new Message(ClientCommands.NEW_PLAYER);
-            m.putShort(p.getId());
-            m.putString(p.getName());
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putShort(p.getDirectionAsShort());
-            m.putInt(p.getShip().getColor().getRGB());
-            /* since this function is used when sending the state to
-             * new players, we also tell them wether the player is
-             * alive or not. */
-            m.putBoolean(p.isAlive());
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
+        if (lost) {
+            inputs.clear();
+            if (me != null && resumeToken != null) {
+                /* left drifting until the client is back. */
+                me.setTurn((byte) 0);
+                me.setThrust((byte) 0);
+                ((Server) server).park(this);
+            } else
+                removeMe();
+            return false;
         }
+        return true;
     }
 
-    final synchronized void sendRemovePlayer(UpdatingPlayer p) {
-        Point loc;
-
-        try {
-            Message m = new Message(ClientCommands.REMOVE_PLAYER);
-            m.putShort(p.getId());
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
-        }
+    /* called by the updater daemon when a parked client didn't come
+     * back in time. */
+    final void giveUp() {
+        removeMe();
     }
 
-    final synchronized void sendSetPlayerName(UpdatingPlayer p) {
-        Ship  ship;
-        Point loc;
-
-        try {
-            Message m = new Message(ClientCommands.SET_PLAYER_NAME);
-            m.putShort(p.getId());
-            m.putString(p.getName());
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
-        }
+    /* called by the arena server when we leave its lobby. */
+    final void enterArena(Server arena) {
+        world = arena.getWorld();
+        moveTo(arena);
     }
 
-    final synchronized void sendSetPlayerPosition(UpdatingPlayer p) {
-        Point loc;
-
+    final void sendGetLost(String msg) {
         try {
-            loc = p.getLocation();
-            Message m = new Message(ClientCommands.SET_PLAYER_POSITION);
-            m.putShort(p.getId());
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putShort(p.getDirectionAsShort());
+            Message m = new Message(ClientCommands.GET_LOST);
+            m.putString(msg);
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendSetPlayerScore(UpdatingPlayer p) {
-        Ship  ship;
-        Point loc;
-
+    /* the player has moved on to another server. the client is told
+     * where, and the token to show there. it will leave by itself. */
+    final void sendRedirect(String host, int port, String token) {
+        removeMe();
+        joining = null;
         try {
-            Message m = new Message(ClientCommands.SET_PLAYER_SCORE);
-            m.putShort(p.getId());
-            m.putShort(p.getScore());
-            m.putShort(p.getAntiScore());
+            Message m = new Message(ClientCommands.REDIRECT);
+            m.putString(host);
+            m.putInt(port);
+            m.putString(token);
+            m.putString("");  /* no arena */
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
         }
+        /* no longer in the world, so not flushed with the others. */
+        flush();
     }
 
-    final synchronized void sendSetPlayerStatus() {
-        Ship  ship;
-        Point loc;
+    /* the token the client may show to get its player back if the
+     * connection breaks. see Standby. */
+    final String getResumeToken() {
+        return resumeToken;
+    }
 
+    final void sendSetResumeToken(String token) {
         try {
-            Message m = new Message(ClientCommands.SET_PLAYER_STATUS);
-            m.putByte(me.getDamage());
-            m.putByte(me.getPhaserHeat());
-            m.putByte(me.getBombsLeft());
+            Message m = new Message(ClientCommands.SET_RESUME_TOKEN);
+            m.putString(token);
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendPlayerHit(UpdatingPlayer p,
-                                          UpdatingPlayer hitter,
-                                          byte weapon) {
+    /* tells a client that resumed whether it may keep what it has of
+     * the world, or must forget it and be sent it all again. */
+    final void sendResumed(boolean delta) {
         try {
-            Message m = new Message(ClientCommands.PLAYER_HIT);
-            m.putShort(p.getId());
-            m.putShort(hitter != null? hitter.getId() : -1);
-            m.putByte(weapon);
+            Message m = new Message(ClientCommands.RESUMED);
+            m.putBoolean(delta);
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendPlayerDies(UpdatingPlayer p,
-                                           UpdatingPlayer killer,
-                                           byte weapon) {
+    final void sendSetYourId(short id) {
         try {
-            Message m = new Message(ClientCommands.PLAYER_DIES);
-            m.putShort(p.getId());
-            m.putShort(killer != null? killer.getId() : -1);
-            m.putByte(weapon);
+            Message m = new Message(ClientCommands.SET_YOUR_ID);
+            m.putShort(id);
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendPlayerResurrects(UpdatingPlayer p) {
-        Point loc;
-
+    final void sendSetWorldSize(int width, int height) {
         try {
-            loc = p.getLocation();
-            Message m = new Message(ClientCommands.PLAYER_RESURRECTS);
-            m.putShort(p.getId());
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putShort(p.getDirectionAsShort());
+            Message m = new Message(ClientCommands.SET_WORLD_SIZE);
+            m.putInt(width);
+            m.putInt(height);
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendNewStar(Star s) {
-        Point loc;
-
+    final void sendSetStarField(int seed) {
         try {
-            Message m = new Message(ClientCommands.NEW_STAR);
-            loc = s.getLocation();
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putInt(s.getColor().getRGB());
+            Message m = new Message(ClientCommands.SET_STAR_FIELD);
+            m.putInt(seed);
             sendMessageNoFlush(m);
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendNewPhaser(UpdatingPhaser p) {
+    final void sendSetPlayerStatus() {
+        Ship  ship;
         Point loc;
 
         try {
-            Message m = new Message(ClientCommands.NEW_PHASER);
-            m.putShort(p.getId());
-            m.putShort(p.getOwner().getId());
-            loc = p.getLocation();
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putShort(p.getDirectionAsShort());
-            m.putInt(p.getColor().getRGB());
-            sendMessageNoFlush(m);
+            Message m = new Message(ClientCommands.SET_PLAYER_STATUS);
+            m.putByte(me.getDamage());
+            m.putByte(me.getPhaserHeat());
+            m.putByte(me.getBombsLeft());
+            sendMessageNoFlush(m, Lane.REALTIME);
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendRemovePhaser(UpdatingPhaser p) {
+    /* queues one message of the world for a joining player. returns
+     * the number of bytes it takes. */
+    final int sendJoinMessage(Message m, int lane) {
         try {
-            Message m = new Message(ClientCommands.REMOVE_PHASER);
-            m.putShort(p.getId());
-            sendMessageNoFlush(m);
+            sendMessageNoFlush(m, lane);
         } catch (IOException e) {
             handleException(e);
         }
+        return m.getLength() + 2;
     }
 
-    final synchronized void sendSetPhaserPosition(UpdatingPhaser p) {
-        Point loc;
+    /* queues one position update, on the realtime lane. returns the
+     * number of bytes it takes. */
+    final int sendPosition(byte command, short id, int x, int y, short dir,
+                           boolean withDirection) {
+        Message m;
 
+        m = new Message(command);
+        m.putShort(id);
+        Coordinates.put(m, x, ((Server) server).isWide());
+        Coordinates.put(m, y, ((Server) server).isWide());
+        if (withDirection)
+            m.putShort(dir);
         try {
-            loc = p.getLocation();
-            Message m = new Message(ClientCommands.SET_PHASER_POSITION);
-            m.putShort(p.getId());
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            sendMessageNoFlush(m);
+            sendMessageNoFlush(m, Lane.REALTIME);
         } catch (IOException e) {
             handleException(e);
         }
+        return m.getLength() + 2;
     }
 
-    final synchronized void sendNewBomb(UpdatingBomb b) {
-        Point loc;
+    /* called by the updater daemon once per update, after the
+     * snapshot is taken. */
+    final void sendPositions(WorldSnapshot snap) {
+        UpdatingPlayer player;
 
-        try {
-            Message m = new Message(ClientCommands.NEW_BOMB);
-            m.putShort(b.getId());
-            m.putShort(b.getOwner().getId());
-            loc = b.getLocation();
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putShort(b.getDirectionAsShort());
-            m.putInt(b.getColor().getRGB());
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
-        }
+        player = me;
+        if (player == null || lost)
+            return;
+        if (joining != null)
+            sendJoinState(snap, player);
+        if (isFrameDue(snap.getTick()))
+            scheduler.schedule(snap, player, positionBudget, this);
+    }
+
+    /* streams the next part of the world to a joining player, and
+     * tells it when it has all it needs to start drawing. */
+    final void sendJoinState(WorldSnapshot snap, UpdatingPlayer player) {
+        boolean wasNearDone;
+        int     budget;
+
+        wasNearDone = joining.isNearDone();
+        budget = positionBudget > 0 ? positionBudget : joinBytesPerUpdate;
+        joining.stream(snap, ((Server) server).getJoinCache(), player,
+                       budget, this);
+        if (!wasNearDone && joining.isNearDone())
+            sendJoinMessage(new Message(ClientCommands.WORLD_READY),
+                            Lane.RELIABLE);
+        if (joining.isDone())
+            joining = null;
+    }
+
+    /* a client on a slow link gets a frame only every few updates,
+     * each carrying the newest positions, instead of a frame per
+     * update that would pile up on the way. */
+    final boolean isFrameDue(long tick) {
+        return tick % frameInterval == 0;
+    }
+
+    /* called by Server.flush(). flushes now if a frame is due, or
+     * else at the next frame. */
+    final void flushFrame(long tick) {
+        if (isFrameDue(tick)) {
+            flushHeld = false;
+            flush();
+        } else
+            flushHeld = true;
     }
 
-    final synchronized void sendRemoveBomb(UpdatingBomb b) {
-        try {
-            Message m = new Message(ClientCommands.REMOVE_BOMB);
-            m.putShort(b.getId());
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
-        }
+    final boolean isFlushHeld() {
+        return flushHeld;
     }
 
-    final synchronized void sendSetBombPosition(UpdatingBomb b) {
-        Point loc;
-
-        try {
-            loc = b.getLocation();
-            Message m = new Message(ClientCommands.SET_BOMB_POSITION);
-            m.putShort(b.getId());
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
-        }
-    }
-
-    final synchronized void sendNewBombPack(UpdatingBombPack bp) {
-        Point loc;
-
-        try {
-            Message m = new Message(ClientCommands.NEW_BOMB_PACK);
-            m.putShort(bp.getId());
-            loc = bp.getLocation();
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putShort(bp.getDirectionAsShort());
-            m.putInt(bp.getColor().getRGB());
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
-        }
-    }
+    /* called by the updater daemon once a second. measures the link,
+     * sends less often to a client that can't keep up, and more often
+     * again when it has been keeping up for a while. */
+    final void checkLink() {
+        Message m;
 
-    final synchronized void sendRemoveBombPack(UpdatingBombPack bp) {
-        try {
-            Message m = new Message(ClientCommands.REMOVE_BOMB_PACK);
-            m.putShort(bp.getId());
-            sendMessageNoFlush(m);
-        } catch (IOException e) {
-            handleException(e);
+        link.sample(getBytesWritten(), getWriteNanos(), getSendBacklog());
+        if (link.isCongested(link.getThroughput()
+                             / Updater.updateFrequency)) {
+            calmSeconds = 0;
+            frameInterval *= 2;
+            if (frameInterval > maxFrameInterval)
+                frameInterval = maxFrameInterval;
+        } else if (++calmSeconds >= calmSecondsToSpeedUp
+                   && frameInterval > 1) {
+            calmSeconds = 0;
+            --frameInterval;
         }
-    }
-
-    final synchronized void sendSetBombPackPosition(UpdatingBombPack bp) {
-        Point loc;
 
+        m = new Message(ClientCommands.PING);
+        m.putInt(LinkStats.getStamp());
         try {
-            loc = bp.getLocation();
-            Message m = new Message(ClientCommands.SET_BOMB_PACK_POSITION);
-            m.putShort(bp.getId());
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            sendMessageNoFlush(m);
+            sendMessageNoFlush(m, Lane.REALTIME);
+            link.pinged();
         } catch (IOException e) {
             handleException(e);
         }
     }
 
-    final synchronized void sendNewExplosion(UpdatingExplosion e) {
-        Point loc;
-
-        try {
-            Message m = new Message(ClientCommands.NEW_EXPLOSION);
-            m.putShort(e.getId());
-            loc = e.getLocation();
-            m.putShort((short) loc.x);
-            m.putShort((short) loc.y);
-            m.putByte(e.getLevel());
-            m.putByte(e.getMaxLevel());
-            sendMessageNoFlush(m);
-        } catch (IOException ioe) {
-            handleException(ioe);
-        }
-    }
-
-    final synchronized void sendRemoveExplosion(UpdatingExplosion e) {
-        try {
-            Message m = new Message(ClientCommands.REMOVE_EXPLOSION);
-            m.putShort(e.getId());
-            sendMessageNoFlush(m);
-        } catch (IOException ioe) {
-            handleException(ioe);
-        }
-    }
-
-    final synchronized void sendSetExplosionLevel(UpdatingExplosion e) {
-        try {
-            Message m = new Message(ClientCommands.SET_EXPLOSION_LEVEL);
-            m.putShort(e.getId());
-            m.putByte(e.getLevel());
-            sendMessageNoFlush(m);
-        } catch (IOException ioe) {
-            handleException(ioe);
-        }
-    }
+    /* a line for the operator about the link to this client. */
+    final String describeLink() {
+        UpdatingPlayer player;
 
-    final synchronized void sendPlayerSays(UpdatingPlayer p, String msg) {
-        try {
-            Message m = new Message(ClientCommands.PLAYER_SAYS);
-            m.putShort(p.getId());
-            m.putString(msg);
-            sendMessageNoFlush(m);
-        } catch (IOException ioe) {
-            handleException(ioe);
-        }
+        player = me;
+        return getPeerName()
+               + (player != null ? " (" + player.getName() + ")" : "")
+               + (lost ? ", gone" : "")
+               + ": " + link.describe()
+               + ", every " + frameInterval + " update"
+               + (frameInterval > 1 ? "s" : "");
     }
 
-    final synchronized void sendWorld() {
-        int         q;
-        Star[]      stars;
-        Explosion[] explosions;
-        Phaser[]    phasers;
-        Bomb[]      bombs;
-        BombPack[]  bombPacks;
-        Player[]    players;
-
-        /* send the stars decorating the background */
-        stars = world.getStars();
-        for (q = 0; q < stars.length; q++)
-            sendNewStar(stars[q]);
-
-        /* send the explosions currently taking place */
-        explosions = world.getExplosions();
-        for (q = 0; q < explosions.length; q++)
-            sendNewExplosion((UpdatingExplosion) explosions[q]);
-
-        /* send the phasers */
-        phasers = world.getPhasers();
-        for (q = 0; q < phasers.length; q++)
-            sendNewPhaser((UpdatingPhaser) phasers[q]);
-
-        /* send the bombs */
-        bombs = world.getBombs();
-        for (q = 0; q < bombs.length; q++)
-            sendNewBomb((UpdatingBomb) bombs[q]);
-
-        /* send the bomb packs */
-        bombPacks = world.getBombPacks();
-        for (q = 0; q < bombPacks.length; q++)
-            sendNewBombPack((UpdatingBombPack) bombPacks[q]);
-
-        /* send the players (my player is sent later) */
-        players = world.getPlayers();
-        for (q = 0; q < players.length; q++) {
-            sendNewPlayer((UpdatingPlayer) players[q]);
-            sendSetPlayerScore((UpdatingPlayer) players[q]);
-        }
-
-        flush();
+    /* positions get half the budget, so the events always have room
+     * to get through. */
+    final void setSendBudgetPerUpdate(int bytes) {
+        positionBudget = bytes / 2;
+        setSendBudget(bytes * Updater.updateFrequency);
     }
 
+    /* sends what is queued right away. normally the updater does this
+     * once per update, for every client at the same time. */
     final void flush() {
         try {
             flushOut();
@@ -646,11 +814,21 @@ extends TCPGameServerClientHandler {
 /*-----------------------------------------------------------------------+
  |  PUBLIC INTERFACE                                                     |
  +----------------------------------------------------------------------*/
-    public ClientHandler(Server server, Socket sock, World world) {
+    /* `world' is null for a client in the lobby of an arena server. */
+    public ClientHandler(TCPGameServer server, Socket sock, World world) {
         super(server, sock);
         this.world = world;
         cont = true;
+        lost = false;
         me = null;
+        inputs = new ConcurrentLinkedQueue();
+        scheduler = new UpdateScheduler();
+        positionBudget = 0;
+        link = new LinkStats();
+        frameInterval = 1;
+        calmSeconds = 0;
+        flushHeld = false;
+        joining = null;
     }
 
     public World getWorld() {
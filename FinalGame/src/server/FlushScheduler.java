@@ -0,0 +1,91 @@
+package server;
+
+/*
+ * Makes sure urgent events, like shots being fired and ships being
+ * hit, reach the clients within a given time, even when the update
+ * they happen in takes longer than that. Everything else waits for
+ * the flush at the end of the update.
+ *
+ * The first urgent event after a flush sets a deadline. If the
+ * updater has not flushed by then, this thread does.
+ */
+final class FlushScheduler
+implements Runnable {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private Thread  thread;
+    private boolean done;
+    private Server  server;
+    private long    withinNanos;
+    private long    deadline;     /* System.nanoTime(), 0 if none */
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    FlushScheduler(Server server, int withinMicros) {
+        this.server = server;
+        withinNanos = withinMicros * 1000L;
+        deadline = 0L;
+        done = false;
+        thread = new Thread(this);
+        thread.setDaemon(true);
+    }
+
+    final void start() {
+        thread.start();
+    }
+
+    final synchronized void stop() {
+        done = true;
+        notify();
+    }
+
+    /* something that should not wait for the end of the update has
+     * been queued. */
+    final synchronized void urgent() {
+        if (deadline == 0L) {
+            deadline = System.nanoTime() + withinNanos;
+            if (deadline == 0L)
+                deadline = 1L;
+            notify();
+        }
+    }
+
+    /* everything has just been flushed. */
+    final synchronized void flushed() {
+        deadline = 0L;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /* Runnable *********************************************************/
+    public void run() {
+        long left;
+
+        while (true) {
+            synchronized (this) {
+                while (!done && deadline == 0L)
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    }
+                if (done)
+                    return;
+                left = deadline - System.nanoTime();
+                if (left > 0L) {
+                    try {
+                        wait(left / 1000000L, (int) (left % 1000000L));
+                    } catch (InterruptedException e) {
+                    }
+                    /* flushed meanwhile, or not quite there yet. */
+                    continue;
+                }
+            }
+            /* Server.flush() calls flushed(), which clears the
+             * deadline. */
+            server.flush();
+        }
+    }
+}
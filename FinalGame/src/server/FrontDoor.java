@@ -0,0 +1,196 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import no.shhsoft.net.*;
+
+import netgame.*;
+
+/*
+ * Where players connect when there are several servers to choose
+ * from. The front door runs no game. It takes the login, and sends the
+ * client on to the least loaded server, which it logs in to again.
+ *
+ * The servers connect here too, and tell how busy they are once a
+ * second, see LoadReporter. Only servers that show the secret they
+ * share with us are listened to, or without one, only those on this
+ * host, so a client can't send players elsewhere by posing as one. A server may run several arenas, and then
+ * the client is sent to an arena. Least loaded means fewest players,
+ * except that a server whose updates are running late is only picked
+ * if all are. A server that has not reported for a while is left out.
+ *
+ * Players sent somewhere are counted there until that server next
+ * reports, so a crowd logging in at once is spread out.
+ */
+public final class FrontDoor
+extends TCPGameServer {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* a server is left out if we haven't heard from it for this long. */
+    private static final long staleMillis = 3000L;
+    /* updates slower than this are late. */
+    private static final long lateMicros = 1000000L / Updater.updateFrequency;
+
+    private Hashtable games;     /* "host:port/arena" -> Game */
+    private Timer     reporter;  /* null if no reports */
+    private volatile String secret;  /* shared with the servers, or null */
+
+    private static final boolean isBetter(Game a, Game b) {
+        boolean aLate, bLate;
+
+        if (b == null)
+            return true;
+        aLate = a.tickMicros > lateMicros;
+        bLate = b.tickMicros > lateMicros;
+        if (aLate != bLate)
+            return !aLate;
+        if (a.players != b.players)
+            return a.players < b.players;
+        return a.tickMicros < b.tickMicros;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    static final class Game {
+        String host;
+        int    port;
+        String arena;  /* "" if not an arena server */
+        int    players, maxPlayers;
+        long   tickMicros;
+        long   seen;   /* System.currentTimeMillis() */
+    }
+
+    /* called by the reader thread of a server at `peer' that reports
+     * to us. returns false, ignoring the report, if it is not one of
+     * ours. */
+    final synchronized boolean report(Message m, InetAddress peer) {
+        int    q, n;
+        String host;
+        int    port;
+        long   now;
+        Game   g;
+
+        if (!SharedSecret.trusts(secret, peer, m.getString())) {
+            System.err.println("server: ignored a load report from "
+                               + peer);
+            return false;
+        }
+        host = m.getString();
+        port = m.getInt();
+        n = m.getShort();
+        now = System.currentTimeMillis();
+        for (q = 0; q < n; q++) {
+            g = new Game();
+            g.host = host;
+            g.port = port;
+            g.arena = m.getString();
+            g.players = m.getInt();
+            g.maxPlayers = m.getInt();
+            g.tickMicros = m.getInt();
+            g.seen = now;
+            games.put(host + ":" + port + "/" + g.arena, g);
+        }
+        return true;
+    }
+
+    /* picks a game for a new player, and counts the player there.
+     * with `arena' not empty, only arenas of that name will do.
+     * returns null if there is no game with room. */
+    final synchronized Game pick(String arena) {
+        long        now;
+        Enumeration e;
+        Vector      gone;
+        Object      key;
+        Game        g, best;
+        int         q;
+
+        now = System.currentTimeMillis();
+        best = null;
+        gone = new Vector();
+        e = games.keys();
+        while (e.hasMoreElements()) {
+            key = e.nextElement();
+            g = (Game) games.get(key);
+            if (now - g.seen > staleMillis) {
+                gone.addElement(key);
+                continue;
+            }
+            if (arena.length() > 0 && !g.arena.equals(arena))
+                continue;
+            if (g.maxPlayers > 0 && g.players >= g.maxPlayers)
+                continue;
+            if (isBetter(g, best))
+                best = g;
+        }
+        for (q = 0; q < gone.size(); q++)
+            games.remove(gone.elementAt(q));
+        if (best == null)
+            return null;
+        ++best.players;
+        return best;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    public FrontDoor(int port)
+    throws IOException {
+        super(port, 0);  /* only redirects, never broadcasts */
+        games = new Hashtable();
+    }
+
+    /* see Server.setServerSecret. */
+    public final void setServerSecret(String secret) {
+        this.secret = secret;
+    }
+
+    /* one line per game we know of, telling where it is and how busy
+     * it is. */
+    public final synchronized String getLoadReport() {
+        Enumeration  e;
+        Game         g;
+        StringBuffer sb;
+
+        sb = new StringBuffer();
+        e = games.elements();
+        while (e.hasMoreElements()) {
+            g = (Game) e.nextElement();
+            sb.append((new Date()).toString() + " " + g.host + ":" + g.port
+                      + (g.arena.length() > 0 ? " arena " + g.arena : "")
+                      + ": " + g.players
+                      + (g.maxPlayers > 0 ? "/" + g.maxPlayers : "")
+                      + " players, " + g.tickMicros + " us p99\n");
+        }
+        return sb.toString();
+    }
+
+    /* with `seconds' > 0, prints the load report that often. */
+    public final synchronized void setReportSeconds(int seconds) {
+        if (reporter != null) {
+            reporter.cancel();
+            reporter = null;
+        }
+        if (seconds > 0) {
+            reporter = new Timer(true);
+            reporter.scheduleAtFixedRate(new TimerTask() {
+                public void run() {
+                    System.out.print(getLoadReport());
+                }
+            }, seconds * 1000L, seconds * 1000L);
+        }
+    }
+
+    public void stop() {
+        setReportSeconds(0);
+        super.stop();
+    }
+
+    /* TCPGameServer ****************************************************/
+    public TCPGameServerClientHandler newClient(Socket sock) {
+        return new FrontDoorHandler(this, sock);
+    }
+}
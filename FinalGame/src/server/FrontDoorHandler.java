@@ -0,0 +1,107 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+
+import no.shhsoft.net.*;
+
+import netgame.*;
+import client.*;
+
+/*
+ * A connection to the front door. Either a client, which is sent on to
+ * a game when it logs in, or a server telling how busy it is.
+ */
+final class FrontDoorHandler
+extends TCPGameServerClientHandler {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private String arena;  /* asked for by the client, "" for any */
+
+    private final void sendGetLost(String msg)
+    throws IOException {
+        Message m;
+
+        m = new Message(ClientCommands.GET_LOST);
+        m.putString(msg);
+        sendMessageNoFlush(m);
+        flushOut();
+    }
+
+    private final void receiveLogin(Message m)
+    throws IOException {
+        byte           version;
+        FrontDoor.Game game;
+        Message        r;
+
+        version = m.getByte();
+        if (version != ClientHandler.protocolVersion) {
+            sendGetLost("Server says: Wrong protocol version: "
+                        + "You want #" + version
+                        + ", I talk #" + ClientHandler.protocolVersion
+                        + ".");
+            return;
+        }
+        game = ((FrontDoor) server).pick(arena);
+        if (game == null) {
+            sendGetLost("Server says: "
+                        + (arena.length() > 0
+                           ? "Arena " + arena + " is full or unknown."
+                           : "All servers are full."));
+            return;
+        }
+        /* no token, so the client logs in again over there. */
+        r = new Message(ClientCommands.REDIRECT);
+        r.putString(game.host);
+        r.putInt(game.port);
+        r.putString("");
+        r.putString(game.arena);
+        sendMessageNoFlush(r);
+        flushOut();
+    }
+
+/*-----------------------------------------------------------------------+
+ |  INHERITANTS' INTERFACE                                               |
+ +----------------------------------------------------------------------*/
+    /* the client hangs up once it has been sent on. we hang up on
+     * one posing as a server. */
+    protected final boolean readIncoming() {
+        Message m;
+
+        try {
+            m = receiveMessage();
+            switch (m.getType()) {
+              case ServerCommands.REPORT_LOAD:
+                if (!((FrontDoor) server).report(m, getPeerAddress()))
+                    return false;
+                break;
+              case ServerCommands.JOIN_ARENA:
+                arena = m.getString();
+                break;
+              case ServerCommands.LOGIN:
+                receiveLogin(m);
+                break;
+              default:
+                /* nothing else makes sense here. */
+                break;
+            }
+        } catch (IOException e) {
+            return false;
+        } catch (RuntimeException e) {
+            /* a broken message. */
+            System.err.println("server: bad command from "
+                               + getPeerName() + ": " + e);
+            return false;
+        }
+        return true;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    public FrontDoorHandler(FrontDoor door, Socket sock) {
+        super(door, sock);
+        arena = "";
+    }
+}
@@ -0,0 +1,75 @@
+package server;
+
+/*
+ * The hits found while moving a number of shots: pairs of a shot and
+ * the ship it hit, in the order they were found. Each worker thread
+ * fills its own buffer, so no locking is needed.
+ */
+final class HitBuffer {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private Projectile[]     shots;
+    private UpdatingPlayer[] players;
+    private int              n;
+
+    private final void grow() {
+        Projectile[]     newShots;
+        UpdatingPlayer[] newPlayers;
+
+        newShots = new Projectile[shots.length * 2];
+        newPlayers = new UpdatingPlayer[players.length * 2];
+        System.arraycopy(shots, 0, newShots, 0, n);
+        System.arraycopy(players, 0, newPlayers, 0, n);
+        shots = newShots;
+        players = newPlayers;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    HitBuffer() {
+        shots = new Projectile[16];
+        players = new UpdatingPlayer[16];
+        n = 0;
+    }
+
+    final void add(Projectile shot, UpdatingPlayer player) {
+        if (n == shots.length)
+            grow();
+        shots[n] = shot;
+        players[n] = player;
+        ++n;
+    }
+
+    /* appends all hits in `other', keeping their order. */
+    final void addAll(HitBuffer other) {
+        int q;
+
+        for (q = 0; q < other.n; q++)
+            add(other.shots[q], other.players[q]);
+    }
+
+    final void clear() {
+        int q;
+
+        /* don't keep dead objects around until the next update. */
+        for (q = 0; q < n; q++) {
+            shots[q] = null;
+            players[q] = null;
+        }
+        n = 0;
+    }
+
+    final int size() {
+        return n;
+    }
+
+    final Projectile getShot(int q) {
+        return shots[q];
+    }
+
+    final UpdatingPlayer getPlayer(int q) {
+        return players[q];
+    }
+}
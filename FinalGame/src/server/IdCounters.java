@@ -0,0 +1,78 @@
+package server;
+
+/*
+ * The ids a server hands out to the things in its world. Each server,
+ * such as each arena of an ArenaServer, has its own, so that arenas
+ * updating at the same time neither give out the same id twice nor
+ * use up each other's ids. Ids are handed out by the update threads
+ * and the region links alike, so every call takes the lock.
+ */
+final class IdCounters {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private short nextPlayer, playerStep;
+    private short nextPhaser;
+    private short nextBomb;
+    private short nextExplosion;
+    private short nextPack;
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    IdCounters() {
+        nextPlayer = 0;
+        playerStep = 1;
+        nextPhaser = 0;
+        nextBomb = 0;
+        nextExplosion = 0;
+        nextPack = 0;
+    }
+
+    final synchronized short nextPlayer() {
+        short ret;
+
+        ret = nextPlayer;
+        nextPlayer += playerStep;
+        return ret;
+    }
+
+    /* the id the next player will get. */
+    final synchronized short peekPlayer() {
+        return nextPlayer;
+    }
+
+    /* makes the player ids start at `first' and go up by `step', so
+     * that several servers sharing a world hand out different ones. */
+    final synchronized void setPlayerSpacing(short first, short step) {
+        nextPlayer = first;
+        playerStep = step;
+    }
+
+    final synchronized short nextPhaser() {
+        return nextPhaser++;
+    }
+
+    final synchronized short nextBomb() {
+        return nextBomb++;
+    }
+
+    final synchronized short nextExplosion() {
+        return nextExplosion++;
+    }
+
+    final synchronized short nextBombPack() {
+        return nextPack++;
+    }
+
+    /* the id the next bomb pack will get. */
+    final synchronized short peekBombPack() {
+        return nextPack;
+    }
+
+    /* carries on from where the server we take over from was. */
+    final synchronized void restore(short player, short pack) {
+        nextPlayer = player;
+        nextPack = pack;
+    }
+}
@@ -0,0 +1,195 @@
+package server;
+
+import no.shhsoft.net.*;
+
+import netgame.*;
+import client.*;
+
+/*
+ * The messages that tell a joining player what the world looks like,
+ * encoded once and handed to everyone joining while they still hold.
+ * The q'th message of a part is about the q'th object of its section.
+ *
+ * The messages are made per snapshot section. Sections that have not
+ * changed are shared between snapshots, so the messages made for a
+ * section are good for as long as the section is in use: for all the
+ * players joining in the same update, and longer if nothing happens.
+ *
+ * The messages are shared by all the clients they are sent to, and
+ * must never be changed. Only used by the updater daemon.
+ */
+final class JoinCache {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final int[] lanes = {
+        Lane.RELIABLE, Lane.RELIABLE, Lane.RELIABLE,
+        Lane.RELIABLE, Lane.RELIABLE, Lane.BULK
+    };
+
+    private WorldSnapshot.Section[] sections;  /* encoded from */
+    private Message[][]             parts;
+    private boolean                 wide;      /* four byte coordinates */
+
+    private final Message[] encodeExplosions(WorldSnapshot.Section s) {
+        int       q;
+        Message[] a;
+        Message   m;
+
+        a = new Message[s.size()];
+        for (q = 0; q < a.length; q++) {
+            m = new Message(ClientCommands.NEW_EXPLOSION);
+            m.putShort(s.getId(q));
+            Coordinates.put(m, s.getX(q), wide);
+            Coordinates.put(m, s.getY(q), wide);
+            m.putByte(s.getLevel(q));
+            m.putByte(s.getMaxLevel(q));
+            a[q] = m;
+        }
+        return a;
+    }
+
+    /* phasers and bombs look the same on the wire. */
+    private final Message[] encodeShots(WorldSnapshot.Section s,
+                                        byte command) {
+        int       q;
+        Message[] a;
+        Message   m;
+
+        a = new Message[s.size()];
+        for (q = 0; q < a.length; q++) {
+            m = new Message(command);
+            m.putShort(s.getId(q));
+            m.putShort(s.getOwner(q));
+            Coordinates.put(m, s.getX(q), wide);
+            Coordinates.put(m, s.getY(q), wide);
+            m.putShort(s.getDirection(q));
+            m.putInt(s.getColor(q));
+            a[q] = m;
+        }
+        return a;
+    }
+
+    private final Message[] encodeBombPacks(WorldSnapshot.Section s) {
+        int       q;
+        Message[] a;
+        Message   m;
+
+        a = new Message[s.size()];
+        for (q = 0; q < a.length; q++) {
+            m = new Message(ClientCommands.NEW_BOMB_PACK);
+            m.putShort(s.getId(q));
+            Coordinates.put(m, s.getX(q), wide);
+            Coordinates.put(m, s.getY(q), wide);
+            m.putShort(s.getDirection(q));
+            m.putInt(s.getColor(q));
+            a[q] = m;
+        }
+        return a;
+    }
+
+    private final Message[] encodePlayers(WorldSnapshot.Section s) {
+        int       q;
+        Message[] a;
+        Message   m;
+
+        a = new Message[s.size()];
+        for (q = 0; q < a.length; q++) {
+            m = new Message(ClientCommands.NEW_PLAYER);
+            m.putShort(s.getId(q));
+            m.putString(s.getName(q));
+            Coordinates.put(m, s.getX(q), wide);
+            Coordinates.put(m, s.getY(q), wide);
+            m.putShort(s.getDirection(q));
+            m.putInt(s.getColor(q));
+            m.putBoolean(s.isAlive(q));
+            a[q] = m;
+        }
+        return a;
+    }
+
+    private final Message[] encodeScores(WorldSnapshot.Section s) {
+        int       q;
+        Message[] a;
+        Message   m;
+
+        a = new Message[s.size()];
+        for (q = 0; q < a.length; q++) {
+            m = new Message(ClientCommands.SET_PLAYER_SCORE);
+            m.putShort(s.getId(q));
+            m.putShort(s.getScore(q));
+            m.putShort(s.getAntiScore(q));
+            a[q] = m;
+        }
+        return a;
+    }
+
+    private final Message[] encode(WorldSnapshot.Section s, int part) {
+        switch (part) {
+          case EXPLOSIONS:
+            return encodeExplosions(s);
+          case PHASERS:
+            return encodeShots(s, ClientCommands.NEW_PHASER);
+          case BOMBS:
+            return encodeShots(s, ClientCommands.NEW_BOMB);
+          case BOMB_PACKS:
+            return encodeBombPacks(s);
+          case PLAYERS:
+            return encodePlayers(s);
+          default:
+            return encodeScores(s);
+        }
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* the parts of the world. */
+    static final int EXPLOSIONS = 0;
+    static final int PHASERS    = 1;
+    static final int BOMBS      = 2;
+    static final int BOMB_PACKS = 3;
+    static final int PLAYERS    = 4;
+    static final int SCORES     = 5;
+    static final int PARTS      = 6;
+
+    JoinCache(boolean wide) {
+        this.wide = wide;
+        sections = new WorldSnapshot.Section[PARTS];
+        parts = new Message[PARTS][];
+    }
+
+    /* the section a part is made from. */
+    static final WorldSnapshot.Section getSection(WorldSnapshot snap,
+                                                  int part) {
+        switch (part) {
+          case EXPLOSIONS:
+            return snap.getExplosions();
+          case PHASERS:
+            return snap.getPhasers();
+          case BOMBS:
+            return snap.getBombs();
+          case BOMB_PACKS:
+            return snap.getBombPacks();
+          default:
+            return snap.getPlayers();
+        }
+    }
+
+    /* the Lane to send a part on. */
+    static final int getLane(int part) {
+        return lanes[part];
+    }
+
+    /* the messages of one part of the world as it is in `snap'. */
+    final Message[] getPart(WorldSnapshot snap, int part) {
+        WorldSnapshot.Section s;
+
+        s = getSection(snap, part);
+        if (sections[part] != s) {
+            parts[part] = encode(s, part);
+            sections[part] = s;
+        }
+        return parts[part];
+    }
+}
@@ -0,0 +1,166 @@
+package server;
+
+import java.util.*;
+
+import no.shhsoft.net.*;
+
+/*
+ * Sends the world to a joining player a bit at a time, nearest first,
+ * instead of everything at once.
+ *
+ * The client is subscribed to the broadcasts before the stream starts,
+ * so anything that happens from then on reaches it the usual way. What
+ * is left to stream is what was in the world when the player joined.
+ * Each update, the objects still left are sent from the newest
+ * snapshot, so they arrive as they are now, ordered by how many views
+ * away from the player they are: what is on screen first, then ring by
+ * ring outward, until this update's budget is used up. Objects that are
+ * gone by the time their turn comes are skipped, their removal has
+ * already been broadcast. Updates the client gets about objects it has
+ * not been told of yet are ignored by it.
+ *
+ * In large worlds, shots and explosions too far away to ever be seen
+ * are not sent at all, the same way their broadcasts are not.
+ *
+ * The client is told when everything on screen has been sent, so it
+ * may start drawing while the rest is still on its way.
+ */
+final class JoinStream {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* the order of the parts within a ring. the scores go with the
+     * players. */
+    private static final int[] order = {
+        JoinCache.PLAYERS, JoinCache.BOMBS, JoinCache.PHASERS,
+        JoinCache.EXPLOSIONS, JoinCache.BOMB_PACKS
+    };
+
+    private static final Comparator nearestFirst = new Comparator() {
+        public int compare(Object a, Object b) {
+            Item ia, ib;
+
+            ia = (Item) a;
+            ib = (Item) b;
+            if (ia.ring != ib.ring)
+                return ia.ring - ib.ring;
+            return ia.rank - ib.rank;
+        }
+    };
+
+    private static final class Item {
+        int   rank;   /* index in `order' */
+        short id;
+        int   q;      /* index in the section, this update */
+        int   ring;   /* whole views away, this update */
+    }
+
+    /* the objects left to send, nearest first as of the last update.
+     * they are kept from update to update, so only their places in
+     * the newest snapshot and their distances need to be found again. */
+    private Item[]                  items;
+    private int                     left;
+    private boolean                 nearDone;
+    private WorldSnapshot.Section[] sections;  /* per rank, this update */
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* `snap' is the world as the player found it. */
+    JoinStream(WorldSnapshot snap) {
+        int                   q, r, n;
+        WorldSnapshot.Section s;
+        Item                  item;
+
+        n = 0;
+        for (r = 0; r < order.length; r++)
+            n += JoinCache.getSection(snap, order[r]).size();
+        items = new Item[n];
+        left = 0;
+        for (r = 0; r < order.length; r++) {
+            s = JoinCache.getSection(snap, order[r]);
+            for (q = 0; q < s.size(); q++) {
+                item = new Item();
+                item.rank = r;
+                item.id = s.getId(q);
+                items[left++] = item;
+            }
+        }
+        sections = new WorldSnapshot.Section[order.length];
+        nearDone = false;
+    }
+
+    /* called by the updater daemon once per update. sends what is
+     * left, nearest to `viewer' first, until `budget' bytes are sent.
+     * at least one object is sent each time. */
+    final void stream(WorldSnapshot snap, JoinCache cache,
+                      UpdatingPlayer viewer, int budget, ClientHandler out) {
+        int                   q, r, k, n, part, used;
+        double                dist;
+        boolean               large;
+        WorldSnapshot.Section s;
+        Item                  item;
+        Message[]             msgs;
+
+        large = TileIndex.isWorthIt(snap.getWidth(), snap.getHeight());
+        for (r = 0; r < order.length; r++)
+            sections[r] = JoinCache.getSection(snap, order[r]);
+
+        /* where the objects left are now. forget those that are gone,
+         * or too far away. */
+        n = 0;
+        for (k = 0; k < left; k++) {
+            item = items[k];
+            s = sections[item.rank];
+            if ((q = s.indexOf(item.id)) < 0)
+                continue;
+            dist = viewer.getViewDistance(s.getX(q), s.getY(q));
+            part = order[item.rank];
+            if (large && dist > Nearby.NEW_VIEWS
+                && (part == JoinCache.PHASERS || part == JoinCache.BOMBS
+                    || part == JoinCache.EXPLOSIONS))
+                continue;
+            item.q = q;
+            item.ring = (int) dist;
+            items[n++] = item;
+        }
+        for (k = n; k < left; k++)
+            items[k] = null;
+        left = n;
+
+        /* the order rarely changes much from one update to the next,
+         * and the sort makes short work of an almost sorted array. */
+        Arrays.sort(items, 0, left, nearestFirst);
+        used = 0;
+        for (n = 0; n < left && (used == 0 || used < budget); n++) {
+            item = items[n];
+            part = order[item.rank];
+            msgs = cache.getPart(snap, part);
+            used += out.sendJoinMessage(msgs[item.q], JoinCache.getLane(part));
+            if (part == JoinCache.PLAYERS) {
+                msgs = cache.getPart(snap, JoinCache.SCORES);
+                used += out.sendJoinMessage(msgs[item.q],
+                                            JoinCache.getLane(JoinCache.SCORES));
+            }
+        }
+        if (n == left || items[n].ring > 0)
+            nearDone = true;
+
+        /* what was sent goes. */
+        System.arraycopy(items, n, items, 0, left - n);
+        for (k = left - n; k < left; k++)
+            items[k] = null;
+        left -= n;
+        for (r = 0; r < order.length; r++)
+            sections[r] = null;
+    }
+
+    /* true once everything that was on screen has been sent. */
+    final boolean isNearDone() {
+        return nearDone;
+    }
+
+    final boolean isDone() {
+        return left == 0;
+    }
+}
@@ -0,0 +1,116 @@
+package server;
+
+/*
+ * What we know about the connection to one client: the round trip time
+ * and its jitter, measured by pinging the client, and how fast the
+ * client takes what we write.
+ *
+ * The round trip time and the jitter are smoothed the way TCP does it,
+ * so a single slow ping does not count for much. A link counts as
+ * congested when what we write piles up, or when the round trip time
+ * grows well above the best one seen, which is what queueing on a slow
+ * link looks like from here.
+ */
+final class LinkStats {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* how much more than the best round trip time we accept before
+     * calling the link congested, in microseconds. */
+    private static final int maxQueueingMicros = 150000;
+
+    private int    srtt;         /* smoothed round trip, microseconds */
+    private int    jitter;       /* smoothed deviation of the same */
+    private int    minRtt;       /* best seen, 0 if none yet */
+    private int    lastRtt;
+    private int    pings, pongs;
+    private double throughput;   /* bytes per second */
+    private double busy;         /* share of the time spent writing */
+    private int    backlog;      /* bytes waiting at the last sample */
+    private long   lastWritten, lastWriteNanos, lastSample;
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    LinkStats() {
+        lastSample = System.nanoTime();
+    }
+
+    /* a stamp to put in a ping. wraps around, which is fine as long as
+     * the pong arrives within half an hour. */
+    static final int getStamp() {
+        return (int) (System.nanoTime() / 1000L);
+    }
+
+    final synchronized void pinged() {
+        ++pings;
+    }
+
+    /* called by the reader thread when the client answers the ping
+     * carrying `stamp'. */
+    final synchronized void ponged(int stamp) {
+        int rtt, delta;
+
+        rtt = getStamp() - stamp;
+        if (rtt < 0)
+            return;
+        ++pongs;
+        lastRtt = rtt;
+        if (minRtt == 0 || rtt < minRtt)
+            minRtt = rtt;
+        if (pongs == 1) {
+            srtt = rtt;
+            jitter = rtt / 2;
+        } else {
+            delta = rtt - srtt;
+            if (delta < 0)
+                delta = -delta;
+            jitter += (delta - jitter) / 4;
+            srtt += (rtt - srtt) / 8;
+        }
+    }
+
+    /* called by the updater daemon about once a second, with the
+     * totals from the writer. */
+    final synchronized void sample(long written, long writeNanos,
+                                   int backlog) {
+        long   now;
+        double secs;
+
+        now = System.nanoTime();
+        secs = (now - lastSample) / 1e9;
+        if (secs <= 0.0)
+            return;
+        throughput = (written - lastWritten) / secs;
+        busy = (writeNanos - lastWriteNanos) / 1e9 / secs;
+        this.backlog = backlog;
+        lastWritten = written;
+        lastWriteNanos = writeNanos;
+        lastSample = now;
+    }
+
+    /* true if the client gets more than the link can take. */
+    final synchronized boolean isCongested(int bytesPerUpdate) {
+        if (backlog > 2 * bytesPerUpdate && backlog > 1024)
+            return true;
+        if (busy > 0.5)
+            return true;
+        return pongs > 0 && srtt - minRtt > maxQueueingMicros;
+    }
+
+    final synchronized int getThroughput() {
+        return (int) throughput;
+    }
+
+    /* a line for the operator. */
+    final synchronized String describe() {
+        return "rtt " + (srtt / 1000) + " ms"
+               + " (min " + (minRtt / 1000)
+               + ", last " + (lastRtt / 1000)
+               + ", jitter " + (jitter / 1000) + ")"
+               + ", pongs " + pongs + "/" + pings
+               + ", " + (int) (throughput / 1024) + " kB/s"
+               + ", writing " + (int) (busy * 100) + "%"
+               + ", " + backlog + " bytes waiting";
+    }
+}
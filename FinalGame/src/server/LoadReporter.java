@@ -0,0 +1,125 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import no.shhsoft.net.*;
+
+/*
+ * Tells a front door how busy a server is, once a second, for as long
+ * as the server runs. If the front door is not there, or goes away, we
+ * keep trying. See FrontDoor.
+ *
+ * The front door sends new players to the host and port we give. If no
+ * host is given, it is the address we reach the front door from, which
+ * is right as long as the clients are on the same network. Each report
+ * shows the secret the servers share, so that the front door knows
+ * it is from one of them, see SharedSecret.
+ */
+final class LoadReporter
+implements Runnable {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final long reportMillis = 1000L;
+
+    private LoadSource       source;
+    private String           doorHost;
+    private int              doorPort;
+    private String           secret;
+    private String           publicHost;  /* null to use our address */
+    private int              publicPort;
+    private Thread           thread;
+    private volatile boolean done;
+    private Socket           sock;
+    private DataOutputStream out;
+
+    private final void connect()
+    throws IOException {
+        sock = new Socket(doorHost, doorPort);
+        sock.setTcpNoDelay(true);
+        out = new DataOutputStream(
+                  new BufferedOutputStream(sock.getOutputStream()));
+        System.out.println((new Date()).toString()
+                           + " reporting load to " + doorHost + ":"
+                           + doorPort);
+    }
+
+    private final void disconnect() {
+        try {
+            if (sock != null)
+                sock.close();
+        } catch (IOException e) {
+        }
+        sock = null;
+        out = null;
+    }
+
+    private final void report()
+    throws IOException {
+        Message m;
+        byte[]  buff;
+
+        m = new Message(ServerCommands.REPORT_LOAD);
+        m.putString(secret);
+        m.putString(publicHost != null
+                    ? publicHost
+                    : sock.getLocalAddress().getHostAddress());
+        m.putInt(publicPort);
+        source.putLoad(m);
+        buff = m.getBuffer();
+        out.writeShort(buff.length);
+        out.write(buff);
+        out.flush();
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* reports the load of `source' to the front door at `doorHost' and
+     * `doorPort', showing `secret', which may be null. clients are to
+     * connect to `publicHost' and `publicPort'. */
+    LoadReporter(LoadSource source, String doorHost, int doorPort,
+                 String secret, String publicHost, int publicPort) {
+        this.source = source;
+        this.doorHost = doorHost;
+        this.doorPort = doorPort;
+        this.secret = SharedSecret.toShow(secret);
+        this.publicHost = publicHost;
+        this.publicPort = publicPort;
+        done = false;
+        thread = new Thread(this);
+        thread.setDaemon(true);
+    }
+
+    final void start() {
+        thread.start();
+    }
+
+    final void stop() {
+        done = true;
+        thread.interrupt();
+    }
+
+    /* Runnable *********************************************************/
+    public void run() {
+        while (!done) {
+            try {
+                if (sock == null)
+                    connect();
+                report();
+            } catch (IOException e) {
+                if (sock != null)
+                    System.err.println("server: lost front door: "
+                                       + e.getMessage());
+                disconnect();
+            }
+            try {
+                Thread.sleep(reportMillis);
+            } catch (InterruptedException e) {
+            }
+        }
+        disconnect();
+    }
+}
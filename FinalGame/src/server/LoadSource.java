@@ -0,0 +1,16 @@
+package server;
+
+import no.shhsoft.net.*;
+
+/*
+ * A server that tells a front door how busy it is. See LoadReporter.
+ */
+interface LoadSource {
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* adds the number of games we run to `m', followed by the arena
+     * name ("" if none), players, room for players (0 for no limit)
+     * and the 99th percentile update time in microseconds of each. */
+    void putLoad(Message m);
+}
@@ -0,0 +1,90 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+
+import no.shhsoft.net.*;
+
+/*
+ * Moving the players of a server that is going down to another one,
+ * see Server.drain. The state of each player is sent ahead to the
+ * other server, over a connection of its own, under a token. The
+ * client is then told to connect there and show the token, just like
+ * a player crossing into another region. The other server only takes
+ * the states if we show the secret it shares with us, see
+ * Server.setServerSecret.
+ */
+final class Migration {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private String           host;
+    private int              port;
+    private Socket           sock;
+    private DataOutputStream out;
+    private String           secret;
+    private int              moved;
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* connects to the server at `host' and `port', which is where the
+     * clients will connect too. `secret' may be null if that server
+     * is on this host, and has none. */
+    Migration(String host, int port, String secret)
+    throws IOException {
+        this.host = host;
+        this.port = port;
+        this.secret = SharedSecret.toShow(secret);
+        sock = new Socket(host, port);
+        sock.setTcpNoDelay(true);
+        out = new DataOutputStream(
+                  new BufferedOutputStream(sock.getOutputStream()));
+        moved = 0;
+    }
+
+    final String getHost() {
+        return host;
+    }
+
+    final int getPort() {
+        return port;
+    }
+
+    /* how many players have been sent. */
+    final int getMoved() {
+        return moved;
+    }
+
+    /* sends `state' ahead. returns the token the client is to show. */
+    final String send(PlayerState state)
+    throws IOException {
+        Message m;
+        byte[]  buff;
+        String  token;
+
+        token = Arrivals.newToken();
+        m = new Message(ServerCommands.MIGRATE);
+        m.putByte(ClientHandler.protocolVersion);
+        m.putString(secret);
+        m.putString(token);
+        state.put(m);
+        buff = m.getBuffer();
+        out.writeShort(buff.length);
+        out.write(buff);
+        ++moved;
+        return token;
+    }
+
+    final void flush()
+    throws IOException {
+        out.flush();
+    }
+
+    final void close() {
+        try {
+            sock.close();
+        } catch (IOException e) {
+        }
+    }
+}
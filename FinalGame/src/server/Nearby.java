@@ -0,0 +1,27 @@
+package server;
+
+/*
+ * A tag for broadcasts that only players close to where something
+ * happens care about. Used in large worlds only, for the shots and
+ * explosions nobody far away will ever see.
+ */
+final class Nearby {
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* a shot can't get from beyond this many views into view before it
+     * is gone. */
+    static final double NEW_VIEWS = 4.0;
+    /* removals reach further, so that players who moved away while the
+     * shot flew still get them. */
+    static final double REMOVE_VIEWS = 8.0;
+
+    final int    x, y;
+    final double views;
+
+    Nearby(int x, int y, double views) {
+        this.x = x;
+        this.y = y;
+        this.views = views;
+    }
+}
@@ -0,0 +1,110 @@
+package server;
+
+import java.awt.*;
+
+import no.shhsoft.net.*;
+
+import objects.*;
+
+/*
+ * Everything about a player that must survive its moving to another
+ * server: who it is, how it is doing, and where it is going. The id is
+ * not sent along, since ids are handed out by each server, except to a
+ * standby taking over, which keeps them.
+ */
+final class PlayerState {
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    String  name;
+    int     color;
+    int     score, antiScore;
+    int     damage, phaserHeat, bombsLeft;
+    boolean alive;
+    int     x, y;
+    double  direction;
+    double  driftX, driftY;
+    short   id = -1;  /* to keep, or -1 to get a new one */
+
+    /* the state of `p' as it is now. */
+    PlayerState(UpdatingPlayer p) {
+        Point loc;
+
+        name = p.getName();
+        color = p.getShip().getColor().getRGB();
+        score = p.getScore();
+        antiScore = p.getAntiScore();
+        damage = p.getDamage();
+        phaserHeat = p.getPhaserHeat();
+        bombsLeft = p.getBombsLeft();
+        alive = p.isAlive();
+        loc = p.getLocation();
+        x = loc.x;
+        y = loc.y;
+        direction = p.getDirection();
+        driftX = p.getDriftX();
+        driftY = p.getDriftY();
+    }
+
+    /* a state as put in `m' by put(). */
+    PlayerState(Message m) {
+        name = m.getString();
+        color = m.getInt();
+        score = m.getInt();
+        antiScore = m.getInt();
+        damage = m.getInt();
+        phaserHeat = m.getInt();
+        bombsLeft = m.getInt();
+        alive = m.getBoolean();
+        x = m.getInt();
+        y = m.getInt();
+        direction = m.getDouble();
+        driftX = m.getDouble();
+        driftY = m.getDouble();
+    }
+
+    final void put(Message m) {
+        m.putString(name);
+        m.putInt(color);
+        m.putInt(score);
+        m.putInt(antiScore);
+        m.putInt(damage);
+        m.putInt(phaserHeat);
+        m.putInt(bombsLeft);
+        m.putBoolean(alive);
+        m.putInt(x);
+        m.putInt(y);
+        m.putDouble(direction);
+        m.putDouble(driftX);
+        m.putDouble(driftY);
+    }
+
+    /* true if only the motion, if anything, differs from `s'. */
+    final boolean sameStatus(PlayerState s) {
+        return name.equals(s.name) && color == s.color
+               && score == s.score && antiScore == s.antiScore
+               && damage == s.damage && phaserHeat == s.phaserHeat
+               && bombsLeft == s.bombsLeft && alive == s.alive;
+    }
+
+    final boolean sameMotion(PlayerState s) {
+        return x == s.x && y == s.y && direction == s.direction
+               && driftX == s.driftX && driftY == s.driftY;
+    }
+
+    /* makes `p' the player this state was taken from, apart from the
+     * id. */
+    final void applyTo(UpdatingPlayer p) {
+        p.setName(name);
+        p.getShip().setColor(new Color(color));
+        p.setScore(score);
+        p.setAntiScore(antiScore);
+        p.setDamage(damage);
+        p.setPhaserHeat(phaserHeat);
+        p.setBombsLeft(bombsLeft);
+        p.setAlive(alive);
+        p.setLocation(x, y);
+        p.setDirection(direction);
+        p.setDrift(driftX, driftY);
+    }
+}
@@ -0,0 +1,20 @@
+package server;
+
+/*
+ * A shot that may hit ships on its way. The updater moves all shots
+ * first, possibly several of them at the same time, and then applies
+ * the hits one by one, in a fixed order.
+ */
+interface Projectile {
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* moves the shot one update, adding the ships it hits to `hits'.
+     * must not change anything but the shot itself. */
+    void move(HitBuffer hits);
+
+    /* applies a hit found by move(), unless an earlier shot has
+     * killed the ship since. the shot only goes away if the hit is
+     * applied. */
+    void hit(UpdatingPlayer player);
+}
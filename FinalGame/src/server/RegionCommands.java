@@ -0,0 +1,19 @@
+package server;
+
+/*
+ * What the server processes of neighbouring regions tell each other.
+ * See Regions.
+ */
+final class RegionCommands {
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    static final byte HELLO        = 0;  /* region, shared secret */
+    static final byte GHOST        = 1;  /* a player close to the border */
+    static final byte REMOVE_GHOST = 2;
+    static final byte PHASER       = 3;  /* crossing the border */
+    static final byte BOMB         = 4;
+    static final byte PLAYER       = 5;  /* crossing, client follows */
+    static final byte HIT          = 6;  /* a ghost was hit */
+    static final byte KILL         = 7;  /* a ghost killed somebody */
+}
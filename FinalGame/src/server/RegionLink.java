@@ -0,0 +1,144 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import no.shhsoft.net.*;
+
+import netgame.*;
+
+/*
+ * The connection to the server process of a neighbouring region. What
+ * arrives is queued by a thread of its own, and applied by the updater
+ * daemon at the start of the next update, like the commands from the
+ * clients. What we send is written by the updater, and flushed once
+ * per update.
+ */
+final class RegionLink
+extends TCPCommunicator
+implements Runnable {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private Thread                thread;
+    private volatile boolean      up;
+    private int                   region;
+    private ConcurrentLinkedQueue incoming;
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* `region' is the one at the other end of `sock'. */
+    RegionLink(Socket sock, int region) {
+        setupSocketToUse(sock);
+        this.region = region;
+        incoming = new ConcurrentLinkedQueue();
+        up = isConnected();
+        thread = new Thread(this);
+        thread.setDaemon(true);
+    }
+
+    /* reads the first message on a new connection, which tells what
+     * region the other end is. everything a region sends is believed,
+     * so it must show the secret the servers share, or without one, be
+     * on this host. see SharedSecret. */
+    static final int readHello(Socket sock, String secret)
+    throws IOException {
+        DataInputStream in;
+        Message         m;
+        byte[]          buff;
+        int             region;
+
+        in = new DataInputStream(sock.getInputStream());
+        buff = new byte[in.readShort()];
+        in.readFully(buff);
+        m = new Message();
+        m.setBuffer(buff);
+        if (m.getType() != RegionCommands.HELLO)
+            throw new IOException("not a region");
+        region = m.getInt();
+        if (!SharedSecret.trusts(secret, sock.getInetAddress(),
+                                 m.getString()))
+            throw new IOException("not one of our regions: "
+                                  + sock.getInetAddress());
+        return region;
+    }
+
+    /* tells the other end of a new connection that it is `region',
+     * showing `secret', which may be null. */
+    static final void writeHello(Socket sock, int region, String secret)
+    throws IOException {
+        DataOutputStream out;
+        Message          m;
+        byte[]           buff;
+
+        m = new Message(RegionCommands.HELLO);
+        m.putInt(region);
+        m.putString(SharedSecret.toShow(secret));
+        buff = m.getBuffer();
+        out = new DataOutputStream(sock.getOutputStream());
+        out.writeShort(buff.length);
+        out.write(buff);
+        out.flush();
+    }
+
+    final void start() {
+        thread.start();
+    }
+
+    final void stop() {
+        up = false;
+        close();
+    }
+
+    final int getRegion() {
+        return region;
+    }
+
+    final boolean isUp() {
+        return up;
+    }
+
+    /* the next message received, or null if none. */
+    final Message poll() {
+        return (Message) incoming.poll();
+    }
+
+    /* only called by the updater daemon. */
+    final void send(Message m) {
+        if (!up)
+            return;
+        try {
+            sendMessageNoFlush(m);
+        } catch (IOException e) {
+            System.err.println("server: lost region " + region + ": "
+                               + e.getMessage());
+            up = false;
+        }
+    }
+
+    final void flush() {
+        if (!up)
+            return;
+        try {
+            flushOut();
+        } catch (IOException e) {
+            up = false;
+        }
+    }
+
+    /* Runnable *********************************************************/
+    public void run() {
+        try {
+            while (up)
+                incoming.add(receiveMessage());
+        } catch (IOException e) {
+            if (up)
+                System.err.println("server: lost region " + region + ": "
+                                   + e.getMessage());
+        }
+        up = false;
+        close();
+    }
+}
@@ -0,0 +1,100 @@
+package server;
+
+import java.util.*;
+
+/*
+ * How a world is split between several server processes: into
+ * regions, each a strip of the world from top to bottom, one per
+ * process, left to right in the order they are listed. All processes
+ * are given the same list and world size, and their own place in the
+ * list.
+ *
+ * Each entry is the host and port the clients connect to. The regions
+ * talk to each other on the port after that, which each listens on at
+ * its own host only, so that must be an address of the machine.
+ */
+final class RegionMap {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private String[] hosts;
+    private int[]    ports;
+    private int      index;
+    private int      worldWidth;
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* `list' is like "localhost:9998,localhost:9990", and `index' is
+     * our place in it, from 0. */
+    RegionMap(String list, int index, int worldWidth) {
+        int             q, colon;
+        StringTokenizer st;
+        String          s;
+
+        st = new StringTokenizer(list, ",");
+        hosts = new String[st.countTokens()];
+        ports = new int[hosts.length];
+        for (q = 0; q < hosts.length; q++) {
+            s = st.nextToken().trim();
+            colon = s.lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("region `" + s
+                                                   + "' has no port");
+            hosts[q] = s.substring(0, colon);
+            ports[q] = Integer.parseInt(s.substring(colon + 1));
+        }
+        if (index < 0 || index >= hosts.length)
+            throw new IllegalArgumentException("no region " + index);
+        this.index = index;
+        this.worldWidth = worldWidth;
+    }
+
+    final int getCount() {
+        return hosts.length;
+    }
+
+    final int getIndex() {
+        return index;
+    }
+
+    final String getHost(int region) {
+        return hosts[region];
+    }
+
+    final int getPort(int region) {
+        return ports[region];
+    }
+
+    /* where the regions talk to each other. */
+    final int getLinkPort(int region) {
+        return ports[region] + 1;
+    }
+
+    /* where region `region' starts. */
+    final int getLeft(int region) {
+        return (int) ((long) worldWidth * region / hosts.length);
+    }
+
+    /* where the next region starts. */
+    final int getRight(int region) {
+        return getLeft(region + 1);
+    }
+
+    /* the region that has `x'. */
+    final int getRegionOf(int x) {
+        int ret;
+
+        ret = (int) ((long) x * hosts.length / worldWidth);
+        if (ret < 0)
+            return 0;
+        if (ret >= hosts.length)
+            return hosts.length - 1;
+        /* rounding may put us one off near the edges. */
+        if (x < getLeft(ret))
+            return ret - 1;
+        if (x >= getRight(ret))
+            return ret + 1;
+        return ret;
+    }
+}
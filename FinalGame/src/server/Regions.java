@@ -0,0 +1,552 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.awt.*;
+import java.util.*;
+
+import no.shhsoft.net.*;
+
+import objects.*;
+
+/*
+ * Our part in a world split between several server processes, see
+ * RegionMap. We simulate what is in our strip of the world, and talk to
+ * the processes of the strips next to ours over TCP.
+ *
+ * Players close to a border are shown to the neighbour as ghosts:
+ * copies it keeps in its world, so its clients see them and its shots
+ * can hit them. Ghosts don't move by themselves, but where we say they
+ * are. A hit on a ghost is sent back here and applied to the real
+ * player, and a kill by a ghost is credited to the real one.
+ *
+ * Shots crossing a border are handed to the neighbour, which carries
+ * on moving them, and so are players. A player's state is sent ahead
+ * to the neighbour, and the client is told to connect there with a
+ * token that gets it the state back. Until the neighbour is up, we
+ * just keep simulating what crosses.
+ *
+ * Player ids are spaced by region, so a ghost can have the same id in
+ * both worlds.
+ *
+ * What a neighbour says is believed, players and hits alike, so the
+ * regions only listen on the host they are listed with, and only take
+ * a connection that shows the secret the servers share, see
+ * SharedSecret.
+ */
+final class Regions
+implements Runnable {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* players this close to a border are ghosts on the other side. far
+     * enough that any shot that can reach them can see them. */
+    private static final int ghostMargin = 1000;
+    /* how far into the neighbour a player must be before it is handed
+     * over, so one flying along a border doesn't go back and forth. */
+    private static final int handOffSlack = 32;
+
+    private Server       server;
+    private World        world;
+    private RegionMap    map;
+    private Arrivals     arrivals;
+    private String       secret;     /* may be null */
+    private ServerSocket sock;
+    private Thread       acceptor, connector;
+    private volatile boolean done;
+    private RegionLink[] links;      /* by region, null if none */
+    private int          left, right;
+    private Hashtable    ghosts;     /* Short id -> UpdatingPlayer */
+    private Hashtable    ghostLinks; /* Short id -> RegionLink */
+    private Hashtable    shown;      /* Short id -> RegionLink */
+
+    private final synchronized RegionLink getLink(int region) {
+        RegionLink link;
+
+        if (region < 0 || region >= links.length)
+            return null;
+        link = links[region];
+        return link != null && link.isUp() ? link : null;
+    }
+
+    private final synchronized void setLink(RegionLink link) {
+        if (links[link.getRegion()] != null)
+            links[link.getRegion()].stop();
+        links[link.getRegion()] = link;
+        link.start();
+        System.out.println((new Date()).toString() + " linked to region "
+                           + link.getRegion());
+    }
+
+    /* keeps trying to connect to the region on our right, for as long
+     * as we run. the one on our left connects to us. */
+    private final void connectRight() {
+        int    next;
+        Socket s;
+
+        next = map.getIndex() + 1;
+        while (!done) {
+            if (getLink(next) == null) {
+                try {
+                    s = new Socket(map.getHost(next), map.getLinkPort(next));
+                    RegionLink.writeHello(s, map.getIndex(), secret);
+                    setLink(new RegionLink(s, next));
+                } catch (IOException e) {
+                    /* not up yet. */
+                }
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    private final void removeGhost(Short id) {
+        UpdatingPlayer ghost;
+
+        ghost = (UpdatingPlayer) ghosts.remove(id);
+        ghostLinks.remove(id);
+        if (ghost != null) {
+            world.removePlayer(ghost);
+            server.sendRemovePlayer(ghost);
+        }
+    }
+
+    private final void receiveGhost(Message m, RegionLink link) {
+        short          id;
+        String         name;
+        int            x, y, score, antiScore;
+        short          dir;
+        Color          col;
+        boolean        alive;
+        UpdatingPlayer ghost;
+
+        id = m.getShort();
+        name = m.getString();
+        x = m.getInt();
+        y = m.getInt();
+        dir = m.getShort();
+        col = new Color(m.getInt());
+        alive = m.getBoolean();
+        score = m.getInt();
+        antiScore = m.getInt();
+
+        ghost = (UpdatingPlayer) ghosts.get(Short.valueOf(id));
+        if (ghost != null && ghost.isAlive() != alive) {
+            /* simplest way to tell the clients. */
+            removeGhost(Short.valueOf(id));
+            ghost = null;
+        }
+        if (ghost == null) {
+            ghost = new UpdatingPlayer(world, id, name);
+            ghost.getShip().setColor(col);
+            ghost.setAlive(alive);
+            ghost.setLocation(x, y);
+            ghost.setDirectionFromShort(dir);
+            ghost.setScore(score);
+            ghost.setAntiScore(antiScore);
+            ghosts.put(Short.valueOf(id), ghost);
+            ghostLinks.put(Short.valueOf(id), link);
+            world.addPlayer(ghost);
+            server.sendNewPlayer(ghost);
+            server.sendSetPlayerScore(ghost);
+            return;
+        }
+        ghost.setLocation(x, y);
+        ghost.setDirectionFromShort(dir);
+        server.markPlayerMoved(ghost);
+        if (score != ghost.getScore() || antiScore != ghost.getAntiScore()) {
+            ghost.setScore(score);
+            ghost.setAntiScore(antiScore);
+            server.sendSetPlayerScore(ghost);
+        }
+    }
+
+    private final void receivePhaser(Message m) {
+        UpdatingPlayer owner;
+        UpdatingPhaser p;
+
+        owner = (UpdatingPlayer) world.findPlayer(m.getShort());
+        if (owner == null)
+            return;  /* too far from the border to be seen, or gone */
+        p = new UpdatingPhaser(server, world, server.getIds().nextPhaser(),
+                               owner, m.getInt(), m.getInt(),
+                               m.getDouble(), new Color(m.getInt()));
+        p.takeState(m);
+        world.addPhaser(p);
+        server.sendNewPhaser(p);
+    }
+
+    private final void receiveBomb(Message m) {
+        UpdatingPlayer owner;
+        UpdatingBomb   b;
+
+        owner = (UpdatingPlayer) world.findPlayer(m.getShort());
+        if (owner == null)
+            return;
+        b = new UpdatingBomb(server, world, server.getIds().nextBomb(),
+                             owner, m.getInt(), m.getInt(),
+                             m.getDouble(), new Color(m.getInt()));
+        b.takeState(m);
+        world.addBomb(b);
+        server.sendNewBomb(b);
+    }
+
+    private final void receiveHit(Message m) {
+        UpdatingPlayer victim, hitter;
+        byte           weapon;
+        int            damage;
+
+        victim = (UpdatingPlayer) world.findPlayer(m.getShort());
+        hitter = (UpdatingPlayer) world.findPlayer(m.getShort());
+        weapon = m.getByte();
+        damage = m.getInt();
+        if (victim == null || victim.isGhost() || !victim.isAlive())
+            return;
+        victim.handleHit(hitter, weapon, damage, server);
+    }
+
+    private final void receiveKill(Message m) {
+        UpdatingPlayer killer;
+
+        killer = (UpdatingPlayer) world.findPlayer(m.getShort());
+        if (killer == null || killer.isGhost())
+            return;
+        killer.incScore();
+        server.sendSetPlayerScore(killer);
+    }
+
+    private final void receive(Message m, RegionLink link) {
+        switch (m.getType()) {
+          case RegionCommands.GHOST:
+            receiveGhost(m, link);
+            break;
+          case RegionCommands.REMOVE_GHOST:
+            removeGhost(Short.valueOf(m.getShort()));
+            break;
+          case RegionCommands.PHASER:
+            receivePhaser(m);
+            break;
+          case RegionCommands.BOMB:
+            receiveBomb(m);
+            break;
+          case RegionCommands.PLAYER:
+            arrivals.expect(m.getString(), new PlayerState(m));
+            break;
+          case RegionCommands.HIT:
+            receiveHit(m);
+            break;
+          case RegionCommands.KILL:
+            receiveKill(m);
+            break;
+          default:
+            System.err.println("server: got unknown command "
+                               + m.getType() + " from region "
+                               + link.getRegion());
+        }
+    }
+
+    /* the neighbour to hand something at `x' to, or null if it is
+     * ours, or the neighbour is not up. */
+    private final RegionLink getOwner(int x) {
+        if (x >= left && x < right)
+            return null;
+        return getLink(map.getRegionOf(x));
+    }
+
+    private final void sendGhost(UpdatingPlayer p, RegionLink link) {
+        Point   loc;
+        Message m;
+
+        loc = p.getLocation();
+        m = new Message(RegionCommands.GHOST);
+        m.putShort(p.getId());
+        m.putString(p.getName());
+        m.putInt(loc.x);
+        m.putInt(loc.y);
+        m.putShort(p.getDirectionAsShort());
+        m.putInt(p.getShip().getColor().getRGB());
+        m.putBoolean(p.isAlive());
+        m.putInt(p.getScore());
+        m.putInt(p.getAntiScore());
+        link.send(m);
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* `secret' is shown to the neighbours, and wanted from them. it
+     * may be null. */
+    Regions(Server server, World world, RegionMap map, Arrivals arrivals,
+            String secret)
+    throws IOException {
+        this.server = server;
+        this.world = world;
+        this.map = map;
+        this.arrivals = arrivals;
+        this.secret = secret;
+        links = new RegionLink[map.getCount()];
+        left = map.getLeft(map.getIndex());
+        right = map.getRight(map.getIndex());
+        ghosts = new Hashtable();
+        ghostLinks = new Hashtable();
+        shown = new Hashtable();
+        sock = new ServerSocket(map.getLinkPort(map.getIndex()), 0,
+                                InetAddress.getByName(
+                                    map.getHost(map.getIndex())));
+        done = false;
+        acceptor = new Thread(this);
+        acceptor.setDaemon(true);
+        connector = new Thread(new Runnable() {
+            public void run() {
+                connectRight();
+            }
+        });
+        connector.setDaemon(true);
+    }
+
+    final void start() {
+        acceptor.start();
+        if (map.getIndex() + 1 < map.getCount())
+            connector.start();
+    }
+
+    final void stop() {
+        int q;
+
+        done = true;
+        try {
+            sock.close();
+        } catch (IOException e) {
+        }
+        connector.interrupt();
+        synchronized (this) {
+            for (q = 0; q < links.length; q++)
+                if (links[q] != null)
+                    links[q].stop();
+        }
+    }
+
+    /* true if `x' is in our strip of the world. */
+    final boolean isOurs(int x) {
+        return x >= left && x < right;
+    }
+
+    final int getLeft() {
+        return left;
+    }
+
+    final int getRight() {
+        return right;
+    }
+
+    /* called by the updater daemon at the start of each update.
+     * applies what the neighbours have sent, and drops the ghosts of
+     * neighbours that are gone. */
+    final void receive() {
+        int         q;
+        RegionLink  link;
+        Message     m;
+        Enumeration e;
+        Vector      lost;
+        Short       id;
+
+        for (q = 0; q < links.length; q++) {
+            link = getLink(q);
+            if (link == null)
+                continue;
+            while ((m = link.poll()) != null)
+                receive(m, link);
+        }
+        lost = new Vector();
+        e = ghostLinks.keys();
+        while (e.hasMoreElements()) {
+            id = (Short) e.nextElement();
+            if (!((RegionLink) ghostLinks.get(id)).isUp())
+                lost.addElement(id);
+        }
+        for (q = 0; q < lost.size(); q++)
+            removeGhost((Short) lost.elementAt(q));
+        arrivals.expire();
+    }
+
+    /* called by the updater daemon after moving everything. hands
+     * what has left our strip to the neighbour it went to. */
+    final void handOff() {
+        int            q;
+        Phaser[]       phasers;
+        UpdatingPhaser phaser;
+        Bomb[]         bombs;
+        UpdatingBomb   bomb;
+        Player[]       players;
+        UpdatingPlayer player;
+        RegionLink     link;
+        Point          loc;
+        Message        m;
+        String         token;
+        int            to;
+
+        phasers = world.getPhasers();
+        for (q = 0; q < phasers.length; q++) {
+            phaser = (UpdatingPhaser) phasers[q];
+            if (phaser.doRemove()
+                || (link = getOwner(phaser.getLocation().x)) == null)
+                continue;
+            m = new Message(RegionCommands.PHASER);
+            phaser.putState(m);
+            link.send(m);
+            world.removePhaser(phaser);
+            server.sendRemovePhaser(phaser);
+        }
+
+        bombs = world.getBombs();
+        for (q = 0; q < bombs.length; q++) {
+            bomb = (UpdatingBomb) bombs[q];
+            if (bomb.doRemove()
+                || (link = getOwner(bomb.getLocation().x)) == null)
+                continue;
+            m = new Message(RegionCommands.BOMB);
+            bomb.putState(m);
+            link.send(m);
+            world.removeBomb(bomb);
+            server.sendRemoveBomb(bomb);
+        }
+
+        players = world.getPlayers();
+        for (q = 0; q < players.length; q++) {
+            player = (UpdatingPlayer) players[q];
+            if (player.isGhost() || !player.isAlive())
+                continue;
+            loc = player.getLocation();
+            if (loc.x >= left - handOffSlack && loc.x < right + handOffSlack)
+                continue;
+            to = map.getRegionOf(loc.x);
+            if ((link = getLink(to)) == null)
+                continue;
+            token = Arrivals.newToken();
+            m = new Message(RegionCommands.PLAYER);
+            m.putString(token);
+            (new PlayerState(player)).put(m);
+            link.send(m);
+            /* the state must get there before the client does. */
+            link.flush();
+            player.getClientHandler().sendRedirect(map.getHost(to),
+                                                   map.getPort(to), token);
+        }
+    }
+
+    /* called by the updater daemon at the end of each update. shows
+     * our players close to a border to the neighbour on the other
+     * side, and flushes what we have sent. */
+    final void sendGhosts() {
+        int            q;
+        Player[]       players;
+        UpdatingPlayer player;
+        RegionLink     link, was;
+        Hashtable      nowShown;
+        Enumeration    e;
+        Short          id;
+        Point          loc;
+        Message        m;
+
+        nowShown = new Hashtable();
+        players = world.getPlayers();
+        for (q = 0; q < players.length; q++) {
+            player = (UpdatingPlayer) players[q];
+            if (player.isGhost())
+                continue;
+            loc = player.getLocation();
+            if (loc.x - left < ghostMargin)
+                link = getLink(map.getIndex() - 1);
+            else if (right - loc.x <= ghostMargin)
+                link = getLink(map.getIndex() + 1);
+            else
+                continue;
+            if (link == null)
+                continue;
+            sendGhost(player, link);
+            nowShown.put(Short.valueOf(player.getId()), link);
+        }
+        /* those no longer close, or no longer here. */
+        e = shown.keys();
+        while (e.hasMoreElements()) {
+            id = (Short) e.nextElement();
+            was = (RegionLink) shown.get(id);
+            if (nowShown.get(id) != was && was.isUp()) {
+                m = new Message(RegionCommands.REMOVE_GHOST);
+                m.putShort(id.shortValue());
+                was.send(m);
+            }
+        }
+        shown = nowShown;
+
+        for (q = 0; q < links.length; q++)
+            if ((link = getLink(q)) != null)
+                link.flush();
+    }
+
+    /* a ghost was hit by one of our shots. the real player is told. */
+    final void sendHit(UpdatingPlayer ghost, UpdatingPlayer hitter,
+                       byte weapon, int damage) {
+        RegionLink link;
+        Message    m;
+
+        link = (RegionLink) ghostLinks.get(Short.valueOf(ghost.getId()));
+        if (link == null)
+            return;
+        m = new Message(RegionCommands.HIT);
+        m.putShort(ghost.getId());
+        m.putShort(hitter != null ? hitter.getId() : -1);
+        m.putByte(weapon);
+        m.putInt(damage);
+        link.send(m);
+    }
+
+    /* a ghost killed one of our players. */
+    final void sendKill(UpdatingPlayer ghost) {
+        RegionLink link;
+        Message    m;
+
+        link = (RegionLink) ghostLinks.get(Short.valueOf(ghost.getId()));
+        if (link == null)
+            return;
+        m = new Message(RegionCommands.KILL);
+        m.putShort(ghost.getId());
+        link.send(m);
+    }
+
+    /* Runnable *********************************************************/
+    /* accepts the connections from the other regions. */
+    public void run() {
+        Socket s;
+        int    region;
+
+        while (!done) {
+            try {
+                s = sock.accept();
+            } catch (IOException e) {
+                if (!done)
+                    System.err.println("server: region accept failed: "
+                                       + e.getMessage());
+                continue;
+            }
+            try {
+                region = RegionLink.readHello(s, secret);
+                /* we connect to the right, so only the region on our
+                 * left connects to us. */
+                if (region != map.getIndex() - 1)
+                    throw new IOException("not our left neighbour: "
+                                          + region);
+                setLink(new RegionLink(s, region));
+            } catch (IOException e) {
+                System.err.println("server: bad region connection: "
+                                   + e.getMessage());
+                try {
+                    s.close();
+                } catch (IOException e2) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package server;
+
+/*
+ * What a server tells its standby. See ReplicaFeed and Standby.
+ */
+final class ReplicaCommands {
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    static final byte CHECKPOINT       = 0;  /* forget all, here it is */
+    static final byte PLAYER           = 1;  /* new, or status changed */
+    static final byte MOVE             = 2;  /* just moved */
+    static final byte REMOVE_PLAYER    = 3;
+    static final byte BOMB_PACK        = 4;
+    static final byte REMOVE_BOMB_PACK = 5;
+    static final byte TICK             = 6;  /* end of an update */
+}
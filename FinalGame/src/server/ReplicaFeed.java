@@ -0,0 +1,343 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.awt.*;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import no.shhsoft.net.*;
+
+import objects.*;
+
+/*
+ * Keeps a standby process up to date with what goes on in our world, so
+ * it can take over if we die, see Standby. The standby connects to a
+ * port on the local host, and is then sent a checkpoint with all it
+ * needs to know, followed by what changed in each update: players that
+ * came, went, moved or had their status changed, and bomb packs that
+ * came and went. Shots and explosions are not sent, they are gone by
+ * the time anybody could reconnect anyway. Now and then the standby is
+ * sent a new checkpoint, so that it can't drift.
+ *
+ * The updater only builds what is to be sent, and queues it for a
+ * thread of our own to write. If the standby falls too far behind it
+ * is dropped. It may connect again, and gets a checkpoint.
+ */
+final class ReplicaFeed
+implements Runnable {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* updates queued before we give up on the standby. */
+    private static final int maxBacklog = 2 * Updater.updateFrequency;
+    /* updates between checkpoints. */
+    private static final int checkpointTicks = 10 * Updater.updateFrequency;
+
+    private static final class Sent {
+        PlayerState state;
+        String      token;
+    }
+
+    /* the connection to one standby, with the thread writing to it. */
+    private final class Link
+    implements Runnable {
+        Socket              sock;
+        DataOutputStream    out;
+        LinkedBlockingQueue frames;  /* byte[] */
+        volatile boolean    up;
+        Thread              thread;
+
+        Link(Socket sock)
+        throws IOException {
+            this.sock = sock;
+            sock.setTcpNoDelay(true);
+            out = new DataOutputStream(
+                      new BufferedOutputStream(sock.getOutputStream()));
+            frames = new LinkedBlockingQueue();
+            up = true;
+            thread = new Thread(this);
+            thread.setDaemon(true);
+        }
+
+        void close() {
+            up = false;
+            thread.interrupt();
+            try {
+                sock.close();
+            } catch (IOException e) {
+            }
+        }
+
+        public void run() {
+            byte[] frame;
+
+            try {
+                while (up) {
+                    frame = (byte[]) frames.take();
+                    out.write(frame);
+                    if (frames.isEmpty())
+                        out.flush();
+                }
+            } catch (InterruptedException e) {
+            } catch (IOException e) {
+                if (up)
+                    System.err.println("server: lost standby: "
+                                       + e.getMessage());
+            }
+            close();
+        }
+    }
+
+    private World            world;
+    private IdCounters       ids;
+    private ServerSocket     sock;
+    private Thread           acceptor;
+    private volatile boolean done;
+    private volatile Link    link;      /* null if no standby */
+    private Link             fed;       /* what the tables are for */
+    private Hashtable        players;   /* Short id -> Sent */
+    private Hashtable        packs;     /* Short id -> UpdatingBombPack */
+    private int              ticksToCheckpoint;
+    private int              maxQueued; /* since the last report */
+    private ByteArrayOutputStream frame;
+    private DataOutputStream      frameOut;
+
+    private final void add(Message m) {
+        byte[] buff;
+
+        buff = m.getBuffer();
+        try {
+            frameOut.writeShort(buff.length);
+            frameOut.write(buff);
+        } catch (IOException e) {
+            /* not from a byte array. */
+        }
+    }
+
+    private final void addPlayer(UpdatingPlayer p, PlayerState s,
+                                 String token) {
+        Message m;
+
+        m = new Message(ReplicaCommands.PLAYER);
+        m.putShort(p.getId());
+        m.putString(token);
+        s.put(m);
+        add(m);
+    }
+
+    private final void addMove(UpdatingPlayer p, PlayerState s) {
+        Message m;
+
+        m = new Message(ReplicaCommands.MOVE);
+        m.putShort(p.getId());
+        m.putInt(s.x);
+        m.putInt(s.y);
+        m.putDouble(s.direction);
+        m.putDouble(s.driftX);
+        m.putDouble(s.driftY);
+        add(m);
+    }
+
+    private final void addBombPack(UpdatingBombPack b) {
+        Message m;
+        Point   loc;
+
+        loc = b.getLocation();
+        m = new Message(ReplicaCommands.BOMB_PACK);
+        m.putShort(b.getId());
+        m.putInt(loc.x);
+        m.putInt(loc.y);
+        m.putDouble(b.getDirection());
+        m.putInt(b.getColor().getRGB());
+        m.putInt(b.getBombsLeft());
+        add(m);
+    }
+
+    /* what changed since the last update, or everything. */
+    private final void addChanges(boolean checkpoint) {
+        int              q;
+        Player[]         ps;
+        UpdatingPlayer   p;
+        BombPack[]       bs;
+        UpdatingBombPack b;
+        Hashtable        nowPlayers, nowPacks;
+        PlayerState      s;
+        Sent             was, sent;
+        Enumeration      e;
+        Short            id;
+        Message          m;
+        String           token;
+
+        nowPlayers = new Hashtable();
+        ps = world.getPlayers();
+        for (q = 0; q < ps.length; q++) {
+            p = (UpdatingPlayer) ps[q];
+            if (p.isGhost())
+                continue;
+            id = Short.valueOf(p.getId());
+            s = new PlayerState(p);
+            token = p.getClientHandler().getResumeToken();
+            was = checkpoint ? null : (Sent) players.get(id);
+            if (was == null || !was.token.equals(token)
+                || !s.sameStatus(was.state))
+                addPlayer(p, s, token);
+            else if (!s.sameMotion(was.state))
+                addMove(p, s);
+            sent = new Sent();
+            sent.state = s;
+            sent.token = token;
+            nowPlayers.put(id, sent);
+        }
+        nowPacks = new Hashtable();
+        bs = world.getBombPacks();
+        for (q = 0; q < bs.length; q++) {
+            b = (UpdatingBombPack) bs[q];
+            id = Short.valueOf(b.getId());
+            if (checkpoint || packs.get(id) == null)
+                addBombPack(b);
+            nowPacks.put(id, b);
+        }
+        if (!checkpoint) {
+            e = players.keys();
+            while (e.hasMoreElements()) {
+                id = (Short) e.nextElement();
+                if (nowPlayers.get(id) == null) {
+                    m = new Message(ReplicaCommands.REMOVE_PLAYER);
+                    m.putShort(id.shortValue());
+                    add(m);
+                }
+            }
+            e = packs.keys();
+            while (e.hasMoreElements()) {
+                id = (Short) e.nextElement();
+                if (nowPacks.get(id) == null) {
+                    m = new Message(ReplicaCommands.REMOVE_BOMB_PACK);
+                    m.putShort(id.shortValue());
+                    add(m);
+                }
+            }
+        }
+        players = nowPlayers;
+        packs = nowPacks;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* lets a standby on this host connect to `port'. */
+    ReplicaFeed(World world, IdCounters ids, int port)
+    throws IOException {
+        this.world = world;
+        this.ids = ids;
+        sock = new ServerSocket(port, 1, InetAddress.getByName(null));
+        players = new Hashtable();
+        packs = new Hashtable();
+        frame = new ByteArrayOutputStream();
+        frameOut = new DataOutputStream(frame);
+        done = false;
+        acceptor = new Thread(this);
+        acceptor.setDaemon(true);
+    }
+
+    final void start() {
+        acceptor.start();
+    }
+
+    final void stop() {
+        Link l;
+
+        done = true;
+        try {
+            sock.close();
+        } catch (IOException e) {
+        }
+        if ((l = link) != null)
+            l.close();
+    }
+
+    /* called by the updater daemon at the end of each update, with
+     * the number of that update. */
+    final void tick(long tick) {
+        Link    l;
+        boolean checkpoint;
+        Message m;
+        int     queued;
+
+        l = link;
+        if (l == null || !l.up) {
+            fed = null;
+            return;
+        }
+        checkpoint = l != fed || --ticksToCheckpoint <= 0;
+        frame.reset();
+        if (checkpoint) {
+            m = new Message(ReplicaCommands.CHECKPOINT);
+            m.putLong(tick);
+            m.putInt(world.getWidth());
+            m.putInt(world.getHeight());
+            m.putInt(world.getStarField().getSeed());
+            add(m);
+            ticksToCheckpoint = checkpointTicks;
+            fed = l;
+        }
+        addChanges(checkpoint);
+        m = new Message(ReplicaCommands.TICK);
+        m.putLong(tick);
+        m.putLong(System.currentTimeMillis());
+        m.putShort(ids.peekPlayer());
+        m.putShort(ids.peekBombPack());
+        add(m);
+
+        queued = l.frames.size();
+        if (queued > maxQueued)
+            maxQueued = queued;
+        if (queued >= maxBacklog) {
+            System.err.println("server: standby more than " + maxBacklog
+                               + " updates behind, dropped");
+            l.close();
+            return;
+        }
+        l.frames.add(frame.toByteArray());
+    }
+
+    /* a line for the operator, telling how far behind the standby
+     * has been since the last time we were asked. */
+    final String describe() {
+        Link   l;
+        String ret;
+
+        l = link;
+        ret = (l != null && l.up
+               ? "standby up, " + l.frames.size() + " updates queued, "
+                 + maxQueued + " at most"
+               : "no standby");
+        maxQueued = 0;
+        return ret;
+    }
+
+    /* Runnable *********************************************************/
+    /* accepts the standby. a new one replaces the old. */
+    public void run() {
+        Socket s;
+        Link   l;
+
+        while (!done) {
+            try {
+                s = sock.accept();
+                l = new Link(s);
+            } catch (IOException e) {
+                if (!done)
+                    System.err.println("server: standby accept failed: "
+                                       + e.getMessage());
+                continue;
+            }
+            if (link != null)
+                link.close();
+            link = l;
+            l.thread.start();
+            System.out.println((new Date()).toString() + " standby from "
+                               + s.getRemoteSocketAddress());
+        }
+    }
+}
@@ -3,31 +3,116 @@ package server;
 import java.io.*;
 import java.net.*;
 import java.awt.*;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+
+import no.shhsoft.net.*;
 
 import util.*;
 import netgame.*;
+import client.*;
 import objects.*;
 
 public final class Server
-extends TCPGameServer {
+extends TCPGameServer
+implements LoadSource {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
     private World   world;
     private Updater updater;
+    private Vector  clients;
+    private int     changed;  /* snapshot sections changed since taken */
+    private volatile long tick;  /* also read by the flush scheduler */
+    private volatile WorldSnapshot snapshot;
+    private JoinCache joinCache;
+    private boolean wide;           /* four byte coordinates */
+    private boolean large;          /* worth splitting in tiles */
+    private volatile long flushedCursor;  /* cursor at last flush */
+    private volatile FlushScheduler flusher;  /* null if not used */
+    private volatile int sendBudget;  /* bytes per update and client */
+    private volatile int linkReportSeconds;  /* 0 for no reports */
+    private int     secondsToReport;
+    private String  name;           /* of the arena, null if none */
+    private int     maxPlayers;     /* 0 for no limit */
+    private Arrivals arrivals;      /* players coming from elsewhere */
+    private IdCounters ids;         /* for what is put in our world */
+    private volatile Regions regions;  /* null if the world is ours */
+    private volatile LoadReporter reporter;  /* null if no front door */
+    private volatile Migration migration;  /* null unless draining */
+    private volatile String secret;  /* shared with our servers, or null */
+    private volatile ReplicaFeed feed;  /* null if no standby */
+    private Hashtable parked;       /* resume token -> Parked */
+    private long[]    markedTicks;  /* recent updates, see markTick */
+    private long[][]  markedSeqs;   /* [lane][], numbers of the markers */
+
+    /* how long a player moving here from another server has to show
+     * up. */
+    private static final long arrivalMillis = 30000L;
+
+    /* how long the player of a client that lost its connection is
+     * kept in the world, waiting for the client to come back. */
+    private static final long parkMillis = 30000L;
+
+    /* the markers of this many updates are remembered. a little more
+     * than a player is parked. */
+    private static final int markedTickCount =
+        (int) (parkMillis / 1000L + 2) * Updater.updateFrequency;
+
+    /* broadcasts kept per player an arena has room for: enough for
+     * a busy player's share of what is broadcast while parked. */
+    private static final int arenaBroadcastsPerPlayer = 1024;
+
+    /* an arena has a ring in proportion to the players it takes,
+     * rather than one as big as a whole server's. */
+    private static final int getArenaBroadcastCapacity(int maxPlayers) {
+        if (maxPlayers <= 0)
+            return DEFAULT_BROADCAST_CAPACITY;
+        return Math.max(4096, Math.min(DEFAULT_BROADCAST_CAPACITY,
+                                       maxPlayers
+                                       * arenaBroadcastsPerPlayer));
+    }
 
-    private void setupWorld() {
-        double numPixels;
-        int    numStars;
-        Star   star;
-
-        numPixels = (double) world.getWidth() * (double) world.getHeight();
-        numStars = (int) (numPixels / 35000.0);
-        for (int q = 0; q < numStars; q++) {
-            star = new Star((int) (Math.random() * (world.getWidth() - 1)),
-                            (int) (Math.random() * (world.getHeight() - 1)));
-            world.addStar(star);
-        }
+    private static final class Parked {
+        ClientHandler handler;
+        long          until;
+    }
+
+    private final void urgent() {
+        FlushScheduler f;
+
+        f = flusher;
+        if (f != null)
+            f.urgent();
+    }
+
+    /* a tag limiting a broadcast to those within `views' views of
+     * `loc'. in small worlds everyone is that close anyway, so we
+     * don't bother. */
+    private final Object nearby(Point loc, double views) {
+        return large ? new Nearby(loc.x, loc.y, views) : null;
+    }
+
+    /* the stars are made up from a seed, by us and by the clients
+     * alike, so only the seed is ever sent. */
+    private void setupWorld(int worldWidth, int worldHeight) {
+        colorResycler = new ColorResycler();
+        clients = new Vector();
+        world = new World();
+        if (worldWidth > 0 && worldHeight > 0)
+            world.setSize(worldWidth, worldHeight);
+        wide = Coordinates.isWide(world.getWidth(), world.getHeight());
+        large = TileIndex.isWorthIt(world.getWidth(), world.getHeight());
+        joinCache = new JoinCache(wide);
+        arrivals = new Arrivals(arrivalMillis);
+        ids = new IdCounters();
+        parked = new Hashtable();
+        markedTicks = new long[markedTickCount];
+        Arrays.fill(markedTicks, -1L);
+        markedSeqs = new long[Lane.COUNT][markedTickCount];
+        world.setStarField(new StarField((new Random()).nextInt(),
+                                         world.getWidth(),
+                                         world.getHeight()));
     }
 
 /*-----------------------------------------------------------------------+
@@ -35,367 +120,808 @@ extends TCPGameServer {
  +----------------------------------------------------------------------*/
     ColorResycler colorResycler;
 
-/*-----------------------------------------------------------------------+
- |  PUBLIC INTERFACE                                                     |
- +----------------------------------------------------------------------*/
-    public Server(int port)
-    throws IOException {
-        super(port);
-        colorResycler = new ColorResycler();
-        world = new World();
-        setupWorld();
-        updater = new Updater(this, world);
-        updater.start();
+    /* called by the updater daemon at the start of each update, to
+     * apply what the clients have sent since the last one. */
+    final void applyClientInputs() {
+        int             q;
+        ClientHandler[] handlers;
+
+        synchronized (clients) {
+            handlers = new ClientHandler[clients.size()];
+            clients.copyInto(handlers);
+        }
+        for (q = 0; q < handlers.length; q++)
+            if (!handlers[q].applyInputs())
+                clients.removeElement(handlers[q]);
     }
 
-    public void stop() {
-        updater.stop();
-        updater = null;
-        super.stop();
+    /* called by the updater daemon at the end of each update. */
+    final void publishSnapshot() {
+        ++tick;
+        snapshot = WorldSnapshot.take(world, snapshot, changed, tick);
+        changed = 0;
     }
 
-    public final synchronized void sendNewPlayer(UpdatingPlayer p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* called by the updater daemon after publishing the snapshot,
+     * to keep the standby up to date. */
+    final void replicate() {
+        ReplicaFeed f;
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendNewPlayer(p);
-        }
+        if ((f = feed) != null)
+            f.tick(tick);
     }
 
-    public final synchronized void sendRemovePlayer(UpdatingPlayer p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* called by the updater daemon after publishing the snapshot.
+     * each client gets the position updates that fit its budget,
+     * most important first. */
+    final void sendPositions() {
+        int           q, n;
+        Player[]      players;
+        ClientHandler handler;
 
         players = world.getPlayers();
         n = players.length;
         for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendRemovePlayer(p);
+            handler = ((UpdatingPlayer) players[q]).getClientHandler();
+            if (handler != null)
+                handler.sendPositions(snapshot);
         }
     }
 
-    public final synchronized void sendSetPlayerName(UpdatingPlayer p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* true if coordinates are sent as four bytes. */
+    final boolean isWide() {
+        return wide;
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendSetPlayerName(p);
-        }
+    /* only to be used by the updater daemon. */
+    final JoinCache getJoinCache() {
+        return joinCache;
     }
 
-    public final synchronized void sendSetPlayerPosition(UpdatingPlayer p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* called by the updater daemon once a second. */
+    final void checkLinks() {
+        int           q, n;
+        Player[]      players;
+        ClientHandler handler;
 
         players = world.getPlayers();
         n = players.length;
         for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendSetPlayerPosition(p);
+            handler = ((UpdatingPlayer) players[q]).getClientHandler();
+            if (handler != null)
+                handler.checkLink();
+        }
+        expireParked();
+        if (linkReportSeconds > 0 && --secondsToReport <= 0) {
+            secondsToReport = linkReportSeconds;
+            System.out.print(getLinkReport());
         }
     }
 
-    public final synchronized void sendSetPlayerScore(UpdatingPlayer p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    final IdCounters getIds() {
+        return ids;
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendSetPlayerScore(p);
-        }
+    final Arrivals getArrivals() {
+        return arrivals;
     }
 
-    public final synchronized void sendPlayerHit(UpdatingPlayer p,
-                                                 UpdatingPlayer hitter,
-                                                 byte weapon) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* whether a server at `peer' that showed `shown' is one of ours,
+     * see SharedSecret. */
+    final boolean trusts(InetAddress peer, String shown) {
+        return SharedSecret.trusts(secret, peer, shown);
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendPlayerHit(p, hitter, weapon);
+    /* called by the updater daemon at the end of each update. puts a
+     * marker with the number of the update in each lane of the ring.
+     * a client remembers the last marker it got in each lane, and if
+     * its connection breaks, it tells us which they were, so we know
+     * where to pick up. see getResumePoints. */
+    final void markTick() {
+        int     lane, slot;
+        Message m;
+
+        slot = (int) (tick % markedTickCount);
+        markedTicks[slot] = -1L;
+        for (lane = 0; lane < Lane.COUNT; lane++) {
+            m = new Message(ClientCommands.TICK);
+            m.putByte((byte) lane);
+            m.putInt((int) tick);
+            markedSeqs[lane][slot] = broadcast(m, null, lane);
         }
+        markedTicks[slot] = tick;
     }
 
-    public final synchronized void sendPlayerDies(UpdatingPlayer p,
-                                                  UpdatingPlayer killer,
-                                                  byte weapon) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
-
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendPlayerDies(p, killer, weapon);
+    /* for a client that got the markers of updates `lastTicks', one
+     * per lane: the number of the first broadcast it missed in each
+     * lane. null if it never got a marker in some lane, or if we have
+     * forgotten that marker, or no longer have what came after it. */
+    final long[] getResumePoints(int[] lastTicks) {
+        int    lane, slot;
+        long[] from;
+
+        from = new long[Lane.COUNT];
+        for (lane = 0; lane < Lane.COUNT; lane++) {
+            if (lastTicks[lane] < 0)
+                return null;
+            slot = lastTicks[lane] % markedTickCount;
+            if (markedTicks[slot] != lastTicks[lane])
+                return null;
+            from[lane] = markedSeqs[lane][slot] + 1L;
+            if (!holdsBroadcast(from[lane]))
+                return null;
         }
+        return from;
     }
 
-    public final synchronized void sendPlayerResurrects(UpdatingPlayer p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* called by the updater daemon for a client whose connection
+     * broke. its player is left in the world for a while, in case the
+     * client comes back with its token, see unpark. */
+    final void park(ClientHandler handler) {
+        Parked p;
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendPlayerResurrects(p);
-        }
+        p = new Parked();
+        p.handler = handler;
+        p.until = System.currentTimeMillis() + parkMillis;
+        parked.put(handler.getResumeToken(), p);
     }
 
-    public final synchronized void sendNewPhaser(UpdatingPhaser p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* the parked client with the given token, which is no longer
+     * parked, or null if there is none. */
+    final ClientHandler unpark(String token) {
+        Parked p;
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendNewPhaser(p);
+        p = (Parked) parked.remove(token);
+        return p != null ? p.handler : null;
+    }
+
+    /* removes the players of clients that didn't come back in time. */
+    final void expireParked() {
+        Enumeration e;
+        Parked      p;
+        long        now;
+
+        now = System.currentTimeMillis();
+        e = parked.elements();
+        while (e.hasMoreElements()) {
+            p = (Parked) e.nextElement();
+            if (now >= p.until) {
+                parked.remove(p.handler.getResumeToken());
+                p.handler.giveUp();
+            }
         }
     }
 
-    public final synchronized void sendRemovePhaser(UpdatingPhaser p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* a good place for a new ship. in a world split in regions, it is
+     * in our region. */
+    final Point findGoodLocation() {
+        Regions r;
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendRemovePhaser(p);
-        }
+        r = regions;
+        if (r == null)
+            return world.findGoodLocation();
+        return world.findGoodLocation(r.getLeft(), r.getRight() - 1);
     }
 
-    public final synchronized void sendSetPhaserPosition(UpdatingPhaser p) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* called by the updater daemon before the client inputs, to apply
+     * what the neighbouring regions have sent. a player handed to us
+     * is then expected before its client shows up. */
+    final void receiveFromRegions() {
+        if (regions != null)
+            regions.receive();
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            if (!player.isInView(p))
-                continue;
-            handler = player.getClientHandler();
-            handler.sendSetPhaserPosition(p);
-        }
+    /* called by the updater daemon after moving everything. */
+    final void handOff() {
+        if (regions != null)
+            regions.handOff();
     }
 
-    public final synchronized void sendNewBomb(UpdatingBomb b) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* called by the updater daemon at the end of each update. */
+    final void sendGhosts() {
+        if (regions != null)
+            regions.sendGhosts();
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendNewBomb(b);
-        }
+    final void sendGhostHit(UpdatingPlayer ghost, UpdatingPlayer hitter,
+                            byte weapon, int damage) {
+        regions.sendHit(ghost, hitter, weapon, damage);
     }
 
-    public final synchronized void sendRemoveBomb(UpdatingBomb b) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    final void sendGhostKill(UpdatingPlayer ghost) {
+        regions.sendKill(ghost);
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendRemoveBomb(b);
-        }
+    /* an arena of an ArenaServer. it does not listen for clients
+     * itself, the arena server hands them over. the updates are run
+     * on `ticker', shared by all the arenas, starting `delayMillis'
+     * after start() is called. */
+    Server(String name, int maxPlayers, int worldWidth, int worldHeight,
+           ScheduledExecutorService ticker, long delayMillis) {
+        super(null, getArenaBroadcastCapacity(maxPlayers));
+        this.name = name;
+        this.maxPlayers = maxPlayers;
+        setupWorld(worldWidth, worldHeight);
+        updater = new Updater(this, world, ticker, delayMillis);
     }
 
-    public final synchronized void sendSetBombPosition(UpdatingBomb b) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    final String getName() {
+        return name;
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            if (!player.isInView(b))
-                continue;
-            handler = player.getClientHandler();
-            handler.sendSetBombPosition(b);
-        }
+    final World getWorld() {
+        return world;
     }
 
-    public final synchronized void sendNewBombPack(UpdatingBombPack bp) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* the clients in this world, logged in or about to. */
+    final int getPlayerCount() {
+        return clients.size();
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendNewBombPack(bp);
-        }
+    final boolean isFull() {
+        return maxPlayers > 0 && clients.size() >= maxPlayers;
     }
 
-    public final synchronized void sendRemoveBombPack(UpdatingBombPack bp) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* takes over a client from the lobby of the arena server. */
+    final void admit(ClientHandler handler) {
+        handler.setSendBudgetPerUpdate(sendBudget);
+        clients.addElement(handler);
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendRemoveBombPack(bp);
-        }
+    /* a line for the operator about this arena. */
+    final String describeArena() {
+        return "arena " + name + ": " + clients.size()
+               + (maxPlayers > 0 ? "/" + maxPlayers : "") + " players, "
+               + updater.describeTicks();
     }
 
-    public final synchronized void
-    sendSetBombPackPosition(UpdatingBombPack bp) {
+    /* called by the updater daemon at the end of each update. while
+     * draining, every player in the world is moved to the server we
+     * drain to: all the states are sent ahead first, and then the
+     * clients are told where to go. a player logging in meanwhile is
+     * moved on in the same update. */
+    final void migrate() {
         int            q, n;
-        ClientHandler  handler;
+        Migration      mig;
         Player[]       players;
         UpdatingPlayer player;
+        String[]       tokens;
 
+        if ((mig = migration) == null)
+            return;
         players = world.getPlayers();
         n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendSetBombPackPosition(bp);
+        tokens = new String[n];
+        try {
+            for (q = 0; q < n; q++) {
+                player = (UpdatingPlayer) players[q];
+                if (!player.isGhost())
+                    tokens[q] = mig.send(new PlayerState(player));
+            }
+            mig.flush();
+        } catch (IOException e) {
+            System.err.println("server: lost " + mig.getHost() + ":"
+                               + mig.getPort() + " while draining: "
+                               + e.getMessage());
+            mig.close();
+            migration = null;
+            return;
         }
+        for (q = 0; q < n; q++)
+            if (tokens[q] != null)
+                ((UpdatingPlayer) players[q]).getClientHandler()
+                    .sendRedirect(mig.getHost(), mig.getPort(), tokens[q]);
     }
 
-    public final synchronized void sendNewExplosion(UpdatingExplosion e) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* a standby taking over: the world as it was on the server that
+     * died, before we start. players are added when their clients
+     * reconnect, see Standby. */
+    final void restoreStarField(int seed) {
+        world.setStarField(new StarField(seed, world.getWidth(),
+                                         world.getHeight()));
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendNewExplosion(e);
+    final void restoreBombPack(short id, int x, int y, double dir,
+                               Color col, int bombs) {
+        world.addBombPack(new UpdatingBombPack(this, world, id, x, y,
+                                               dir, col, bombs));
+    }
+
+    /* how busy this world is, as told to a front door. see
+     * LoadSource. */
+    final void putArenaLoad(Message m) {
+        Updater u;
+
+        u = updater;
+        m.putString(name != null ? name : "");
+        m.putInt(getPlayerCount());
+        m.putInt(maxPlayers);
+        m.putInt(u != null ? (int) u.getTickMicros(99) : 0);
+    }
+
+    /* the world as it is right now, for joining players. only to be
+     * called from the updater daemon. everything that changes the
+     * world is sent to the clients through this class, which is how
+     * we know what to take again. */
+    final WorldSnapshot getCurrentSnapshot() {
+        if (changed != 0 || snapshot == null) {
+            snapshot = WorldSnapshot.take(world, snapshot, changed, tick);
+            changed = 0;
         }
+        return snapshot;
     }
 
-    public final synchronized void sendRemoveExplosion(UpdatingExplosion e) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    public Server(int port)
+    throws IOException {
+        this(port, 1);
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendRemoveExplosion(e);
+    /* `threads' is the number of threads used for moving things
+     * around in each update. */
+    public Server(int port, int threads)
+    throws IOException {
+        this(port, threads, 0, 0);
+    }
+
+    /* a world of the given size, or the default size if 0. */
+    public Server(int port, int threads, int worldWidth, int worldHeight)
+    throws IOException {
+        super(port);
+        setupWorld(worldWidth, worldHeight);
+        updater = new Updater(this, world, threads);
+    }
+
+    /* the world as it was at the end of the last update. may be
+     * called from any thread. */
+    public final WorldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /* makes this server one of several sharing the world, each
+     * simulating a region of it. `list' has the host and port of every
+     * region, and `index' tells which of them we are. see Regions. */
+    public final void setRegions(String list, int index)
+    throws IOException {
+        RegionMap map;
+
+        map = new RegionMap(list, index, world.getWidth());
+        ids.setPlayerSpacing((short) index, (short) map.getCount());
+        regions = new Regions(this, world, map, arrivals, secret);
+        regions.start();
+    }
+
+    /* tells the front door at `host' and `port' how busy we are, so it
+     * may send players here. they connect to `publicHost', or the
+     * address we reach the front door from if null. see FrontDoor. */
+    public final void setFrontDoor(String host, int port,
+                                   String publicHost) {
+        reporter = new LoadReporter(this, host, port, secret, publicHost,
+                                    this.port);
+        reporter.start();
+    }
+
+    /* lets a standby process on this host follow our world on
+     * `port', so that it can take over if we die. see Standby. */
+    public final void setStandbyFeed(int port)
+    throws IOException {
+        feed = new ReplicaFeed(world, ids, port);
+        feed.start();
+    }
+
+    /* moves all our players to the server at `host' and `port', and
+     * keeps doing so with those who log in, so this one can be taken
+     * down without ending their games. returns once all clients have
+     * gone, true, or after `timeoutMillis', false. the other server
+     * must talk the same protocol version. */
+    public final boolean drain(String host, int port, long timeoutMillis)
+    throws IOException {
+        long      deadline;
+        Migration mig;
+
+        deadline = System.currentTimeMillis() + timeoutMillis;
+        mig = new Migration(host, port, secret);
+        migration = mig;
+        System.out.println((new Date()).toString() + " draining to "
+                           + host + ":" + port);
+        while (getPlayerCount() > 0 && migration == mig
+               && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
+            }
         }
+        System.out.println((new Date()).toString() + " moved "
+                           + mig.getMoved() + " players to "
+                           + host + ":" + port);
+        migration = null;
+        mig.close();
+        return getPlayerCount() == 0;
     }
 
-    public final synchronized void sendSetExplosionLevel(UpdatingExplosion e) {
+    /* the secret shared by the servers of the game, see SharedSecret.
+     * it is shown when we drain to another server, report to a front
+     * door, or talk to the other regions, and a server draining to us
+     * must show it. without one, we only trust servers on this host.
+     * set it before anything else. */
+    public final void setServerSecret(String secret) {
+        this.secret = secret;
+    }
+
+    /* when the process is told to end, first drains to the server at
+     * `host' and `port', waiting at most `timeoutMillis'. */
+    public final void setDrainOnExit(final String host, final int port,
+                                     final long timeoutMillis) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    drain(host, port, timeoutMillis);
+                } catch (IOException e) {
+                    System.err.println("server: could not drain to "
+                                       + host + ":" + port + ": "
+                                       + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /* starts updating the world, and taking clients. whatever was set
+     * up before this is in place from the first update. */
+    public void start() {
+        updater.start();
+        super.start();
+    }
+
+    public void stop() {
+        if (feed != null)
+            feed.stop();
+        if (reporter != null)
+            reporter.stop();
+        if (regions != null)
+            regions.stop();
+        setUrgentFlushMicros(0);
+        updater.stop();
+        updater = null;
+        super.stop();
+    }
+
+    public final void sendNewPlayer(UpdatingPlayer p) {
+        Point   loc;
+        Message m;
+
+        changed |= WorldSnapshot.PLAYERS;
+        loc = p.getLocation();
+        m = new Message(ClientCommands.NEW_PLAYER);
+        m.putShort(p.getId());
+        m.putString(p.getName());
+        Coordinates.put(m, loc.x, wide);
+        Coordinates.put(m, loc.y, wide);
+        m.putShort(p.getDirectionAsShort());
+        m.putInt(p.getShip().getColor().getRGB());
+        /* since this message is also used when sending the state to
+         * new players, we also tell them wether the player is alive
+         * or not. */
+        m.putBoolean(p.isAlive());
+        broadcast(m, null, Lane.RELIABLE);
+    }
+
+    public final void sendRemovePlayer(UpdatingPlayer p) {
+        Message m;
+
+        changed |= WorldSnapshot.PLAYERS;
+        m = new Message(ClientCommands.REMOVE_PLAYER);
+        m.putShort(p.getId());
+        broadcast(m, null, Lane.RELIABLE);
+    }
+
+    public final void sendSetPlayerName(UpdatingPlayer p) {
+        Message m;
+
+        changed |= WorldSnapshot.PLAYERS;
+        m = new Message(ClientCommands.SET_PLAYER_NAME);
+        m.putShort(p.getId());
+        m.putString(p.getName());
+        broadcast(m, null, Lane.RELIABLE);
+    }
+
+    /* positions are not broadcast. each client's UpdateScheduler picks
+     * the ones it gets from the snapshot, see sendPositions. this only
+     * makes sure the snapshot is taken again. */
+    public final void markPlayerMoved(UpdatingPlayer p) {
+        changed |= WorldSnapshot.PLAYERS;
+    }
+
+    public final void sendSetPlayerScore(UpdatingPlayer p) {
+        Message m;
+
+        changed |= WorldSnapshot.PLAYERS;
+        m = new Message(ClientCommands.SET_PLAYER_SCORE);
+        m.putShort(p.getId());
+        m.putShort(p.getScore());
+        m.putShort(p.getAntiScore());
+        broadcast(m, null, Lane.BULK);
+    }
+
+    public final void sendPlayerHit(UpdatingPlayer p, UpdatingPlayer hitter,
+                                    byte weapon) {
+        Message m;
+
+        m = new Message(ClientCommands.PLAYER_HIT);
+        m.putShort(p.getId());
+        m.putShort(hitter != null? hitter.getId() : -1);
+        m.putByte(weapon);
+        broadcast(m, null, Lane.RELIABLE);
+        urgent();
+    }
+
+    public final void sendPlayerDies(UpdatingPlayer p, UpdatingPlayer killer,
+                                     byte weapon) {
+        Message m;
+
+        changed |= WorldSnapshot.PLAYERS;
+        m = new Message(ClientCommands.PLAYER_DIES);
+        m.putShort(p.getId());
+        m.putShort(killer != null? killer.getId() : -1);
+        m.putByte(weapon);
+        broadcast(m, null, Lane.RELIABLE);
+        urgent();
+    }
+
+    public final void sendPlayerResurrects(UpdatingPlayer p) {
+        Point   loc;
+        Message m;
+
+        changed |= WorldSnapshot.PLAYERS;
+        loc = p.getLocation();
+        m = new Message(ClientCommands.PLAYER_RESURRECTS);
+        m.putShort(p.getId());
+        Coordinates.put(m, loc.x, wide);
+        Coordinates.put(m, loc.y, wide);
+        m.putShort(p.getDirectionAsShort());
+        broadcast(m, null, Lane.RELIABLE);
+        urgent();
+    }
+
+    public final void sendNewPhaser(UpdatingPhaser p) {
+        Point   loc;
+        Message m;
+
+        changed |= WorldSnapshot.PHASERS;
+        loc = p.getLocation();
+        m = new Message(ClientCommands.NEW_PHASER);
+        m.putShort(p.getId());
+        m.putShort(p.getOwner().getId());
+        Coordinates.put(m, loc.x, wide);
+        Coordinates.put(m, loc.y, wide);
+        m.putShort(p.getDirectionAsShort());
+        m.putInt(p.getColor().getRGB());
+        broadcast(m, nearby(loc, Nearby.NEW_VIEWS), Lane.RELIABLE);
+        urgent();
+    }
+
+    public final void sendRemovePhaser(UpdatingPhaser p) {
+        Message m;
+
+        changed |= WorldSnapshot.PHASERS;
+        m = new Message(ClientCommands.REMOVE_PHASER);
+        m.putShort(p.getId());
+        broadcast(m, nearby(p.getLocation(), Nearby.REMOVE_VIEWS),
+                  Lane.RELIABLE);
+    }
+
+    public final void markPhaserMoved(UpdatingPhaser p) {
+        changed |= WorldSnapshot.PHASERS;
+    }
+
+    public final void sendNewBomb(UpdatingBomb b) {
+        Point   loc;
+        Message m;
+
+        changed |= WorldSnapshot.BOMBS;
+        loc = b.getLocation();
+        m = new Message(ClientCommands.NEW_BOMB);
+        m.putShort(b.getId());
+        m.putShort(b.getOwner().getId());
+        Coordinates.put(m, loc.x, wide);
+        Coordinates.put(m, loc.y, wide);
+        m.putShort(b.getDirectionAsShort());
+        m.putInt(b.getColor().getRGB());
+        broadcast(m, nearby(loc, Nearby.NEW_VIEWS), Lane.RELIABLE);
+        urgent();
+    }
+
+    public final void sendRemoveBomb(UpdatingBomb b) {
+        Message m;
+
+        changed |= WorldSnapshot.BOMBS;
+        m = new Message(ClientCommands.REMOVE_BOMB);
+        m.putShort(b.getId());
+        broadcast(m, nearby(b.getLocation(), Nearby.REMOVE_VIEWS),
+                  Lane.RELIABLE);
+    }
+
+    public final void markBombMoved(UpdatingBomb b) {
+        changed |= WorldSnapshot.BOMBS;
+    }
+
+    public final void sendNewBombPack(UpdatingBombPack bp) {
+        Point   loc;
+        Message m;
+
+        changed |= WorldSnapshot.BOMB_PACKS;
+        loc = bp.getLocation();
+        m = new Message(ClientCommands.NEW_BOMB_PACK);
+        m.putShort(bp.getId());
+        Coordinates.put(m, loc.x, wide);
+        Coordinates.put(m, loc.y, wide);
+        m.putShort(bp.getDirectionAsShort());
+        m.putInt(bp.getColor().getRGB());
+        broadcast(m, null, Lane.RELIABLE);
+    }
+
+    public final void sendRemoveBombPack(UpdatingBombPack bp) {
+        Message m;
+
+        changed |= WorldSnapshot.BOMB_PACKS;
+        m = new Message(ClientCommands.REMOVE_BOMB_PACK);
+        m.putShort(bp.getId());
+        broadcast(m, null, Lane.RELIABLE);
+    }
+
+    public final void markBombPackMoved(UpdatingBombPack bp) {
+        changed |= WorldSnapshot.BOMB_PACKS;
+    }
+
+    public final void sendNewExplosion(UpdatingExplosion e) {
+        Point   loc;
+        Message m;
+
+        changed |= WorldSnapshot.EXPLOSIONS;
+        loc = e.getLocation();
+        m = new Message(ClientCommands.NEW_EXPLOSION);
+        m.putShort(e.getId());
+        Coordinates.put(m, loc.x, wide);
+        Coordinates.put(m, loc.y, wide);
+        m.putByte(e.getLevel());
+        m.putByte(e.getMaxLevel());
+        broadcast(m, nearby(loc, Nearby.NEW_VIEWS), Lane.RELIABLE);
+    }
+
+    public final void sendRemoveExplosion(UpdatingExplosion e) {
+        Message m;
+
+        changed |= WorldSnapshot.EXPLOSIONS;
+        m = new Message(ClientCommands.REMOVE_EXPLOSION);
+        m.putShort(e.getId());
+        broadcast(m, nearby(e.getLocation(), Nearby.REMOVE_VIEWS),
+                  Lane.RELIABLE);
+    }
+
+    public final void sendSetExplosionLevel(UpdatingExplosion e) {
+        Message m;
+
+        changed |= WorldSnapshot.EXPLOSIONS;
+        m = new Message(ClientCommands.SET_EXPLOSION_LEVEL);
+        m.putShort(e.getId());
+        m.putByte(e.getLevel());
+        broadcast(m, nearby(e.getLocation(), Nearby.REMOVE_VIEWS),
+                  Lane.REALTIME);
+    }
+
+    public final void sendPlayerSays(UpdatingPlayer p, String msg) {
+        Message m;
+
+        m = new Message(ClientCommands.PLAYER_SAYS);
+        m.putShort(p.getId());
+        m.putString(msg);
+        broadcast(m, null, Lane.BULK);
+    }
+
+    /* wakes the writer of every client that has something new to
+     * send: all of them if anything was broadcast since the last
+     * flush, otherwise just those with messages of their own. called
+     * once at the end of each update, and by the flush scheduler when
+     * urgent events can't wait that long. clients on slow links are
+     * held until their next frame is due. */
+    public final synchronized void flush() {
         int            q, n;
+        long           cursor;
+        boolean        everyone;
         ClientHandler  handler;
         Player[]       players;
         UpdatingPlayer player;
 
+        if (flusher != null)
+            flusher.flushed();
+        cursor = getBroadcastCursor();
+        everyone = cursor != flushedCursor;
+        flushedCursor = cursor;
         players = world.getPlayers();
         n = players.length;
         for (q = 0; q < n; q++) {
             player = (UpdatingPlayer) players[q];
             handler = player.getClientHandler();
-            handler.sendSetExplosionLevel(e);
+            if (handler == null)
+                continue;  /* a ghost */
+            if (everyone || handler.hasUnflushed() || handler.isFlushHeld())
+                handler.flushFrame(tick);
         }
     }
 
-    public final synchronized void
-    sendPlayerSays(UpdatingPlayer p, String msg) {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* limits what is sent to each client to `bytes' per update.
+     * game traffic goes first, chat and scores get what is left. the
+     * positions that don't fit wait for a later update. 0 means no
+     * limit. */
+    public final void setSendBudget(int bytes) {
+        int             q;
+        ClientHandler[] handlers;
+
+        sendBudget = bytes;
+        synchronized (clients) {
+            handlers = new ClientHandler[clients.size()];
+            clients.copyInto(handlers);
+        }
+        for (q = 0; q < handlers.length; q++)
+            handlers[q].setSendBudgetPerUpdate(bytes);
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.sendPlayerSays(p, msg);
+    /* one line per client, telling how the link to it is doing, and
+     * one for the standby, if any. may be called from any thread. */
+    public final String getLinkReport() {
+        int             q;
+        ClientHandler[] handlers;
+        StringBuffer    sb;
+
+        synchronized (clients) {
+            handlers = new ClientHandler[clients.size()];
+            clients.copyInto(handlers);
         }
+        sb = new StringBuffer();
+        for (q = 0; q < handlers.length; q++)
+            sb.append((new Date()).toString() + " link "
+                      + handlers[q].describeLink() + "\n");
+        if (feed != null)
+            sb.append((new Date()).toString() + " " + feed.describe()
+                      + "\n");
+        return sb.toString();
     }
 
-    public final synchronized void flush() {
-        int            q, n;
-        ClientHandler  handler;
-        Player[]       players;
-        UpdatingPlayer player;
+    /* with `seconds' > 0, prints the link report that often. */
+    public final void setLinkReportSeconds(int seconds) {
+        linkReportSeconds = seconds;
+        secondsToReport = seconds;
+    }
 
-        players = world.getPlayers();
-        n = players.length;
-        for (q = 0; q < n; q++) {
-            player = (UpdatingPlayer) players[q];
-            handler = player.getClientHandler();
-            handler.flush();
+    /* with `micros' > 0, shots, hits and deaths are sent no later
+     * than this many microseconds after they happen, rather than at
+     * the end of the update. 0 turns this off. */
+    public final void setUrgentFlushMicros(int micros) {
+        if (flusher != null) {
+            flusher.stop();
+            flusher = null;
+        }
+        if (micros > 0) {
+            flusher = new FlushScheduler(this, micros);
+            flusher.start();
         }
     }
 
+    /* LoadSource *******************************************************/
+    public void putLoad(Message m) {
+        m.putShort((short) 1);
+        putArenaLoad(m);
+    }
+
     /* TCPGameServer ****************************************************/
     public TCPGameServerClientHandler newClient(Socket sock) {
-        return new ClientHandler(this, sock, world);
+        ClientHandler handler;
+
+        handler = new ClientHandler(this, sock, world);
+        handler.setSendBudgetPerUpdate(sendBudget);
+        clients.addElement(handler);
+        return handler;
     }
 }
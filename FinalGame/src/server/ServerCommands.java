@@ -15,4 +15,10 @@ public final class ServerCommands {
     public static final byte FIRE_BOMB    =  5;
     public static final byte RESURRECT_ME =  6;
     public static final byte SAY          =  7;
+    public static final byte PONG         =  8;
+    public static final byte JOIN_ARENA   =  9;
+    public static final byte RESUME       = 10;
+    public static final byte REPORT_LOAD  = 11;  /* to the front door */
+    public static final byte MIGRATE      = 12;  /* from a draining server */
+    public static final byte LOGOUT       = 13;
 }
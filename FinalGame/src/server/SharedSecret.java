@@ -0,0 +1,32 @@
+package server;
+
+import java.net.*;
+import java.security.MessageDigest;
+
+/*
+ * The secret shared by the servers of one game. It is shown on the
+ * links between them: by a server draining its players to another, by
+ * a server reporting its load to the front door, and by the regions of
+ * a world to each other. What comes over such a link is believed, so
+ * a client must not be able to pass for a server. Without a secret,
+ * only servers on the same host are trusted.
+ */
+final class SharedSecret {
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* what to show when we have `secret', which may be null. */
+    static final String toShow(String secret) {
+        return secret != null ? secret : "";
+    }
+
+    /* whether a server at `peer' that showed `shown' is one of ours,
+     * when we have `secret', which may be null. */
+    static final boolean trusts(String secret, InetAddress peer,
+                                String shown) {
+        if (secret == null)
+            return peer.isLoopbackAddress();
+        /* takes as long whatever is shown. */
+        return MessageDigest.isEqual(secret.getBytes(), shown.getBytes());
+    }
+}
@@ -0,0 +1,346 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.awt.*;
+import java.util.*;
+
+import no.shhsoft.net.*;
+
+import netgame.*;
+
+/*
+ * A process waiting to take over from a server that dies. It follows
+ * what the server sends on its standby feed, see ReplicaFeed, and keeps
+ * a copy of the players and bomb packs of the world, with the ids and
+ * the tokens the clients were given.
+ *
+ * When the feed goes quiet or breaks, we try to listen on the port of
+ * the server. If that works the server is gone, and we start a server
+ * of our own on that port with the world as it was, the same size and
+ * stars. Each client reconnects and shows its token, and gets its
+ * player back where it was, with the same id. If the port is still
+ * taken, the server was just slow, and we follow it again.
+ *
+ * Changes are applied one update at a time, so the copy is always of
+ * the world as it was at the end of some update.
+ */
+public final class Standby
+extends TCPCommunicator
+implements Runnable {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* the server sends something every update, so this long without
+     * anything means it is in trouble. */
+    private static final int silenceMillis = 3000;
+
+    private static final class Mirrored {
+        PlayerState state;
+        String      token;
+    }
+
+    private static final class Pack {
+        short  id;
+        int    x, y;
+        double dir;
+        int    color;
+        int    bombs;
+    }
+
+    private int              port, threads, feedPort;
+    private Thread           thread;
+    private volatile boolean done;
+    private volatile Server  server;  /* once we have taken over */
+    private Timer            reporter;
+    private int              sendBudget, urgentFlushMicros;
+    private int              linkReportSeconds;
+    private String           secret;
+
+    /* the copy, as of the end of update `tick'. */
+    private boolean          haveCheckpoint;
+    private long             tick;
+    private int              width, height, starSeed;
+    private short            nextPlayerId, nextPackId;
+    private Hashtable        players;  /* Short id -> Mirrored */
+    private Hashtable        packs;    /* Short id -> Pack */
+    private Vector           pending;  /* of the update being read */
+
+    /* since the last report. */
+    private int              updates, checkpoints;
+    private long             lagSum, maxLag;
+
+    private final void receiveCheckpoint(Message m) {
+        tick = m.getLong();
+        width = m.getInt();
+        height = m.getInt();
+        starSeed = m.getInt();
+        players.clear();
+        packs.clear();
+        haveCheckpoint = true;
+        ++checkpoints;
+    }
+
+    private final void receivePlayer(Message m) {
+        Mirrored p;
+        short    id;
+
+        id = m.getShort();
+        p = new Mirrored();
+        p.token = m.getString();
+        p.state = new PlayerState(m);
+        p.state.id = id;
+        players.put(Short.valueOf(id), p);
+    }
+
+    private final void receiveMove(Message m) {
+        Mirrored p;
+
+        p = (Mirrored) players.get(Short.valueOf(m.getShort()));
+        if (p == null)
+            return;
+        p.state.x = m.getInt();
+        p.state.y = m.getInt();
+        p.state.direction = m.getDouble();
+        p.state.driftX = m.getDouble();
+        p.state.driftY = m.getDouble();
+    }
+
+    private final void receiveBombPack(Message m) {
+        Pack b;
+
+        b = new Pack();
+        b.id = m.getShort();
+        b.x = m.getInt();
+        b.y = m.getInt();
+        b.dir = m.getDouble();
+        b.color = m.getInt();
+        b.bombs = m.getInt();
+        packs.put(Short.valueOf(b.id), b);
+    }
+
+    private final void receiveTick(Message m) {
+        long lag;
+
+        tick = m.getLong();
+        lag = System.currentTimeMillis() - m.getLong();
+        nextPlayerId = m.getShort();
+        nextPackId = m.getShort();
+        synchronized (this) {
+            ++updates;
+            lagSum += lag;
+            if (lag > maxLag)
+                maxLag = lag;
+        }
+    }
+
+    /* applies what was sent during one update. */
+    private final void apply(Message end) {
+        int     q;
+        Message m;
+
+        for (q = 0; q < pending.size(); q++) {
+            m = (Message) pending.elementAt(q);
+            switch (m.getType()) {
+              case ReplicaCommands.CHECKPOINT:
+                receiveCheckpoint(m);
+                break;
+              case ReplicaCommands.PLAYER:
+                receivePlayer(m);
+                break;
+              case ReplicaCommands.MOVE:
+                receiveMove(m);
+                break;
+              case ReplicaCommands.REMOVE_PLAYER:
+                players.remove(Short.valueOf(m.getShort()));
+                break;
+              case ReplicaCommands.BOMB_PACK:
+                receiveBombPack(m);
+                break;
+              case ReplicaCommands.REMOVE_BOMB_PACK:
+                packs.remove(Short.valueOf(m.getShort()));
+                break;
+              default:
+                System.err.println("standby: got unknown command "
+                                   + m.getType());
+            }
+        }
+        pending.removeAllElements();
+        receiveTick(end);
+    }
+
+    /* reads the feed until it breaks or goes quiet. */
+    private final void follow()
+    throws IOException {
+        Socket  s;
+        Message m;
+
+        s = new Socket(InetAddress.getByName(null), feedPort);
+        s.setSoTimeout(silenceMillis);
+        setupSocketToUse(s);
+        pending.removeAllElements();
+        System.out.println((new Date()).toString() + " following the "
+                           + "server on port " + port);
+        while (!done) {
+            m = receiveMessage();
+            if (m.getType() == ReplicaCommands.TICK)
+                apply(m);
+            else
+                pending.addElement(m);
+        }
+    }
+
+    /* starts a server with the world as we have it. fails if the port
+     * is still taken. */
+    private final void takeOver()
+    throws IOException {
+        Server      s;
+        Enumeration e;
+        Mirrored    p;
+        Pack        b;
+
+        s = new Server(port, threads, width, height);
+        s.restoreStarField(starSeed);
+        e = packs.elements();
+        while (e.hasMoreElements()) {
+            b = (Pack) e.nextElement();
+            s.restoreBombPack(b.id, b.x, b.y, b.dir, new Color(b.color),
+                              b.bombs);
+        }
+        e = players.elements();
+        while (e.hasMoreElements()) {
+            p = (Mirrored) e.nextElement();
+            s.getArrivals().expect(p.token, p.state);
+        }
+        s.getIds().restore(nextPlayerId, nextPackId);
+        s.setSendBudget(sendBudget);
+        s.setUrgentFlushMicros(urgentFlushMicros);
+        s.setLinkReportSeconds(linkReportSeconds);
+        s.setServerSecret(secret);
+        s.start();
+        server = s;
+        System.out.println((new Date()).toString() + " took over port "
+                           + port + " at update " + tick + ", "
+                           + players.size() + " players expected");
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /* stands by for the server on `port' of this host, which feeds us
+     * on `feedPort', see Server.setStandbyFeed. if we take over, it is
+     * with `threads' update threads. */
+    public Standby(int port, int threads, int feedPort) {
+        this.port = port;
+        this.threads = threads;
+        this.feedPort = feedPort;
+        players = new Hashtable();
+        packs = new Hashtable();
+        pending = new Vector();
+        haveCheckpoint = false;
+        done = false;
+        thread = new Thread(this);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        done = true;
+        setReportSeconds(0);
+        thread.interrupt();
+        close();
+        if (server != null)
+            server.stop();
+    }
+
+    /* the server we started, or null if we haven't taken over. */
+    public final Server getServer() {
+        return server;
+    }
+
+    /* see Server.setSendBudget. used if we take over. */
+    public final void setSendBudget(int bytes) {
+        sendBudget = bytes;
+    }
+
+    /* see Server.setUrgentFlushMicros. used if we take over. */
+    public final void setUrgentFlushMicros(int micros) {
+        urgentFlushMicros = micros;
+    }
+
+    /* see Server.setLinkReportSeconds. used if we take over. */
+    public final void setLinkReportSeconds(int seconds) {
+        linkReportSeconds = seconds;
+    }
+
+    /* see Server.setServerSecret. used if we take over. */
+    public final void setServerSecret(String secret) {
+        this.secret = secret;
+    }
+
+    /* a line telling how far behind the server we have been since
+     * the last time we were asked. may be called from any thread. */
+    public final synchronized String getLagReport() {
+        String ret;
+
+        ret = (new Date()).toString() + " standby: at update " + tick
+              + ", " + updates + " updates, " + checkpoints
+              + " checkpoints, "
+              + (updates > 0 ? lagSum / updates : 0) + " ms mean lag, "
+              + maxLag + " ms max\n";
+        updates = checkpoints = 0;
+        lagSum = maxLag = 0L;
+        return ret;
+    }
+
+    /* with `seconds' > 0, prints the lag report that often, until we
+     * take over. */
+    public final synchronized void setReportSeconds(int seconds) {
+        if (reporter != null) {
+            reporter.cancel();
+            reporter = null;
+        }
+        if (seconds > 0) {
+            reporter = new Timer(true);
+            reporter.scheduleAtFixedRate(new TimerTask() {
+                public void run() {
+                    if (server == null)
+                        System.out.print(getLagReport());
+                }
+            }, seconds * 1000L, seconds * 1000L);
+        }
+    }
+
+    /* Runnable *********************************************************/
+    public void run() {
+        while (!done) {
+            try {
+                follow();
+            } catch (EOFException e) {
+                if (haveCheckpoint)
+                    System.err.println("standby: the server hung up");
+            } catch (IOException e) {
+                if (haveCheckpoint)
+                    System.err.println("standby: lost the server: "
+                                       + e.getMessage());
+            }
+            close();
+            if (done)
+                break;
+            if (haveCheckpoint) {
+                try {
+                    takeOver();
+                    return;
+                } catch (IOException e) {
+                    /* still there. */
+                }
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package server;
+
+import java.awt.*;
+
+/*
+ * The objects of one snapshot section sorted into square tiles, so the
+ * ones near a place can be found without looking at all of them. Only
+ * worth it in worlds a lot larger than what a player sees; in smaller
+ * worlds every player sees most of the tiles anyway.
+ *
+ * The tiles are kept in two arrays: the indexes of the objects, tile by
+ * tile, and where each tile starts among them.
+ */
+final class TileIndex {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private int   tilesX, tilesY;
+    private int[] start;   /* tilesX * tilesY + 1 entries */
+    private int[] items;   /* section indexes, tile by tile */
+
+    private final int tileOf(int x, int y) {
+        int tx, ty;
+
+        tx = x / TILE_SIZE;
+        ty = y / TILE_SIZE;
+        if (tx < 0)
+            tx = 0;
+        else if (tx >= tilesX)
+            tx = tilesX - 1;
+        if (ty < 0)
+            ty = 0;
+        else if (ty >= tilesY)
+            ty = tilesY - 1;
+        return ty * tilesX + tx;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    static final int TILE_SIZE = 512;
+    /* worlds with fewer tiles than this along both sides don't use
+     * them. */
+    static final int MIN_TILES = 8;
+
+    static final boolean isWorthIt(int worldWidth, int worldHeight) {
+        return worldWidth >= MIN_TILES * TILE_SIZE
+               || worldHeight >= MIN_TILES * TILE_SIZE;
+    }
+
+    /* a counting sort of the objects by tile. */
+    TileIndex(WorldSnapshot.Section s, int worldWidth, int worldHeight) {
+        int   q, n, t;
+        int[] tiles, fill;
+
+        tilesX = worldWidth / TILE_SIZE + 1;
+        tilesY = worldHeight / TILE_SIZE + 1;
+        n = s.size();
+        tiles = new int[n];
+        start = new int[tilesX * tilesY + 1];
+        for (q = 0; q < n; q++) {
+            tiles[q] = tileOf(s.getX(q), s.getY(q));
+            ++start[tiles[q] + 1];
+        }
+        for (t = 0; t < tilesX * tilesY; t++)
+            start[t + 1] += start[t];
+        fill = new int[tilesX * tilesY];
+        System.arraycopy(start, 0, fill, 0, fill.length);
+        items = new int[n];
+        for (q = 0; q < n; q++)
+            items[fill[tiles[q]]++] = q;
+    }
+
+    /* puts the indexes of the objects in the tiles touching `area' in
+     * `ret', which must have room for the whole section. returns how
+     * many there are. */
+    final int find(Rectangle area, int[] ret) {
+        int q, n, tx, ty, tx0, ty0, tx1, ty1, t;
+
+        t = tileOf(area.x, area.y);
+        tx0 = t % tilesX;
+        ty0 = t / tilesX;
+        t = tileOf(area.x + area.width, area.y + area.height);
+        tx1 = t % tilesX;
+        ty1 = t / tilesX;
+        n = 0;
+        for (ty = ty0; ty <= ty1; ty++)
+            for (tx = tx0; tx <= tx1; tx++) {
+                t = ty * tilesX + tx;
+                for (q = start[t]; q < start[t + 1]; q++)
+                    ret[n++] = items[q];
+            }
+        return n;
+    }
+}
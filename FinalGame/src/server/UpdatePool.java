@@ -0,0 +1,161 @@
+package server;
+
+import java.util.concurrent.*;
+
+/*
+ * Runs the parts of an update that touch one object at a time, split
+ * into chunks on a fork/join pool. With a single thread, or with few
+ * objects, everything is simply done on the calling thread.
+ *
+ * Each chunk of shots collects its hits in a buffer of its own. The
+ * buffers are joined in chunk order, so the hits come out in the same
+ * order no matter how many threads did the work.
+ */
+final class UpdatePool {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    /* smaller chunks cost more in handing out than they gain. */
+    private static final int minChunkSize = 64;
+
+    private static final class MoveShots
+    extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Projectile[] shots;
+        private int          lo, hi;
+        private HitBuffer    hits;
+
+        MoveShots(Projectile[] shots, int lo, int hi, HitBuffer hits) {
+            this.shots = shots;
+            this.lo = lo;
+            this.hi = hi;
+            this.hits = hits;
+        }
+
+        protected final void compute() {
+            int q;
+
+            for (q = lo; q < hi; q++)
+                shots[q].move(hits);
+        }
+    }
+
+    private static final class MovePlayers
+    extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private UpdatingPlayer[] players;
+        private int              lo, hi;
+        private boolean[]        moved;
+
+        MovePlayers(UpdatingPlayer[] players, int lo, int hi,
+                    boolean[] moved) {
+            this.players = players;
+            this.lo = lo;
+            this.hi = hi;
+            this.moved = moved;
+        }
+
+        protected final void compute() {
+            int q;
+
+            for (q = lo; q < hi; q++)
+                moved[q] = players[q].update();
+        }
+    }
+
+    private static final class All
+    extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private RecursiveAction[] tasks;
+
+        All(RecursiveAction[] tasks) {
+            this.tasks = tasks;
+        }
+
+        protected final void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    private ForkJoinPool pool;  /* null when running sequentially */
+    private int          threads;
+    private HitBuffer[]  buffers;
+
+    private final int numChunks(int n) {
+        if (pool == null || n < 2 * minChunkSize)
+            return 1;
+        /* a few chunks per thread, so a slow chunk is evened out. */
+        return Math.min(threads * 4, n / minChunkSize);
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    UpdatePool(int threads) {
+        this.threads = threads;
+        if (threads > 1)
+            pool = new ForkJoinPool(threads);
+        buffers = new HitBuffer[0];
+    }
+
+    /* moves the first `n' shots, and appends their hits to `ret'. */
+    final void moveShots(Projectile[] shots, int n, HitBuffer ret) {
+        int               q, chunks, size;
+        RecursiveAction[] tasks;
+        HitBuffer[]       newBuffers;
+
+        chunks = numChunks(n);
+        if (chunks == 1) {
+            new MoveShots(shots, 0, n, ret).compute();
+            return;
+        }
+        if (buffers.length < chunks) {
+            newBuffers = new HitBuffer[chunks];
+            System.arraycopy(buffers, 0, newBuffers, 0, buffers.length);
+            for (q = buffers.length; q < chunks; q++)
+                newBuffers[q] = new HitBuffer();
+            buffers = newBuffers;
+        }
+        size = (n + chunks - 1) / chunks;
+        tasks = new RecursiveAction[chunks];
+        for (q = 0; q < chunks; q++) {
+            buffers[q].clear();
+            tasks[q] = new MoveShots(shots, q * size,
+                                     Math.min(n, (q + 1) * size),
+                                     buffers[q]);
+        }
+        pool.invoke(new All(tasks));
+        for (q = 0; q < chunks; q++) {
+            ret.addAll(buffers[q]);
+            buffers[q].clear();
+        }
+    }
+
+    /* moves the first `n' players. `moved' tells which of them need
+     * their new position sent. */
+    final void movePlayers(UpdatingPlayer[] players, int n,
+                           boolean[] moved) {
+        int               q, chunks, size;
+        RecursiveAction[] tasks;
+
+        chunks = numChunks(n);
+        if (chunks == 1) {
+            new MovePlayers(players, 0, n, moved).compute();
+            return;
+        }
+        size = (n + chunks - 1) / chunks;
+        tasks = new RecursiveAction[chunks];
+        for (q = 0; q < chunks; q++)
+            tasks[q] = new MovePlayers(players, q * size,
+                                       Math.min(n, (q + 1) * size), moved);
+        pool.invoke(new All(tasks));
+    }
+
+    final void shutdown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+}
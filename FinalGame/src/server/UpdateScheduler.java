@@ -0,0 +1,247 @@
+package server;
+
+import java.util.*;
+
+import client.*;
+
+/*
+ * Decides which position updates one client gets in each update.
+ *
+ * Every moving object the client knows of has a priority, that grows
+ * each update the object has moved without the client being told. How
+ * fast it grows depends on the kind of object, and on how far it is
+ * from the client's ship: what is on screen comes first, things far
+ * away last. The client's own ship is always sent first. The updates
+ * with the highest priority are sent until the client's share of the
+ * bandwidth for this update is used up. The rest wait for the next
+ * update with their priority still growing, so nothing waits for
+ * long. Sending an update resets the priority.
+ *
+ * Only the latest position is ever sent, so an update that had to wait
+ * costs no more than one that did not.
+ *
+ * Objects far away are also sent less often, whatever the budget:
+ * what is on screen every update, what is just outside every few
+ * updates, and what is only seen on the radar once or twice a second.
+ */
+final class UpdateScheduler {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final int PLAYERS    = 0;
+    private static final int PHASERS    = 1;
+    private static final int BOMBS      = 2;
+    private static final int BOMB_PACKS = 3;
+    private static final int KINDS      = 4;
+
+    /* how fast the priority grows for each kind of object. */
+    private static final double[] weights = { 1.0, 0.6, 0.8, 0.3 };
+
+    /* the distances, in views, where an object moves to the next level
+     * of detail, and how many updates apart its positions are sent at
+     * each level. */
+    private static final double[] levels = { 1.0, 2.0, 4.0 };
+    private static final int[]    intervals = {
+        1, 3, Updater.updateFrequency / 2, Updater.updateFrequency
+    };
+
+    private static final byte[] commands = {
+        ClientCommands.SET_PLAYER_POSITION,
+        ClientCommands.SET_PHASER_POSITION,
+        ClientCommands.SET_BOMB_POSITION,
+        ClientCommands.SET_BOMB_PACK_POSITION,
+    };
+
+    /* highest priority first. */
+    private static final Comparator byPriority = new Comparator() {
+        public int compare(Object a, Object b) {
+            double pa, pb;
+
+            pa = ((Tracked) a).priority;
+            pb = ((Tracked) b).priority;
+            return pa > pb ? -1 : (pa < pb ? 1 : 0);
+        }
+    };
+
+    private static final class Tracked {
+        int     kind;
+        short   id;
+        boolean sent;        /* false until the first update is sent */
+        int     x, y;        /* as last sent */
+        short   dir;
+        int     newX, newY;  /* as in the latest snapshot */
+        short   newDir;
+        double  priority;
+        long    seen;        /* tick of the latest snapshot it was in */
+        long    sentTick;    /* tick of the latest update sent */
+    }
+
+    private Hashtable[] tracked;   /* per kind, Short id -> Tracked */
+    private Tracked[]   due;       /* reused from update to update */
+    private int[]       near;      /* from the tile index, likewise */
+
+    private static final WorldSnapshot.Section getSection(WorldSnapshot snap,
+                                                          int kind) {
+        switch (kind) {
+          case PLAYERS:
+            return snap.getPlayers();
+          case PHASERS:
+            return snap.getPhasers();
+          case BOMBS:
+            return snap.getBombs();
+          default:
+            return snap.getBombPacks();
+        }
+    }
+
+    /* how many updates apart positions are sent at the distance. */
+    private static final int getInterval(double dist) {
+        int q;
+
+        for (q = 0; q < levels.length; q++)
+            if (dist <= levels[q])
+                break;
+        return intervals[q];
+    }
+
+    private final void addDue(Tracked t, int n) {
+        Tracked[] a;
+
+        if (n == due.length) {
+            a = new Tracked[n * 2];
+            System.arraycopy(due, 0, a, 0, n);
+            due = a;
+        }
+        due[n] = t;
+    }
+
+    /* forgets the objects that are gone from the world. */
+    private final void sweep(long tick) {
+        int         kind;
+        Enumeration e;
+        Tracked     t;
+        Vector      gone;
+
+        gone = new Vector();
+        for (kind = 0; kind < KINDS; kind++) {
+            for (e = tracked[kind].elements(); e.hasMoreElements(); ) {
+                t = (Tracked) e.nextElement();
+                if (t.seen != tick)
+                    gone.addElement(t);
+            }
+            for (e = gone.elements(); e.hasMoreElements(); )
+                tracked[kind].remove(Short.valueOf(((Tracked) e.nextElement())
+                                                   .id));
+            gone.removeAllElements();
+        }
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    UpdateScheduler() {
+        int kind;
+
+        tracked = new Hashtable[KINDS];
+        for (kind = 0; kind < KINDS; kind++)
+            tracked[kind] = new Hashtable();
+        due = new Tracked[64];
+        near = new int[64];
+    }
+
+    /* called by the updater daemon once per update. queues the
+     * position updates `viewer' should get, highest priority first,
+     * until `budget' bytes are queued. 0 means no limit. the viewer's
+     * own ship, when it has moved, always goes first, so it is sent
+     * whatever the budget. it is never held back by the level of
+     * detail either, as it is at distance 0. */
+    final void schedule(WorldSnapshot snap, UpdatingPlayer viewer,
+                        int budget, ClientHandler out) {
+        int                   q, k, n, m, kind, x, y, used;
+        boolean               tiled, useNear;
+        short                 id, dir;
+        long                  tick;
+        double                dist, weight;
+        WorldSnapshot.Section s;
+        Short                 key;
+        Tracked               t;
+
+        tick = snap.getTick();
+        tiled = TileIndex.isWorthIt(snap.getWidth(), snap.getHeight());
+        n = 0;
+        for (kind = 0; kind < KINDS; kind++) {
+            s = getSection(snap, kind);
+            /* in large worlds, only look at the shots in the tiles
+             * around the viewer. the shots we don't look at are
+             * forgotten, and sent again when they come into view. */
+            useNear = tiled && (kind == PHASERS || kind == BOMBS);
+            if (useNear) {
+                if (near.length < s.size())
+                    near = new int[s.size()];
+                m = s.getTiles(snap.getWidth(), snap.getHeight())
+                    .find(viewer.getViewBounds(1.0), near);
+            } else
+                m = s.size();
+            for (k = 0; k < m; k++) {
+                q = useNear ? near[k] : k;
+                id = s.getId(q);
+                x = s.getX(q);
+                y = s.getY(q);
+                dir = kind == PLAYERS ? s.getDirection(q) : 0;
+                key = Short.valueOf(id);
+                t = (Tracked) tracked[kind].get(key);
+                if (t == null) {
+                    t = new Tracked();
+                    t.kind = kind;
+                    t.id = id;
+                    t.sent = false;
+                    t.priority = 0.0;
+                    tracked[kind].put(key, t);
+                }
+                t.seen = tick;
+                if (t.sent && t.x == x && t.y == y && t.dir == dir)
+                    continue;
+                /* shots out of sight are of no interest. */
+                if ((kind == PHASERS || kind == BOMBS)
+                    && !viewer.isInView(x, y))
+                    continue;
+                t.newX = x;
+                t.newY = y;
+                t.newDir = dir;
+                dist = viewer.getViewDistance(x, y);
+                if (kind == PLAYERS && id == viewer.getId())
+                    /* ahead of anything, however long it has waited. */
+                    t.priority = Double.POSITIVE_INFINITY;
+                else {
+                    weight = weights[kind];
+                    if (dist > 1.0)
+                        weight /= dist * dist;
+                    t.priority += weight;
+                }
+                /* wait for our turn at this level of detail. */
+                if (t.sent && tick - t.sentTick < getInterval(dist))
+                    continue;
+                addDue(t, n++);
+            }
+        }
+
+        Arrays.sort(due, 0, n, byPriority);
+        used = 0;
+        for (q = 0; q < n && (budget == 0 || used < budget); q++) {
+            t = due[q];
+            used += out.sendPosition(commands[t.kind], t.id,
+                                     t.newX, t.newY, t.newDir,
+                                     t.kind == PLAYERS);
+            t.x = t.newX;
+            t.y = t.newY;
+            t.dir = t.newDir;
+            t.sent = true;
+            t.sentTick = tick;
+            t.priority = 0.0;
+        }
+        for (q = 0; q < n; q++)
+            due[q] = null;
+
+        sweep(tick);
+    }
+}
@@ -4,6 +4,9 @@ package server;
 import java.io.*;
 import java.net.*;
 import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import objects.*;
 
@@ -13,130 +16,317 @@ implements Runnable {
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
     Thread thread;
-    boolean done;
+    volatile boolean done;
     private Server server;
     private World  world;
+    private UpdatePool pool;
+    private ScheduledExecutorService ticker;  /* null if own thread */
+    private long       delayMillis;  /* before the first update */
+    private int        counter;      /* updates into this second */
+    private HitBuffer  hits;
 
-/*-----------------------------------------------------------------------+
- |  PUBLIC INTERFACE                                                     |
- +----------------------------------------------------------------------*/
-    public Updater(Server server, World world) {
-        this.server = server;
-        this.world = world;
-        done = false;
-        thread = new Thread(this);
-        thread.setDaemon(true);
-    }
+    /* how long the updates take, since the last time we were asked. */
+    private int        ticks, lateTicks;
+    private long       tickNanos, maxTickNanos;
+    /* the last few seconds of updates, for the percentiles. */
+    private long[]     recentNanos = new long[10 * updateFrequency];
+    private int        numRecent, nextRecent;
 
-    public void start() {
-        thread.start();
+    private final synchronized void countTick(long nanos) {
+        recentNanos[nextRecent] = nanos;
+        nextRecent = (nextRecent + 1) % recentNanos.length;
+        if (numRecent < recentNanos.length)
+            ++numRecent;
+        ++ticks;
+        tickNanos += nanos;
+        if (nanos > maxTickNanos)
+            maxTickNanos = nanos;
+        if (nanos > 1000000000L / updateFrequency)
+            ++lateTicks;
     }
 
-    public void stop() {
-        done = true;
-        thread.interrupt();
+    /* one update, as timed by countTick. returns how many
+     * milliseconds it took. */
+    private final long tick() {
+        long nanos;
+
+        nanos = System.nanoTime();
+        update();
+        nanos = System.nanoTime() - nanos;
+        countTick(nanos);
+        return nanos / 1000000L;
     }
 
-    /* Runnable *********************************************************/
-    public void run() {
-        int               q, n, counter;
-        long              before, delta;
-        /* IMPORTANT: update max speeds in UserDefinedClient if changing
-         * update frequency! */
-        long              updateFrequency = 15;
-        long              updateMillis = 1000 / updateFrequency;
+    private final void update() {
+        int               q, n, numShots, numBombs;
         Explosion[]       explosions;
         UpdatingExplosion explosion;
         Phaser[]          phasers;
         UpdatingPhaser    phaser;
         Bomb[]            bombs;
         UpdatingBomb      bomb;
+        Player[]          owners, targets;
+        Projectile[]      shots;
+        int[]             xs, ys;
+        Point             loc;
         BombPack[]        bombPacks;
         UpdatingBombPack  bombPack;
         Player[]          players;
+        UpdatingPlayer[]  updating;
         UpdatingPlayer    player;
+        boolean[]         moved;
 
-        counter = 0;
-        while (!done) {
-            before = System.currentTimeMillis();
+        /* nothing but the update changes the world. commands from
+         * the clients were queued, and are applied here. */
+        server.receiveFromRegions();
+        server.applyClientInputs();
 
-            /* update explosions */
-            explosions = world.getExplosions();
-            n = explosions.length;
-            for (q = 0; q < n; q++) {
-                explosion = (UpdatingExplosion) explosions[q];
-                if (explosion.doRemove()) {
-                    world.removeExplosion(explosion);
-                    server.sendRemoveExplosion(explosion);
-                } else if (explosion.update())
-                    server.sendSetExplosionLevel(explosion);
-            }
+        /* the closest-object lookups use locations as of now. */
+        world.rebuildIndex();
 
-            /* update phasers */
-            phasers = world.getPhasers();
-            n = phasers.length;
-            for (q = 0; q < n; q++) {
-                phaser = (UpdatingPhaser) phasers[q];
-                if (phaser.doRemove()) {
-                    world.removePhaser(phaser);
-                    server.sendRemovePhaser(phaser);
-                } else if (phaser.update())
-                    server.sendSetPhaserPosition(phaser);
-            }
+        /* update explosions */
+        explosions = world.getExplosions();
+        n = explosions.length;
+        for (q = 0; q < n; q++) {
+            explosion = (UpdatingExplosion) explosions[q];
+            if (explosion.doRemove()) {
+                world.removeExplosion(explosion);
+                server.sendRemoveExplosion(explosion);
+            } else if (explosion.update())
+                server.sendSetExplosionLevel(explosion);
+        }
 
-            /* update bombs */
-            bombs = world.getBombs();
-            n = bombs.length;
-            for (q = 0; q < n; q++) {
-                bomb = (UpdatingBomb) bombs[q];
-                if (bomb.doRemove()) {
-                    world.removeBomb(bomb);
-                    server.sendRemoveBomb(bomb);
-                } else if (bomb.update())
-                    server.sendSetBombPosition(bomb);
-            }
+        /* update phasers and bombs. all shots are moved first,
+         * possibly several at a time, collecting the ships they
+         * hit. the hits are then applied one by one in the order
+         * of the shots, so the outcome does not depend on how the
+         * moving was split between threads. */
+        phasers = world.getPhasers();
+        bombs = world.getBombs();
+        shots = new Projectile[phasers.length + bombs.length];
+        numShots = 0;
+        n = phasers.length;
+        for (q = 0; q < n; q++) {
+            phaser = (UpdatingPhaser) phasers[q];
+            if (phaser.doRemove()) {
+                world.removePhaser(phaser);
+                server.sendRemovePhaser(phaser);
+            } else
+                shots[numShots++] = phaser;
+        }
 
-            /* update bomb packs */
-            bombPacks = world.getBombPacks();
-            n = bombPacks.length;
-            for (q = 0; q < n; q++) {
-                bombPack = (UpdatingBombPack) bombPacks[q];
-                if (bombPack.doRemove()) {
-                    world.removeBombPack(bombPack);
-                    server.sendRemoveBombPack(bombPack);
-                } else if (bombPack.update())
-                    server.sendSetBombPackPosition(bombPack);
-            }
+        n = bombs.length;
+        numBombs = 0;
+        for (q = 0; q < n; q++) {
+            bomb = (UpdatingBomb) bombs[q];
+            if (bomb.doRemove()) {
+                world.removeBomb(bomb);
+                server.sendRemoveBomb(bomb);
+            } else
+                bombs[numBombs++] = bomb;
+        }
+
+        /* the targets of the homing bombs are looked up in one
+         * batch before any bomb moves. */
+        owners = new Player[numBombs];
+        targets = new Player[numBombs];
+        xs = new int[numBombs];
+        ys = new int[numBombs];
+        for (q = 0; q < numBombs; q++) {
+            owners[q] = bombs[q].getOwner();
+            loc = bombs[q].getLocation();
+            xs[q] = loc.x;
+            ys[q] = loc.y;
+        }
+        world.getClosestEnemies(owners, xs, ys, targets);
+        for (q = 0; q < numBombs; q++) {
+            bomb = (UpdatingBomb) bombs[q];
+            bomb.setTarget((UpdatingPlayer) targets[q]);
+            shots[numShots++] = bomb;
+        }
+
+        pool.moveShots(shots, numShots, hits);
+        n = hits.size();
+        for (q = 0; q < n; q++)
+            hits.getShot(q).hit(hits.getPlayer(q));
+        hits.clear();
+        for (q = 0; q < numShots; q++)
+            if (shots[q] instanceof UpdatingPhaser)
+                server.markPhaserMoved((UpdatingPhaser) shots[q]);
+            else
+                server.markBombMoved((UpdatingBomb) shots[q]);
 
-            /* update players */
+        /* update bomb packs */
+        bombPacks = world.getBombPacks();
+        n = bombPacks.length;
+        for (q = 0; q < n; q++) {
+            bombPack = (UpdatingBombPack) bombPacks[q];
+            if (bombPack.doRemove()) {
+                world.removeBombPack(bombPack);
+                server.sendRemoveBombPack(bombPack);
+            } else if (bombPack.update())
+                server.markBombPackMoved(bombPack);
+        }
+
+        /* update players */
+        players = world.getPlayers();
+        n = players.length;
+        updating = new UpdatingPlayer[n];
+        moved = new boolean[n];
+        for (q = 0; q < n; q++)
+            updating[q] = (UpdatingPlayer) players[q];
+        pool.movePlayers(updating, n, moved);
+        for (q = 0; q < n; q++) {
+            player = updating[q];
+            if (moved[q])
+                server.markPlayerMoved(player);
+            player.setNewPhaserOk(true);
+        }
+
+        /* what left our part of a shared world. */
+        server.handOff();
+
+        /* possibly update damage and phaser heat */
+        if (++counter >= updateFrequency) { /* each second */
+            counter = 0;
             players = world.getPlayers();
             n = players.length;
             for (q = 0; q < n; q++) {
                 player = (UpdatingPlayer) players[q];
-                if (player.update())
-                    server.sendSetPlayerPosition(player);
-                player.setNewPhaserOk(true);
-            }
-
-            /* possibly update damage and phaser heat */
-            if (++counter >= updateFrequency) { /* each second */
-                counter = 0;
-                players = world.getPlayers();
-                n = players.length;
-                for (q = 0; q < n; q++) {
-                    player = (UpdatingPlayer) players[q];
-                    if (player.isAlive()) {
-                        player.decDamage(1);
-                        player.decPhaserHeat((int) (Math.random() * 7) + 5);
-                        player.getClientHandler().sendSetPlayerStatus();
-                    }
+                if (player.isAlive() && !player.isGhost()) {
+                    player.decDamage(1);
+                    player.decPhaserHeat((int) (Math.random() * 7) + 5);
+                    player.getClientHandler().sendSetPlayerStatus();
                 }
             }
+            server.checkLinks();
+        }
 
-            /* make sure every packet is delivered. */
-            server.flush();
+        /* a server going down sends its players elsewhere. */
+        server.migrate();
 
-            delta = System.currentTimeMillis() - before;
+        /* let others see what the world looks like now. */
+        server.publishSnapshot();
+        server.replicate();
+        server.sendPositions();
+        server.sendGhosts();
+        server.markTick();
+
+        /* make sure every packet is delivered. */
+        server.flush();
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* IMPORTANT: update max speeds in UserDefinedClient if changing
+     * update frequency! */
+    static final int updateFrequency = 15;
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /* with more than one thread, the shots and ships are moved in
+     * parallel. */
+    public Updater(Server server, World world, int threads) {
+        this.server = server;
+        this.world = world;
+        pool = new UpdatePool(threads);
+        done = false;
+        hits = new HitBuffer();
+        counter = 0;
+        ticker = null;
+        thread = new Thread(this);
+        thread.setDaemon(true);
+    }
+
+    /* an updater without a thread of its own: each update is run on
+     * one of the threads of `ticker', which it shares with other
+     * updaters, starting after `delayMillis'. the updates of one
+     * updater never overlap. */
+    public Updater(Server server, World world,
+                   ScheduledExecutorService ticker, long delayMillis) {
+        this.server = server;
+        this.world = world;
+        pool = new UpdatePool(1);
+        done = false;
+        hits = new HitBuffer();
+        counter = 0;
+        this.ticker = ticker;
+        this.delayMillis = delayMillis;
+        thread = null;
+    }
+
+    public void start() {
+        if (ticker != null)
+            ticker.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        else
+            thread.start();
+    }
+
+    public void stop() {
+        done = true;
+        if (thread != null)
+            thread.interrupt();
+        pool.shutdown();
+    }
+
+    /* a line for the operator about how long the updates have been
+     * taking since the last time this was called. */
+    public final synchronized String describeTicks() {
+        String ret;
+
+        ret = ticks + " updates, "
+              + (ticks > 0 ? tickNanos / ticks / 1000L : 0) + " us mean, "
+              + maxTickNanos / 1000L + " us max, "
+              + lateTicks + " late";
+        ticks = lateTicks = 0;
+        tickNanos = maxTickNanos = 0L;
+        return ret;
+    }
+
+    /* how long `percent' percent of the recent updates took at most,
+     * in microseconds. 0 if there have been none. */
+    public final long getTickMicros(int percent) {
+        int    n;
+        long[] sorted;
+
+        synchronized (this) {
+            n = numRecent;
+            sorted = new long[n];
+            System.arraycopy(recentNanos, 0, sorted, 0, n);
+        }
+        if (n == 0)
+            return 0L;
+        Arrays.sort(sorted);
+        return sorted[Math.min(n - 1, (n * percent + 99) / 100 - 1)] / 1000L;
+    }
+
+    /* Runnable *********************************************************/
+    public void run() {
+        long delta;
+        long updateMillis = 1000 / updateFrequency;
+
+        if (ticker != null) {
+            /* a single update, after which the next is scheduled
+             * the same way our own thread would have slept. */
+            if (done)
+                return;
+            try {
+                delta = tick();
+            } catch (RuntimeException e) {
+                /* must not stop this world, nor the shared threads. */
+                System.err.println("server: update failed: " + e);
+                e.printStackTrace();
+                delta = 0;
+            }
+            if (!done)
+                ticker.schedule(this, Math.max(0, updateMillis - delta),
+                                TimeUnit.MILLISECONDS);
+            return;
+        }
+        while (!done) {
+            delta = tick();
             if (delta < updateMillis) {
                 try {
                     Thread.sleep(updateMillis - delta);
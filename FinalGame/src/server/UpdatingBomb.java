@@ -2,10 +2,14 @@ package server;
 
 import java.awt.*;
 
+import no.shhsoft.net.*;
+
+import util.*;
 import objects.*;
 
 final class UpdatingBomb
-extends Bomb {
+extends Bomb
+implements Projectile {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
@@ -16,7 +20,6 @@ extends Bomb {
     private              double maxTurn
                                  = 2.0 * Math.PI
                                  / (20.0 + Math.random() * 7.0);
-    private static short nextId = 0;
 
     private int     maxDistance;
     private Server  server;
@@ -26,18 +29,74 @@ extends Bomb {
     private double  speed;
     private int     distance;
     private boolean remove;
+    private UpdatingPlayer target;
 
 /*-----------------------------------------------------------------------+
  |  PACKAGE LOCAL PART                                                   |
  +----------------------------------------------------------------------*/
-    static final short getNextId() {
-        return nextId++;
+    /* the enemy closest to the bomb, as looked up by the updater
+     * before moving the bombs, or null. */
+    final void setTarget(UpdatingPlayer target) {
+        this.target = target;
+    }
+
+    final boolean doRemove() {
+        return remove;
+    }
+
+    /* what the next region needs to carry on moving us. starts with
+     * the arguments to the constructor, see Regions. */
+    final void putState(Message m) {
+        m.putShort(getOwner().getId());
+        m.putInt((int) (x + 0.5));
+        m.putInt((int) (y + 0.5));
+        m.putDouble(getDirection());
+        m.putInt(getColor().getRGB());
+        m.putDouble(dx);
+        m.putDouble(dy);
+        m.putDouble(speed);
+        m.putDouble(maxTurn);
+        m.putInt(distance);
+        m.putInt(maxDistance);
+    }
+
+    /* the rest of what putState put in `m', after the constructor. */
+    final void takeState(Message m) {
+        dx = m.getDouble();
+        dy = m.getDouble();
+        speed = m.getDouble();
+        maxTurn = m.getDouble();
+        distance = m.getInt();
+        maxDistance = m.getInt();
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    public UpdatingBomb(Server server, World world, short id,
+                        UpdatingPlayer owner, int x, int y,
+                        double dir, Color col) {
+        super(id, owner, x, y, dir, col);
+
+        this.server = server;
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        distance = 0;
+        maxDistance = minMaxDistance + (int) (Math.random() * 300.0);
+        dx = maxSpeed * FastMath.cos(dir);
+        dy = maxSpeed * FastMath.sin(dir);
+        speed = maxSpeed;
+        remove = false;
     }
 
-    /* called by the updater daemon */
-    final synchronized boolean update() {
+    /* Projectile *******************************************************/
+    /* called by the updater daemon, possibly for several bombs at the
+     * same time. */
+    public final void move(HitBuffer hits) {
         int            q, n;
-        double         px, py, m1x, m1y, m2x, m2y, m3x, m3y;
+        int            reach;
+        double         px, py;
         Player[]       players;
         UpdatingPlayer player, enemy;
         Ship           ship;
@@ -48,8 +107,8 @@ extends Bomb {
 
         /* try to turn direction towards an enemy player */
         myLoc = getLocation();
-        enemy = (UpdatingPlayer) world.getClosestEnemy(getOwner(),
-                                                       myLoc.x, myLoc.y);
+        enemy = target;
+        target = null;
         if (enemy != null) {
             /* calculate turn. */
             double wantedDirection, dir, ddir, addir, correct;
@@ -74,13 +133,11 @@ extends Bomb {
                 else
                     dir -= correct;
             }
-            dir = Math.IEEEremainder(dir, 2.0 * Math.PI);
-            if (dir < 0.0)
-                dir += 2.0 * Math.PI;
+            dir = FastMath.normalizeAngle(dir);
             setDirection(dir);
 
-            dx += quantSpeed * Math.cos(dir);
-            dy += quantSpeed * Math.sin(dir);
+            dx += quantSpeed * FastMath.cos(dir);
+            dy += quantSpeed * FastMath.sin(dir);
             speed = Math.sqrt(dx * dx + dy * dy);
             if (speed > maxSpeed) {
                 dx *= maxSpeed / speed;
@@ -98,74 +155,51 @@ extends Bomb {
             remove = true;
         }
 
-        /* any ships hit? */
-        /* as the bullet moves rather far for each update, we better check
-           some midpoints between the previous and the new location too. */
-        m1x = px + (x - px) / 2.0;
-        m1y = py + (y - py) / 2.0;
-        m2x = px + (m1x - px) / 2.0;
-        m2y = py + (m1y - py) / 2.0;
-        m3x = m1x + (x - m1x) / 2.0;
-        m3y = m1y + (y - m1y) / 2.0;
-        players = world.getPlayers();
+        /* any ships hit? they are only noted here. the shot is used
+           up when a hit is applied, see hit(). */
+        /* as the shot moves rather far for each update, check the entire
+           line from the previous to the new location, against the ships
+           that are close enough to the line to possibly touch it. */
+        reach = (int) (Math.sqrt((x - px) * (x - px) + (y - py) * (y - py))
+                       / 2.0 + 1.0) + Ship.MAX_RADIUS;
+        players = world.getEnemiesNear(getOwner(),
+                                       (int) ((px + x) / 2.0 + 0.5),
+                                       (int) ((py + y) / 2.0 + 0.5),
+                                       reach);
         n = players.length;
         for (q = 0; q < n; q++) {
             player = (UpdatingPlayer) players[q];
-            if (player == getOwner() || !player.isAlive())
-                continue;
             ship = player.getShip();
-            if (ship.isHitBy((int) (x + 0.5), (int) (y + 0.5))
-                || ship.isHitBy((int) (m1x + 0.5), (int) (m1y + 0.5))
-                || ship.isHitBy((int) (m2x + 0.5), (int) (m2y + 0.5))
-                || ship.isHitBy((int) (m3x + 0.5), (int) (m3y + 0.5))
-                ) {
-                player.handleHit((UpdatingPlayer) getOwner(), WeaponType.BOMB,
-                                 30 + (int) (Math.random() * 30.0),
-                                 server);
-                remove = true;
-            }
+            if (ship.isHitBy(px, py, x, y))
+                hits.add(this, player);
         }
 
         super.setLocation((int) (x + 0.5), (int) (y + 0.5));
-        return true;
-    }
-
-    final boolean doRemove() {
-        return remove;
     }
 
-/*-----------------------------------------------------------------------+
- |  PUBLIC INTERFACE                                                     |
- +----------------------------------------------------------------------*/
-    public UpdatingBomb(Server server, World world, short id,
-                        UpdatingPlayer owner, int x, int y,
-                        double dir, Color col) {
-        super(id, owner, x, y, dir, col);
-
-        this.server = server;
-        this.world = world;
-        this.x = x;
-        this.y = y;
-        distance = 0;
-        maxDistance = minMaxDistance + (int) (Math.random() * 300.0);
-        dx = maxSpeed * Math.cos(dir);
-        dy = maxSpeed * Math.sin(dir);
-        speed = maxSpeed;
-        remove = false;
+    public final void hit(UpdatingPlayer player) {
+        /* an earlier shot may have killed it after we moved. then we
+         * missed, and fly on. */
+        if (!player.isAlive())
+            return;
+        remove = true;
+        player.handleHit((UpdatingPlayer) getOwner(), WeaponType.BOMB,
+                         30 + (int) (Math.random() * 30.0),
+                         server);
     }
 
     /* Bomb *************************************************************/
-    public final synchronized Point getLocation() {
+    public final Point getLocation() {
         return new Point((int) (x + 0.5), (int) (y + 0.5));
     }
 
-    public final synchronized void setLocation(Point loc) {
+    public final void setLocation(Point loc) {
         super.setLocation(loc);
         x = loc.x;
         y = loc.y;
     }
 
-    public final synchronized void setLocation(int x, int y) {
+    public final void setLocation(int x, int y) {
         super.setLocation(x, y);
         this.x = x;
         this.y = y;
@@ -8,8 +8,6 @@ extends BombPack {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
-    private static short nextId = 0;
-
     private Server  server;
     private World   world;
     private double  x, y;   /* server needs accurate location */
@@ -19,12 +17,12 @@ extends BombPack {
 /*-----------------------------------------------------------------------+
  |  PACKAGE LOCAL PART                                                   |
  +----------------------------------------------------------------------*/
-    static final short getNextId() {
-        return nextId++;
+    final int getBombsLeft() {
+        return bombsLeft;
     }
 
     /* called by the updater daemon */
-    final synchronized boolean update() {
+    final boolean update() {
         int               q, n;
         Player[]          players;
         UpdatingPlayer player;
@@ -35,7 +33,8 @@ extends BombPack {
         n = players.length;
         for (q = 0; q < n; q++) {
             player = (UpdatingPlayer) players[q];
-            if (!player.isAlive())
+            /* ghosts pick up in the region they are from. */
+            if (!player.isAlive() || player.isGhost())
                 continue;
             ship = player.getShip();
             if (ship.isHitBy(loc.x, loc.y)
@@ -75,17 +74,17 @@ extends BombPack {
     }
 
     /* BombPack *********************************************************/
-    public final synchronized Point getLocation() {
+    public final Point getLocation() {
         return new Point((int) (x + 0.5), (int) (y + 0.5));
     }
 
-    public final synchronized void setLocation(Point loc) {
+    public final void setLocation(Point loc) {
         super.setLocation(loc);
         x = loc.x;
         y = loc.y;
     }
 
-    public final synchronized void setLocation(int x, int y) {
+    public final void setLocation(int x, int y) {
         super.setLocation(x, y);
         this.x = x;
         this.y = y;
@@ -8,8 +8,6 @@ extends Explosion {
 /*-----------------------------------------------------------------------+
  |  PRIVATE PART                                                         |
  +----------------------------------------------------------------------*/
-    private static short nextId = 0;
-
     private Server  server;
     private World   world;
     private boolean remove;
@@ -17,12 +15,8 @@ extends Explosion {
 /*-----------------------------------------------------------------------+
  |  PACKAGE LOCAL PART                                                   |
  +----------------------------------------------------------------------*/
-    static final short getNextId() {
-        return nextId++;
-    }
-
     /* called by the updater daemon */
-    final synchronized boolean update() {
+    final boolean update() {
         setLevel((byte) (getLevel() + 1));
         if (getLevel() > getMaxLevel())
             remove = true;
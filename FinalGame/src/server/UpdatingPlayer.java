@@ -2,6 +2,7 @@ package server;
 
 import java.awt.*;
 
+import util.*;
 import objects.*;
 
 final class UpdatingPlayer
@@ -12,7 +13,6 @@ extends Player {
     /* IMPORTANT: update in UserDefinedClient if changing max speed! */
     private static final double maxSpeed = 8.0;
     private static final double quantSpeed = 1.5;
-    private static short        nextId = 0;
 
     private ClientHandler cliHandler;
     private World         world;
@@ -30,12 +30,26 @@ extends Player {
 /*-----------------------------------------------------------------------+
  |  PACKAGE LOCAL PART                                                   |
  +----------------------------------------------------------------------*/
-    static final short getNextId() {
-        return nextId++;
+    /* true for a copy of a player in another region, see Regions. */
+    final boolean isGhost() {
+        return cliHandler == null;
+    }
+
+    final double getDriftX() {
+        return driftX;
+    }
+
+    final double getDriftY() {
+        return driftY;
+    }
+
+    final void setDrift(double driftX, double driftY) {
+        this.driftX = driftX;
+        this.driftY = driftY;
     }
 
     /* called by the updater daemon */
-    final synchronized boolean update() {
+    final boolean update() {
         boolean ret = false;
 
         if (!isAlive())
@@ -44,21 +58,20 @@ extends Player {
         if (turn != 0) {
             double dir = getDirection();
 
-            dir += (turn * 2.0 * Math.PI) / 32.0;
-            dir = Math.IEEEremainder(dir, 2.0 * Math.PI);
-            if (dir < 0.0)
-                dir += 2.0 * Math.PI;
-            setDirection(dir);
+            dir += (turn * 2.0 * Math.PI) / Ship.HEADINGS;
+            setDirection(FastMath.normalizeAngle(dir));
             ret = true;
         }
         if (thrust != 0) {
             double dir = getDirection();
-            double speed;
-
-            driftX += quantSpeed * thrust * Math.cos(dir);
-            driftY -= quantSpeed * thrust * Math.sin(dir);
-            speed = Math.sqrt(driftX * driftX + driftY * driftY);
-            if (speed > maxSpeed) {
+            double speed2, speed;
+
+            driftX += quantSpeed * thrust * FastMath.cos(dir);
+            driftY -= quantSpeed * thrust * FastMath.sin(dir);
+            /* only take the root when the speed must be limited. */
+            speed2 = driftX * driftX + driftY * driftY;
+            if (speed2 > maxSpeed * maxSpeed) {
+                speed = Math.sqrt(speed2);
                 driftX *= maxSpeed / speed;
                 driftY *= maxSpeed / speed;
             }
@@ -90,6 +103,11 @@ extends Player {
         return cliHandler;
     }
 
+    /* a client that lost its connection and came back on a new one. */
+    final void setClientHandler(ClientHandler cliHandler) {
+        this.cliHandler = cliHandler;
+    }
+
     final byte getTurn() {
         return turn;
     }
@@ -126,6 +144,11 @@ extends Player {
         UpdatingExplosion e;
         UpdatingBombPack  bp;
 
+        if (isGhost()) {
+            /* it is up to the region that has the real player. */
+            server.sendGhostHit(this, hitter, weapon, damage);
+            return;
+        }
         server.sendPlayerHit(this, hitter, weapon);
 
         /* increase the damage of the player */
@@ -142,20 +165,24 @@ extends Player {
             /* make an explosion */
             loc = getLocation();
             e = new UpdatingExplosion(server, world,
-                                      UpdatingExplosion.getNextId(),
+                                      server.getIds().nextExplosion(),
                                       loc.x, loc.y, (byte) 0, (byte) 15);
             world.addExplosion(e);
             server.sendNewExplosion(e);
 
             /* update score for murderer (low moral, as always!) */
-            hitter.incScore();
-            server.sendSetPlayerScore(hitter);
+            if (hitter != null && hitter.isGhost())
+                server.sendGhostKill(hitter);
+            else if (hitter != null) {
+                hitter.incScore();
+                server.sendSetPlayerScore(hitter);
+            }
 
             /* possibly make the rest of the dead man's bombs
              * float around for others to find. */
             if (getBombsLeft() > 0) {
                 bp = new UpdatingBombPack(server, world,
-                                          UpdatingBombPack.getNextId(),
+                                          server.getIds().nextBombPack(),
                                           loc.x, loc.y, getDirection(),
                                           getShip().getColor(),
                                           getBombsLeft());
@@ -167,7 +194,7 @@ extends Player {
                 /* make a little explosion */
                 loc = getLocation();
                 e = new UpdatingExplosion(server, world,
-                                          UpdatingExplosion.getNextId(),
+                                          server.getIds().nextExplosion(),
                                           loc.x, loc.y, (byte) 0, (byte) 5);
                 world.addExplosion(e);
                 server.sendNewExplosion(e);
@@ -194,14 +221,22 @@ extends Player {
         setup();
     }
 
+    /* a ghost. */
+    UpdatingPlayer(World world, short id, String name) {
+        super(id, name);
+
+        this.world = world;
+        stopMovement();
+    }
+
     /* Player ***********************************************************/
-    public final synchronized void setLocation(Point loc) {
+    public final void setLocation(Point loc) {
         super.setLocation(loc);
         x = loc.x;
         y = loc.y;
     }
 
-    public final synchronized void setLocation(int x, int y) {
+    public final void setLocation(int x, int y) {
         super.setLocation(x, y);
         this.x = x;
         this.y = y;
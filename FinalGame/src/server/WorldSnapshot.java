@@ -0,0 +1,332 @@
+package server;
+
+import java.awt.*;
+import java.util.Hashtable;
+
+import objects.*;
+
+/*
+ * The state of every object in the world, as it was at the end of one
+ * update. A snapshot never changes once taken, so anyone may read it
+ * without locking, and without holding up the updater.
+ *
+ * Each kind of object is kept in a section of its own, stored as one
+ * array per field. A section that has not changed since the previous
+ * update is shared with the previous snapshot instead of copied, which
+ * makes taking a snapshot cheap when not much is going on. The stars
+ * are not kept, they are made from the seed of the world's StarField.
+ */
+public final class WorldSnapshot {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private long    tick;
+    private int     width, height;
+    private Section explosions;
+    private Section phasers;
+    private Section bombs;
+    private Section bombPacks;
+    private Section players;
+
+    private static final Section takeExplosions(World world) {
+        int         q;
+        Explosion[] a;
+        Section     s;
+        Point       loc;
+
+        a = world.getExplosions();
+        s = new Section(a.length);
+        s.ids = new short[a.length];
+        s.levels = new byte[a.length];
+        s.maxLevels = new byte[a.length];
+        for (q = 0; q < a.length; q++) {
+            loc = a[q].getLocation();
+            s.ids[q] = a[q].getId();
+            s.xs[q] = loc.x;
+            s.ys[q] = loc.y;
+            s.levels[q] = a[q].getLevel();
+            s.maxLevels[q] = a[q].getMaxLevel();
+        }
+        return s;
+    }
+
+    private static final Section takePhasers(World world) {
+        int      q;
+        Phaser[] a;
+        Section  s;
+        Point    loc;
+
+        a = world.getPhasers();
+        s = new Section(a.length);
+        s.ids = new short[a.length];
+        s.owners = new short[a.length];
+        s.dirs = new short[a.length];
+        s.colors = new int[a.length];
+        for (q = 0; q < a.length; q++) {
+            loc = a[q].getLocation();
+            s.ids[q] = a[q].getId();
+            s.owners[q] = a[q].getOwner().getId();
+            s.xs[q] = loc.x;
+            s.ys[q] = loc.y;
+            s.dirs[q] = a[q].getDirectionAsShort();
+            s.colors[q] = a[q].getColor().getRGB();
+        }
+        return s;
+    }
+
+    private static final Section takeBombs(World world) {
+        int     q;
+        Bomb[]  a;
+        Section s;
+        Point   loc;
+
+        a = world.getBombs();
+        s = new Section(a.length);
+        s.ids = new short[a.length];
+        s.owners = new short[a.length];
+        s.dirs = new short[a.length];
+        s.colors = new int[a.length];
+        for (q = 0; q < a.length; q++) {
+            loc = a[q].getLocation();
+            s.ids[q] = a[q].getId();
+            s.owners[q] = a[q].getOwner().getId();
+            s.xs[q] = loc.x;
+            s.ys[q] = loc.y;
+            s.dirs[q] = a[q].getDirectionAsShort();
+            s.colors[q] = a[q].getColor().getRGB();
+        }
+        return s;
+    }
+
+    private static final Section takeBombPacks(World world) {
+        int        q;
+        BombPack[] a;
+        Section    s;
+        Point      loc;
+
+        a = world.getBombPacks();
+        s = new Section(a.length);
+        s.ids = new short[a.length];
+        s.dirs = new short[a.length];
+        s.colors = new int[a.length];
+        for (q = 0; q < a.length; q++) {
+            loc = a[q].getLocation();
+            s.ids[q] = a[q].getId();
+            s.xs[q] = loc.x;
+            s.ys[q] = loc.y;
+            s.dirs[q] = a[q].getDirectionAsShort();
+            s.colors[q] = a[q].getColor().getRGB();
+        }
+        return s;
+    }
+
+    private static final Section takePlayers(World world) {
+        int      q;
+        Player[] a;
+        Section  s;
+        Point    loc;
+
+        a = world.getPlayers();
+        s = new Section(a.length);
+        s.ids = new short[a.length];
+        s.dirs = new short[a.length];
+        s.colors = new int[a.length];
+        s.names = new String[a.length];
+        s.alive = new boolean[a.length];
+        s.scores = new int[a.length];
+        s.antiScores = new int[a.length];
+        for (q = 0; q < a.length; q++) {
+            loc = a[q].getLocation();
+            s.ids[q] = a[q].getId();
+            s.names[q] = a[q].getName();
+            s.xs[q] = loc.x;
+            s.ys[q] = loc.y;
+            s.dirs[q] = a[q].getDirectionAsShort();
+            s.colors[q] = a[q].getShip().getColor().getRGB();
+            s.alive[q] = a[q].isAlive();
+            s.scores[q] = a[q].getScore();
+            s.antiScores[q] = a[q].getAntiScore();
+        }
+        return s;
+    }
+
+    private WorldSnapshot() {
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PACKAGE LOCAL PART                                                   |
+ +----------------------------------------------------------------------*/
+    /* bits telling which sections have changed since the previous
+     * snapshot. */
+    static final int EXPLOSIONS = 1;
+    static final int PHASERS    = 2;
+    static final int BOMBS      = 4;
+    static final int BOMB_PACKS = 8;
+    static final int PLAYERS    = 16;
+    static final int ALL        = 31;
+
+    /* called by the updater daemon. sections not in `changed' are
+     * taken from `previous', unless that is null. */
+    static final WorldSnapshot take(World world, WorldSnapshot previous,
+                                    int changed, long tick) {
+        WorldSnapshot s;
+
+        if (previous == null)
+            changed = ALL;
+        s = new WorldSnapshot();
+        s.tick = tick;
+        s.width = world.getWidth();
+        s.height = world.getHeight();
+        s.explosions = (changed & EXPLOSIONS) != 0
+                       ? takeExplosions(world) : previous.explosions;
+        s.phasers = (changed & PHASERS) != 0
+                    ? takePhasers(world) : previous.phasers;
+        s.bombs = (changed & BOMBS) != 0
+                  ? takeBombs(world) : previous.bombs;
+        s.bombPacks = (changed & BOMB_PACKS) != 0
+                      ? takeBombPacks(world) : previous.bombPacks;
+        s.players = (changed & PLAYERS) != 0
+                    ? takePlayers(world) : previous.players;
+        return s;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    /*
+     * The objects of one kind. Fields that make no sense for the kind
+     * of object are null. Coordinates and ids are indexed the same
+     * way, so the q'th object of a section is found at index q in
+     * each of them.
+     */
+    public static final class Section {
+        private int       n;
+        private short[]   ids;
+        private int[]     xs, ys;
+        private short[]   dirs;
+        private int[]     colors;
+        private short[]   owners;
+        private byte[]    levels, maxLevels;
+        private String[]  names;
+        private boolean[] alive;
+        private int[]     scores, antiScores;
+        private TileIndex tiles;   /* made when first asked for */
+        private Hashtable byId;    /* Short id -> Integer index, likewise */
+
+        private Section(int n) {
+            this.n = n;
+            xs = new int[n];
+            ys = new int[n];
+        }
+
+        /* the objects sorted into tiles. made once per section, so
+         * snapshots sharing the section share this too. */
+        final synchronized TileIndex getTiles(int worldWidth,
+                                              int worldHeight) {
+            if (tiles == null)
+                tiles = new TileIndex(this, worldWidth, worldHeight);
+            return tiles;
+        }
+
+        /* the index of the object with the given id, or -1 if it is
+         * not in this section. the lookup is made once per section,
+         * like the tiles. */
+        final synchronized int indexOf(short id) {
+            int     q;
+            Integer ret;
+
+            if (byId == null) {
+                byId = new Hashtable(n * 2 + 1);
+                for (q = 0; q < n; q++)
+                    byId.put(Short.valueOf(ids[q]), Integer.valueOf(q));
+            }
+            ret = (Integer) byId.get(Short.valueOf(id));
+            return ret != null ? ret.intValue() : -1;
+        }
+
+        public final int size() {
+            return n;
+        }
+
+        public final short getId(int q) {
+            return ids[q];
+        }
+
+        public final int getX(int q) {
+            return xs[q];
+        }
+
+        public final int getY(int q) {
+            return ys[q];
+        }
+
+        public final short getDirection(int q) {
+            return dirs[q];
+        }
+
+        public final int getColor(int q) {
+            return colors[q];
+        }
+
+        public final short getOwner(int q) {
+            return owners[q];
+        }
+
+        public final byte getLevel(int q) {
+            return levels[q];
+        }
+
+        public final byte getMaxLevel(int q) {
+            return maxLevels[q];
+        }
+
+        public final String getName(int q) {
+            return names[q];
+        }
+
+        public final boolean isAlive(int q) {
+            return alive[q];
+        }
+
+        public final int getScore(int q) {
+            return scores[q];
+        }
+
+        public final int getAntiScore(int q) {
+            return antiScores[q];
+        }
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    /* the number of the update this snapshot was taken after. */
+    public final long getTick() {
+        return tick;
+    }
+
+    public final Section getExplosions() {
+        return explosions;
+    }
+
+    public final Section getPhasers() {
+        return phasers;
+    }
+
+    public final Section getBombs() {
+        return bombs;
+    }
+
+    public final Section getBombPacks() {
+        return bombPacks;
+    }
+
+    public final Section getPlayers() {
+        return players;
+    }
+}
@@ -0,0 +1,122 @@
+package util;
+
+import java.util.Random;
+
+/**
+ * Compares <CODE>FastMath</CODE> with <CODE>Math</CODE>: prints the
+ * largest error seen for each function, and the time each takes per
+ * call. Run it by hand after changing the tables or the polynomial:
+ * <PRE>
+ *     java util.FastMathCheck
+ * </PRE>
+ */
+public final class FastMathCheck {
+/*-----------------------------------------------------------------------+
+ |  PRIVATE PART                                                         |
+ +----------------------------------------------------------------------*/
+    private static final int    ANGLES = 10000000;
+    private static final int    POINTS = 10000000;
+    private static final int    ROUNDS = 5;
+
+    private static double[] angles;
+    private static double[] ys, xs;
+    private static double   sink;  /* keeps the loops from being removed */
+
+    private static final void setup() {
+        int    q;
+        Random rnd;
+
+        rnd = new Random(1);
+        angles = new double[ANGLES];
+        for (q = 0; q < ANGLES; q++)
+            angles[q] = (rnd.nextDouble() * 8.0 - 4.0) * Math.PI;
+        ys = new double[POINTS];
+        xs = new double[POINTS];
+        for (q = 0; q < POINTS; q++) {
+            ys[q] = rnd.nextDouble() * 2000.0 - 1000.0;
+            xs[q] = rnd.nextDouble() * 2000.0 - 1000.0;
+        }
+    }
+
+    private static final void checkAccuracy() {
+        int    q;
+        double err, sinErr, cosErr, atanErr;
+
+        sinErr = cosErr = atanErr = 0.0;
+        for (q = 0; q < ANGLES; q++) {
+            err = Math.abs(FastMath.sin(angles[q]) - Math.sin(angles[q]));
+            if (err > sinErr)
+                sinErr = err;
+            err = Math.abs(FastMath.cos(angles[q]) - Math.cos(angles[q]));
+            if (err > cosErr)
+                cosErr = err;
+        }
+        for (q = 0; q < POINTS; q++) {
+            err = Math.abs(FastMath.atan2(ys[q], xs[q])
+                           - Math.atan2(ys[q], xs[q]));
+            if (err > atanErr)
+                atanErr = err;
+        }
+        System.out.println("max error: sin " + sinErr + ", cos " + cosErr
+                           + ", atan2 " + atanErr + " radians");
+    }
+
+    /* nanoseconds per call, of the last of a few rounds, so the
+     * compiler has had its go. */
+    private static final double timeSin(boolean fast) {
+        int    q, r;
+        long   before;
+        double sum, ret;
+
+        ret = 0.0;
+        for (r = 0; r < ROUNDS; r++) {
+            sum = 0.0;
+            before = System.nanoTime();
+            if (fast)
+                for (q = 0; q < ANGLES; q++)
+                    sum += FastMath.sin(angles[q]);
+            else
+                for (q = 0; q < ANGLES; q++)
+                    sum += Math.sin(angles[q]);
+            ret = (double) (System.nanoTime() - before) / ANGLES;
+            sink += sum;
+        }
+        return ret;
+    }
+
+    private static final double timeAtan2(boolean fast) {
+        int    q, r;
+        long   before;
+        double sum, ret;
+
+        ret = 0.0;
+        for (r = 0; r < ROUNDS; r++) {
+            sum = 0.0;
+            before = System.nanoTime();
+            if (fast)
+                for (q = 0; q < POINTS; q++)
+                    sum += FastMath.atan2(ys[q], xs[q]);
+            else
+                for (q = 0; q < POINTS; q++)
+                    sum += Math.atan2(ys[q], xs[q]);
+            ret = (double) (System.nanoTime() - before) / POINTS;
+            sink += sum;
+        }
+        return ret;
+    }
+
+/*-----------------------------------------------------------------------+
+ |  PUBLIC INTERFACE                                                     |
+ +----------------------------------------------------------------------*/
+    public static void main(String args[]) {
+        setup();
+        checkAccuracy();
+        System.out.println("sin:   Math " + timeSin(false) + " ns, FastMath "
+                           + timeSin(true) + " ns per call");
+        System.out.println("atan2: Math " + timeAtan2(false)
+                           + " ns, FastMath " + timeAtan2(true)
+                           + " ns per call");
+        if (sink == 42.0)
+            System.out.println();
+    }
+}